@@ -0,0 +1,72 @@
+package now.gf.diggit.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import now.gf.diggit.java.reflection.BulkLoadResult;
+import now.gf.diggit.java.reflection.ClassIntrospector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading metadata of many classes into an empty cache, one by one or in parallel.
+ * 
+ * @author Giorgio Ferrara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkLoadBenchmark {
+	@Param({ "256" })
+	public int classCount;
+	
+	private SyntheticClasses syntheticClasses;
+	private Class<?>[] classes;
+	private ExecutorService executor;
+	
+	@Setup
+	public void setUp() throws IOException {
+		syntheticClasses = new SyntheticClasses(classCount, 16);
+		classes = syntheticClasses.toArray();
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		executor.shutdownNow();
+		syntheticClasses.close();
+	}
+	
+	@Benchmark
+	public ClassIntrospector sequential() throws ClassNotFoundException {
+		ClassIntrospector classIntrospector = new ClassIntrospector(classCount);
+		classIntrospector.loadClassesMetadata(classes);
+		return classIntrospector;
+	}
+	
+	@Benchmark
+	public BulkLoadResult parallel() {
+		return new ClassIntrospector(classCount).loadClassesMetadataInParallel(classes);
+	}
+	
+	@Benchmark
+	public BulkLoadResult executor() {
+		return new ClassIntrospector(classCount).loadClassesMetadata(executor, classes);
+	}
+}
@@ -0,0 +1,63 @@
+package now.gf.diggit.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import now.gf.diggit.java.reflection.ClassIntrospector;
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <tt>getClassMetadata</tt> on classes already cached.
+ * 
+ * @author Giorgio Ferrara
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheHitBenchmark {
+	private static final int CLASS_COUNT = 64;
+	
+	private SyntheticClasses syntheticClasses;
+	private Class<?>[] classes;
+	private ClassIntrospector classIntrospector;
+	private int next;
+	
+	@Setup
+	public void setUp() throws IOException, ClassNotFoundException {
+		syntheticClasses = new SyntheticClasses(CLASS_COUNT, 8);
+		classes = syntheticClasses.toArray();
+		classIntrospector = new ClassIntrospector(CLASS_COUNT * 2);
+		classIntrospector.loadClassesMetadata(classes);
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		syntheticClasses.close();
+	}
+	
+	@Benchmark
+	public ClassMetadata sameClass() throws ClassNotFoundException {
+		return classIntrospector.getClassMetadata(classes[0]);
+	}
+	
+	@Benchmark
+	public ClassMetadata rotatingClasses() throws ClassNotFoundException {
+		next = (next + 1) & (CLASS_COUNT - 1);
+		return classIntrospector.getClassMetadata(classes[next]);
+	}
+}
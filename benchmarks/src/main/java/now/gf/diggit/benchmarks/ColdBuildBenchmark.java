@@ -0,0 +1,74 @@
+package now.gf.diggit.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import now.gf.diggit.java.reflection.ClassIntrospector;
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+import now.gf.diggit.java.reflection.model.FieldMetadata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building class metadata from scratch, for classes of growing field counts: names only,
+ * fields only, and every section.
+ * 
+ * @author Giorgio Ferrara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColdBuildBenchmark {
+	@Param({ "4", "32", "256" })
+	public int fieldCount;
+	
+	private SyntheticClasses syntheticClasses;
+	private Class<?> clz;
+	
+	@Setup
+	public void setUp() throws IOException {
+		new ClassIntrospector().registerAnnotation(Marker.class);
+		syntheticClasses = new SyntheticClasses(1, fieldCount);
+		clz = syntheticClasses.getClasses().get(0);
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		syntheticClasses.close();
+	}
+	
+	@Benchmark
+	public ClassMetadata namesOnly() {
+		return new ClassMetadata(clz);
+	}
+	
+	@Benchmark
+	public int fields() {
+		return new ClassMetadata(clz).getFields().size();
+	}
+	
+	@Benchmark
+	public void allSections(final Blackhole blackhole) {
+		ClassMetadata classMetadata = new ClassMetadata(clz);
+		blackhole.consume(classMetadata.getAnnotations());
+		for (FieldMetadata field : classMetadata.getFields()) {
+			blackhole.consume(field.getGetterMethodName());
+			blackhole.consume(field.getAnnotations());
+		}
+	}
+}
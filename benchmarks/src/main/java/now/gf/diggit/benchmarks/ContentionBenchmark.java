@@ -0,0 +1,74 @@
+package now.gf.diggit.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import now.gf.diggit.java.reflection.ClassIntrospector;
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Several threads sharing an introspector, either directly or behind a lock, to measure 
+ * what lock-free lookups save. When the cache is smaller than the working set, lookups 
+ * also build and evict.
+ * 
+ * @author Giorgio Ferrara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class ContentionBenchmark {
+	private static final int CLASS_COUNT = 256;
+	
+	@Param({ "256", "192" })
+	public int maxCacheSize;
+	
+	private SyntheticClasses syntheticClasses;
+	private Class<?>[] classes;
+	private ClassIntrospector sharedIntrospector;
+	private ClassIntrospector lockedIntrospector;
+	
+	@Setup
+	public void setUp() throws IOException {
+		syntheticClasses = new SyntheticClasses(CLASS_COUNT, 8);
+		classes = syntheticClasses.toArray();
+		sharedIntrospector = new ClassIntrospector(maxCacheSize);
+		lockedIntrospector = new ClassIntrospector(maxCacheSize);
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		syntheticClasses.close();
+	}
+	
+	@Benchmark
+	public ClassMetadata shared() throws ClassNotFoundException {
+		return sharedIntrospector.getClassMetadata(classes[ThreadLocalRandom.current().nextInt(CLASS_COUNT)]);
+	}
+	
+	@Benchmark
+	public ClassMetadata locked() throws ClassNotFoundException {
+		Class<?> clz = classes[ThreadLocalRandom.current().nextInt(CLASS_COUNT)];
+		synchronized (lockedIntrospector) {
+			return lockedIntrospector.getClassMetadata(clz);
+		}
+	}
+}
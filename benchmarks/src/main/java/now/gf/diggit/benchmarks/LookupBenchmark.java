@@ -0,0 +1,80 @@
+package now.gf.diggit.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import now.gf.diggit.java.reflection.ClassIntrospector;
+import now.gf.diggit.java.reflection.model.AnnotationMetadata;
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+import now.gf.diggit.java.reflection.model.FieldMetadata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Field and annotation lookups on fully built class metadata.
+ * 
+ * @author Giorgio Ferrara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+	@Param({ "8", "128" })
+	public int fieldCount;
+	
+	private SyntheticClasses syntheticClasses;
+	private ClassMetadata classMetadata;
+	private FieldMetadata annotatedField;
+	private String lastFieldName;
+	
+	@Setup
+	public void setUp() throws IOException, ClassNotFoundException {
+		ClassIntrospector classIntrospector = new ClassIntrospector();
+		classIntrospector.registerAnnotation(Marker.class);
+		syntheticClasses = new SyntheticClasses(1, fieldCount);
+		classMetadata = classIntrospector.getClassMetadata(syntheticClasses.getClasses().get(0));
+		lastFieldName = SyntheticClasses.fieldName(fieldCount - 1);
+		annotatedField = classMetadata.getNamedField(SyntheticClasses.fieldName(0));
+		annotatedField.getAnnotations();
+		classMetadata.getAnnotations();
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		syntheticClasses.close();
+	}
+	
+	@Benchmark
+	public FieldMetadata namedField() {
+		return classMetadata.getNamedField(lastFieldName);
+	}
+	
+	@Benchmark
+	public FieldMetadata fieldByOrdinal() {
+		return classMetadata.getField(fieldCount - 1);
+	}
+	
+	@Benchmark
+	public AnnotationMetadata classAnnotation() {
+		return classMetadata.getNamedAnnotation(Marker.class);
+	}
+	
+	@Benchmark
+	public AnnotationMetadata fieldAnnotation() {
+		return annotatedField.getNamedAnnotation(Marker.class);
+	}
+}
@@ -0,0 +1,17 @@
+package now.gf.diggit.benchmarks;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Annotation carried by synthetic classes and fields.
+ * 
+ * @author Giorgio Ferrara
+ * @see SyntheticClasses
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Marker {
+	String value();
+	
+	int weight() default 0;
+}
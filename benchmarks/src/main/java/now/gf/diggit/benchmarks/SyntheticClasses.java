@@ -0,0 +1,138 @@
+package now.gf.diggit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * <p>Generates, compiles and loads annotated bean classes with a given number of fields,
+ * so that benchmarks don't depend on whatever happens to be on the class path. Each field
+ * has a getter and a setter, and one field out of four carries {@link Marker}.</p>
+ * 
+ * <p>Classes are compiled into a temporary directory, deleted on {@link #close()}:
+ * their class files can be read back the same way as any other class.</p>
+ * 
+ * @author Giorgio Ferrara
+ */
+public class SyntheticClasses implements AutoCloseable {
+	public static final String PACKAGE_NAME = "now.gf.diggit.benchmarks.synthetic";
+	private static final String[] FIELD_TYPES = { "int", "String", "long", "java.util.List<String>", "boolean", "double[]" };
+	
+	private final Path directory;
+	private final URLClassLoader classLoader;
+	private final List<Class<?>> classes;
+	
+	/**
+	 * Generates classes.
+	 * 
+	 * @param classCount number of classes
+	 * @param fieldCount number of fields of each class
+	 * @throws IOException if classes can't be written or compiled
+	 * @throws IllegalStateException if no Java compiler is available, i.e. when running on a JRE
+	 */
+	public SyntheticClasses(final int classCount, final int fieldCount) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) throw new IllegalStateException("Benchmarks must run on a JDK");
+		
+		this.directory = Files.createTempDirectory("diggit-synthetic");
+		Path sourceDirectory = directory.resolve(PACKAGE_NAME.replace('.', File.separatorChar));
+		Files.createDirectories(sourceDirectory);
+		List<String> arguments = new ArrayList<String>(Arrays.asList("-nowarn", "-classpath", System.getProperty("java.class.path"), "-d", directory.toString()));
+		for (int i = 0; i < classCount; i++) {
+			Path source = sourceDirectory.resolve(className(i, fieldCount) + ".java");
+			Writer writer = Files.newBufferedWriter(source, StandardCharsets.UTF_8);
+			try {
+				writer.write(source(className(i, fieldCount), fieldCount));
+			} finally {
+				writer.close();
+			}
+			arguments.add(source.toString());
+		}
+		if (compiler.run(null, null, null, arguments.toArray(new String[arguments.size()])) != 0) {
+			throw new IOException("Synthetic classes can't be compiled");
+		}
+		
+		this.classLoader = new URLClassLoader(new URL[] { directory.toUri().toURL() }, SyntheticClasses.class.getClassLoader());
+		this.classes = new ArrayList<Class<?>>(classCount);
+		try {
+			for (int i = 0; i < classCount; i++) {
+				classes.add(classLoader.loadClass(PACKAGE_NAME + '.' + className(i, fieldCount)));
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Synthetic classes can't be loaded", e);
+		}
+	}
+	
+	public List<Class<?>> getClasses() {
+		return classes;
+	}
+	
+	public Class<?>[] toArray() {
+		return classes.toArray(new Class<?>[classes.size()]);
+	}
+	
+	/**
+	 * Returns the name of a field of every synthetic class.
+	 * 
+	 * @param index field index
+	 * @return field name
+	 */
+	public static String fieldName(final int index) {
+		return "field" + index;
+	}
+	
+	private static String className(final int index, final int fieldCount) {
+		return "Bean" + fieldCount + "x" + index;
+	}
+	
+	private static String source(final String className, final int fieldCount) {
+		StringBuilder source = new StringBuilder()
+			.append("package ").append(PACKAGE_NAME).append(";\n")
+			.append("@").append(Marker.class.getName()).append("(value = \"").append(className).append("\", weight = ").append(fieldCount).append(")\n")
+			.append("public class ").append(className).append(" {\n");
+		for (int i = 0; i < fieldCount; i++) {
+			String type = FIELD_TYPES[i % FIELD_TYPES.length];
+			if (i % 4 == 0) source.append("  @").append(Marker.class.getName()).append("(\"").append(fieldName(i)).append("\")\n");
+			source.append("  private ").append(type).append(' ').append(fieldName(i)).append(";\n");
+		}
+		for (int i = 0; i < fieldCount; i++) {
+			String type = FIELD_TYPES[i % FIELD_TYPES.length], property = "Field" + i;
+			source.append("  public ").append(type).append(type.equals("boolean") ? " is" : " get").append(property)
+					.append("() { return ").append(fieldName(i)).append("; }\n")
+				.append("  public void set").append(property).append('(').append(type).append(" value) { this.")
+					.append(fieldName(i)).append(" = value; }\n");
+		}
+		return source.append("}\n").toString();
+	}
+	
+	public void close() throws IOException {
+		classLoader.close();
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,40 @@
+package now.gf.diggit.java.classfile;
+
+import java.util.Map;
+
+/**
+ * <p>An annotation as found in a class file, along with the attribute values
+ * explicitly set where it is used. Enum constants are reported by name, 
+ * classes by canonical name, arrays as <tt>Object[]</tt> and nested annotations
+ * as <tt>ClassFileAnnotation</tt>.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassFileReader
+ */
+public class ClassFileAnnotation {
+	private final String typeName;
+	private final Map<String, Object> attributesMap;
+
+	ClassFileAnnotation(final String typeName, final Map<String, Object> attributesMap) {
+		this.typeName = typeName;
+		this.attributesMap = attributesMap;
+	}
+
+	/**
+	 * Returns the binary name of the annotation type.
+	 *
+	 * @return annotation type name
+	 */
+	public String getTypeName() {
+		return typeName;
+	}
+
+	public Map<String, Object> getAttributesMap() {
+		return attributesMap;
+	}
+
+	@Override
+	public String toString() {
+		return "ClassFileAnnotation [typeName=" + typeName + ", attributesMap=" + attributesMap + "]";
+	}
+}
@@ -0,0 +1,75 @@
+package now.gf.diggit.java.classfile;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>A field as declared in a class file.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassFileReader
+ */
+public class ClassFileField {
+	private final String name;
+	private final String descriptor;
+	private final int accessFlags;
+	private String signature;
+	private List<ClassFileAnnotation> annotations;
+
+	ClassFileField(final String name, final String descriptor, final int accessFlags) {
+		this.name = name;
+		this.descriptor = descriptor;
+		this.accessFlags = accessFlags;
+		this.annotations = Collections.emptyList();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the field descriptor, e.g. <tt>Ljava/lang/String;</tt> or <tt>[I</tt>.
+	 *
+	 * @return field descriptor
+	 */
+	public String getDescriptor() {
+		return descriptor;
+	}
+
+	public int getAccessFlags() {
+		return accessFlags;
+	}
+
+	/**
+	 * Returns the generic signature of the field, e.g. <tt>Ljava/util/List&lt;Ljava/lang/String;&gt;;</tt>.
+	 *
+	 * @return generic signature, null if the field type is not generic or attributes were not read
+	 * @see ClassFileReader#getFields(boolean)
+	 */
+	public String getSignature() {
+		return signature;
+	}
+
+	/**
+	 * Returns the runtime-visible annotations of the field.
+	 *
+	 * @return non-null list of annotations, empty if attributes were not read
+	 * @see ClassFileReader#getFields(boolean)
+	 */
+	public List<ClassFileAnnotation> getAnnotations() {
+		return annotations;
+	}
+
+	void setSignature(final String signature) {
+		this.signature = signature;
+	}
+
+	void setAnnotations(final List<ClassFileAnnotation> annotations) {
+		this.annotations = annotations;
+	}
+
+	@Override
+	public String toString() {
+		return "ClassFileField [name=" + name + ", descriptor=" + descriptor + ", accessFlags=" + accessFlags + "]";
+	}
+}
@@ -0,0 +1,631 @@
+package now.gf.diggit.java.classfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A minimal reader for the Java class file format, used to get the fields of
+ * a class in the exact order they are declared (Java introspection can't ensure this).</p>
+ *
+ * <p>Class bytes are read once into memory, then parsed in a single forward pass:
+ * the constant pool is only indexed (entries are decoded on demand, just for the
+ * names and descriptors of the fields) and parsing stops at the end of the field
+ * table, so methods and their code are never looked at. Nothing is retained
+ * once the reader itself is discarded.</p>
+ *
+ * <p>Since it never needs the class to be loaded, the reader also provides what 
+ * is needed to describe a class straight from its bytes: names, field signatures
+ * and runtime-visible annotations. These sections are parsed only when asked for.
+ * A reader is not meant to be shared among threads.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see <a href="https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html">The class File Format</a>
+ */
+public class ClassFileReader {
+	private static final int MAGIC = 0xCAFEBABE;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_FLOAT = 4;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_STRING = 8;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_INTERFACE_METHODREF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+	private static final int CONSTANT_METHOD_HANDLE = 15;
+	private static final int CONSTANT_METHOD_TYPE = 16;
+	private static final int CONSTANT_DYNAMIC = 17;
+	private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	private static final int CONSTANT_MODULE = 19;
+	private static final int CONSTANT_PACKAGE = 20;
+
+	private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+	private static final String SIGNATURE = "Signature";
+	private static final String INNER_CLASSES = "InnerClasses";
+
+	private final byte[] bytes;
+	private int[] constantOffsets;  // Offset of each constant pool entry, tag included
+	private int accessFlagsOffset;  // Offset of the access_flags item
+	private int fieldsOffset;       // Offset of the fields_count item
+	private int attributesOffset;   // Offset of the class attributes_count item, 0 until computed
+	private Map<String, String[]> innerClasses;  // key=<binary name>, value=<binary name of outer class, simple name>
+	private int cursor;             // Current offset while parsing annotations
+
+	/**
+	 * Builds a new <tt>ClassFileReader</tt> over the bytes of a class file.
+	 *
+	 * @param bytes content of a class file
+	 * @throws ClassFormatError if bytes don't represent a valid class file
+	 */
+	public ClassFileReader(final byte[] bytes) {
+		if (bytes == null) throw new IllegalArgumentException("Unspecified class bytes");
+
+		this.bytes = bytes;
+		try {
+			parseHeader();
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new ClassFormatError("Truncated class file");
+		}
+	}
+
+	/**
+	 * Builds a new <tt>ClassFileReader</tt> for an already loaded class by locating
+	 * its class file through the class' own resources.
+	 *
+	 * @param clz class to read
+	 * @return a reader over the class file of the specified class
+	 * @throws ClassNotFoundException if the class file can't be found or read
+	 */
+	public static ClassFileReader forClass(final Class<?> clz) throws ClassNotFoundException {
+		if (clz == null) throw new IllegalArgumentException("Unspecified class");
+
+		String resourceName = "/" + clz.getName().replace('.', '/') + ".class";
+		InputStream in = clz.getResourceAsStream(resourceName);
+		if (in == null) throw new ClassNotFoundException(clz.getName());
+		try {
+			return new ClassFileReader(readFully(in));
+		} catch (IOException e) {
+			throw new ClassNotFoundException(clz.getName(), e);
+		} finally {
+			try { in.close(); } catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Reads the class file of a class, as found by the specified class loader, without loading the class.
+	 *
+	 * @param classLoader class loader to look the class file up with, null for the system class loader
+	 * @param className binary name of the class
+	 * @return content of the class file, null if the class file can't be found
+	 * @throws IOException if the class file can't be read
+	 */
+	public static byte[] readClassFile(final ClassLoader classLoader, final String className) throws IOException {
+		if (className == null) throw new IllegalArgumentException("Unspecified class name");
+
+		String resourceName = className.replace('.', '/') + ".class";
+		InputStream in = classLoader == null ? ClassLoader.getSystemResourceAsStream(resourceName) : classLoader.getResourceAsStream(resourceName);
+		if (in == null) return null;
+		try {
+			return readFully(in);
+		} finally {
+			try { in.close(); } catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Returns the fields of the class in the order they are declared,
+	 * without their signatures and annotations.
+	 *
+	 * @return non-null list of fields
+	 */
+	public List<ClassFileField> getFields() {
+		return getFields(false);
+	}
+
+	/**
+	 * Returns the fields of the class in the order they are declared.
+	 *
+	 * @param readAttributes whether generic signatures and runtime-visible annotations of fields have to be read
+	 * @return non-null list of fields
+	 */
+	public List<ClassFileField> getFields(final boolean readAttributes) {
+		try {
+			int offset = fieldsOffset;
+			int count = readUnsignedShort(offset);
+			offset += 2;
+			if (count == 0) return Collections.emptyList();
+
+			List<ClassFileField> fields = new ArrayList<ClassFileField>(count);
+			for (int i = 0; i < count; i++) {
+				int accessFlags = readUnsignedShort(offset);
+				String name = getUtf8(readUnsignedShort(offset + 2));
+				String descriptor = getUtf8(readUnsignedShort(offset + 4));
+				ClassFileField field = new ClassFileField(name, descriptor, accessFlags);
+				if (readAttributes) readFieldAttributes(field, offset + 6);
+				offset = skipAttributes(offset + 6);
+				fields.add(field);
+			}
+			return fields;
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new ClassFormatError("Truncated class file");
+		}
+	}
+
+	/**
+	 * Returns the access flags of the class.
+	 *
+	 * @return access flags, as defined by the class file format
+	 */
+	public int getAccessFlags() {
+		return readUnsignedShort(accessFlagsOffset);
+	}
+
+	/**
+	 * Returns the binary name of the class, e.g. <tt>java.util.Map$Entry</tt>.
+	 *
+	 * @return binary class name
+	 */
+	public String getClassName() {
+		return getClassConstant(readUnsignedShort(accessFlagsOffset + 2));
+	}
+
+	/**
+	 * Returns the binary name of the superclass.
+	 *
+	 * @return binary name of the superclass, null for <tt>java.lang.Object</tt>
+	 */
+	public String getSuperclassName() {
+		int index = readUnsignedShort(accessFlagsOffset + 4);
+		return index == 0 ? null : getClassConstant(index);
+	}
+
+	/**
+	 * Returns the canonical name of the class, as {@link Class#getCanonicalName()} would.
+	 *
+	 * @return canonical class name, null for local and anonymous classes
+	 */
+	public String getCanonicalName() {
+		return toCanonicalName(getClassName(), true);
+	}
+
+	/**
+	 * Returns the simple name of the class, as {@link Class#getSimpleName()} would.
+	 *
+	 * @return simple class name, empty for anonymous classes
+	 */
+	public String getSimpleName() {
+		String className = getClassName();
+		String[] innerClass = getInnerClasses().get(className);
+		if (innerClass != null) return innerClass[1] == null ? "" : innerClass[1];
+		return className.substring(className.lastIndexOf('.') + 1);
+	}
+
+	/**
+	 * Returns the package of the class.
+	 *
+	 * @return package name, null for classes in the default package
+	 */
+	public String getPackageName() {
+		String className = getClassName();
+		int index = className.lastIndexOf('.');
+		return index < 0 ? null : className.substring(0, index);
+	}
+
+	/**
+	 * Returns the runtime-visible annotations of the class, in the order they appear in the class file.
+	 * Only attributes explicitly set are reported: default values live in the annotation's own class file.
+	 *
+	 * @return non-null list of annotations
+	 */
+	public List<ClassFileAnnotation> getAnnotations() {
+		try {
+			int offset = getAttributesOffset();
+			int count = readUnsignedShort(offset);
+			offset += 2;
+			for (int i = 0; i < count; i++) {
+				int length = readInt(offset + 2);
+				if (RUNTIME_VISIBLE_ANNOTATIONS.equals(getUtf8(readUnsignedShort(offset)))) return readAnnotations(offset + 6);
+				offset += 6 + length;
+			}
+			return Collections.emptyList();
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new ClassFormatError("Truncated class file");
+		}
+	}
+
+	/**
+	 * Converts a field descriptor into the canonical name of the type it denotes,
+	 * e.g. <tt>[Ljava/lang/String;</tt> into <tt>java.lang.String[]</tt>. Nested classes
+	 * are recognized when the class file lists them among its inner classes; otherwise
+	 * every <tt>$</tt> in the name is taken as a nesting separator.
+	 *
+	 * @param descriptor a field descriptor
+	 * @return canonical type name
+	 */
+	public String toCanonicalName(final String descriptor) {
+		int dimensions = 0;
+		while (descriptor.charAt(dimensions) == '[') dimensions++;
+
+		String name;
+		char type = descriptor.charAt(dimensions);
+		switch (type) {
+			case 'B': name = "byte"; break;
+			case 'C': name = "char"; break;
+			case 'D': name = "double"; break;
+			case 'F': name = "float"; break;
+			case 'I': name = "int"; break;
+			case 'J': name = "long"; break;
+			case 'S': name = "short"; break;
+			case 'Z': name = "boolean"; break;
+			case 'V': name = "void"; break;
+			case 'L':
+				name = toCanonicalName(descriptor.substring(dimensions + 1, descriptor.length() - 1).replace('/', '.'), false);
+				break;
+			default:
+				throw new ClassFormatError("Invalid descriptor " + descriptor);
+		}
+		if (dimensions == 0) return name;
+
+		StringBuilder buffer = new StringBuilder(name);
+		for (int i = 0; i < dimensions; i++) buffer.append("[]");
+		return buffer.toString();
+	}
+
+	/**
+	 * Converts a binary class name (e.g. <tt>java.util.Map$Entry</tt>) into a canonical name
+	 * (e.g. <tt>java.util.Map.Entry</tt>), with the same rules of {@link #toCanonicalName(String)}.
+	 *
+	 * @param binaryName a binary class name
+	 * @return canonical class name
+	 */
+	public String toCanonicalClassName(final String binaryName) {
+		return toCanonicalName(binaryName, false);
+	}
+
+	/**
+	 * Returns the descriptor of the first type argument found in a generic signature,
+	 * e.g. <tt>Ljava/lang/String;</tt> for <tt>Ljava/util/List&lt;Ljava/lang/String;&gt;;</tt>.
+	 * An upper-bounded wildcard yields its bound.
+	 *
+	 * @param signature a field signature
+	 * @return descriptor of the first type argument, null if there is no such argument 
+	 * or it doesn't denote a concrete type (type variables, unbounded or lower-bounded wildcards)
+	 * @see #getTypeArguments(String)
+	 */
+	public static String getFirstTypeArgument(final String signature) {
+		String[] typeArguments = getTypeArguments(signature);
+		return typeArguments == null ? null : typeArguments[0];
+	}
+
+	/**
+	 * Returns the descriptors of the type arguments found in a generic signature,
+	 * e.g. <tt>[Ljava/lang/String;, Ljava/util/List;]</tt> for 
+	 * <tt>Ljava/util/Map&lt;Ljava/lang/String;Ljava/util/List&lt;TT;&gt;;&gt;;</tt>: nested type arguments
+	 * are dropped, and an upper-bounded wildcard yields its bound.
+	 *
+	 * @param signature a field signature
+	 * @return descriptors of the type arguments, null if there are none; an element is null if its
+	 * argument doesn't denote a concrete type (type variables, unbounded or lower-bounded wildcards)
+	 */
+	public static String[] getTypeArguments(final String signature) {
+		if (signature == null) return null;
+		int start = signature.indexOf('<');
+		if (start < 0) return null;
+
+		List<String> typeArguments = new ArrayList<String>(2);
+		int index = start + 1;
+		while (index < signature.length() && signature.charAt(index) != '>') {
+			char wildcard = signature.charAt(index);
+			if (wildcard == '*') {
+				typeArguments.add(null);
+				index++;
+				continue;
+			}
+			if (wildcard == '+' || wildcard == '-') index++;
+			int end = skipTypeSignature(signature, index);
+			typeArguments.add(wildcard == '-' ? null : toErasedDescriptor(signature.substring(index, end)));
+			index = end;
+		}
+		return typeArguments.isEmpty() ? null : typeArguments.toArray(new String[typeArguments.size()]);
+	}
+
+	/**
+	 * Returns the index following the type signature starting at the specified index.
+	 */
+	private static int skipTypeSignature(final String signature, final int start) {
+		int index = start;
+		while (signature.charAt(index) == '[') index++;
+		char type = signature.charAt(index);
+		if (type != 'L' && type != 'T') return index + 1;
+
+		int depth = 0;
+		for (; index < signature.length(); index++) {
+			char c = signature.charAt(index);
+			if (c == '<') depth++;
+			else if (c == '>') depth--;
+			else if (c == ';' && depth == 0) return index + 1;
+		}
+		throw new ClassFormatError("Invalid signature " + signature);
+	}
+
+	/**
+	 * Turns a type signature into the descriptor of its erasure, null for type variables.
+	 */
+	private static String toErasedDescriptor(final String typeSignature) {
+		int dimensions = 0;
+		while (typeSignature.charAt(dimensions) == '[') dimensions++;
+		char type = typeSignature.charAt(dimensions);
+		if (type == 'T') return null;
+		if (type != 'L') return typeSignature;
+
+		// Class type: drop type arguments, and turn inner class separators into binary ones
+		StringBuilder descriptor = new StringBuilder(typeSignature.length());
+		int depth = 0;
+		for (int i = 0; i < typeSignature.length(); i++) {
+			char c = typeSignature.charAt(i);
+			if (c == '<') depth++;
+			else if (c == '>') depth--;
+			else if (depth == 0) descriptor.append(c == '.' ? '$' : c);
+		}
+		return descriptor.toString();
+	}
+
+	/**
+	 * Converts an internal name (e.g. <tt>java/util/Map$Entry</tt>) or a 
+	 * descriptor (e.g. <tt>Ljava/util/Map$Entry;</tt>) into a binary name.
+	 *
+	 * @param internalName internal name or descriptor
+	 * @return binary name
+	 */
+	public static String toBinaryName(final String internalName) {
+		String name = internalName;
+		if (name.startsWith("L") && name.endsWith(";")) name = name.substring(1, name.length() - 1);
+		return name.replace('/', '.');
+	}
+
+	private void parseHeader() {
+		if (readInt(0) != MAGIC) throw new ClassFormatError("Not a class file");
+
+		int count = readUnsignedShort(8);
+		constantOffsets = new int[count];
+		int offset = 10;
+		for (int i = 1; i < count; i++) {
+			constantOffsets[i] = offset;
+			int tag = bytes[offset] & 0xFF;
+			switch (tag) {
+				case CONSTANT_UTF8:
+					offset += 3 + readUnsignedShort(offset + 1);
+					break;
+				case CONSTANT_LONG:
+				case CONSTANT_DOUBLE:
+					offset += 9;
+					i++;  // Takes two entries
+					break;
+				case CONSTANT_INTEGER:
+				case CONSTANT_FLOAT:
+				case CONSTANT_FIELDREF:
+				case CONSTANT_METHODREF:
+				case CONSTANT_INTERFACE_METHODREF:
+				case CONSTANT_NAME_AND_TYPE:
+				case CONSTANT_DYNAMIC:
+				case CONSTANT_INVOKE_DYNAMIC:
+					offset += 5;
+					break;
+				case CONSTANT_METHOD_HANDLE:
+					offset += 4;
+					break;
+				case CONSTANT_CLASS:
+				case CONSTANT_STRING:
+				case CONSTANT_METHOD_TYPE:
+				case CONSTANT_MODULE:
+				case CONSTANT_PACKAGE:
+					offset += 3;
+					break;
+				default:
+					throw new ClassFormatError("Unknown constant pool tag " + tag);
+			}
+		}
+
+		// Skip access flags, this class, super class and interfaces
+		this.accessFlagsOffset = offset;
+		offset += 6;
+		offset += 2 + 2 * readUnsignedShort(offset);
+		this.fieldsOffset = offset;
+	}
+
+	private String toCanonicalName(final String binaryName, final boolean strict) {
+		String[] innerClass = getInnerClasses().get(binaryName);
+		if (innerClass != null) {
+			if (innerClass[0] == null || innerClass[1] == null) return null;  // Local or anonymous class
+			String outerName = toCanonicalName(innerClass[0], strict);
+			return outerName == null ? null : outerName + "." + innerClass[1];
+		}
+		return strict ? binaryName : binaryName.replace('$', '.');
+	}
+
+	private Map<String, String[]> getInnerClasses() {
+		if (innerClasses != null) return innerClasses;
+
+		innerClasses = new HashMap<String, String[]>();
+		int offset = getAttributesOffset();
+		int count = readUnsignedShort(offset);
+		offset += 2;
+		for (int i = 0; i < count; i++) {
+			int length = readInt(offset + 2);
+			if (INNER_CLASSES.equals(getUtf8(readUnsignedShort(offset)))) {
+				int classes = readUnsignedShort(offset + 6);
+				for (int j = 0, current = offset + 8; j < classes; j++, current += 8) {
+					int outerIndex = readUnsignedShort(current + 2), nameIndex = readUnsignedShort(current + 4);
+					innerClasses.put(getClassConstant(readUnsignedShort(current)), new String[] {
+						outerIndex == 0 ? null : getClassConstant(outerIndex),
+						nameIndex == 0 ? null : getUtf8(nameIndex)
+					});
+				}
+				break;
+			}
+			offset += 6 + length;
+		}
+		return innerClasses;
+	}
+
+	private int getAttributesOffset() {
+		if (attributesOffset == 0) {
+			// Skip fields and methods
+			int offset = fieldsOffset;
+			for (int table = 0; table < 2; table++) {
+				int count = readUnsignedShort(offset);
+				offset += 2;
+				for (int i = 0; i < count; i++) {
+					offset = skipAttributes(offset + 6);
+				}
+			}
+			attributesOffset = offset;
+		}
+		return attributesOffset;
+	}
+
+	private void readFieldAttributes(final ClassFileField field, final int offset) {
+		int count = readUnsignedShort(offset);
+		int current = offset + 2;
+		for (int i = 0; i < count; i++) {
+			String name = getUtf8(readUnsignedShort(current));
+			if (SIGNATURE.equals(name)) {
+				field.setSignature(getUtf8(readUnsignedShort(current + 6)));
+			} else if (RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+				field.setAnnotations(readAnnotations(current + 6));
+			}
+			current += 6 + readInt(current + 2);
+		}
+	}
+
+	private List<ClassFileAnnotation> readAnnotations(final int offset) {
+		int count = readUnsignedShort(offset);
+		if (count == 0) return Collections.emptyList();
+
+		List<ClassFileAnnotation> annotations = new ArrayList<ClassFileAnnotation>(count);
+		cursor = offset + 2;
+		for (int i = 0; i < count; i++) {
+			annotations.add(readAnnotation());
+		}
+		return annotations;
+	}
+
+	private ClassFileAnnotation readAnnotation() {
+		String typeName = toBinaryName(getUtf8(readUnsignedShort(cursor)));
+		int count = readUnsignedShort(cursor + 2);
+		cursor += 4;
+		Map<String, Object> attributesMap = count == 0 ? Collections.<String, Object>emptyMap() : new LinkedHashMap<String, Object>();
+		for (int i = 0; i < count; i++) {
+			String name = getUtf8(readUnsignedShort(cursor));
+			cursor += 2;
+			attributesMap.put(name, readElementValue());
+		}
+		return new ClassFileAnnotation(typeName, attributesMap);
+	}
+
+	/**
+	 * Reads an annotation element value. Enum constants are reported by name,
+	 * classes by canonical name and nested annotations as {@link ClassFileAnnotation}.
+	 */
+	private Object readElementValue() {
+		char tag = (char) bytes[cursor];
+		int index = readUnsignedShort(cursor + 1);
+		cursor += 3;
+		switch (tag) {
+			case 'B': return Byte.valueOf((byte) readInt(constantOffsets[index] + 1));
+			case 'C': return Character.valueOf((char) readInt(constantOffsets[index] + 1));
+			case 'S': return Short.valueOf((short) readInt(constantOffsets[index] + 1));
+			case 'I': return Integer.valueOf(readInt(constantOffsets[index] + 1));
+			case 'Z': return Boolean.valueOf(readInt(constantOffsets[index] + 1) != 0);
+			case 'F': return Float.valueOf(Float.intBitsToFloat(readInt(constantOffsets[index] + 1)));
+			case 'J': return Long.valueOf(readLong(constantOffsets[index] + 1));
+			case 'D': return Double.valueOf(Double.longBitsToDouble(readLong(constantOffsets[index] + 1)));
+			case 's': return getUtf8(index);
+			case 'c': return toCanonicalName(getUtf8(index));
+			case 'e':
+				String constantName = getUtf8(readUnsignedShort(cursor));
+				cursor += 2;
+				return constantName;
+			case '@':
+				cursor -= 2;
+				return readAnnotation();
+			case '[':
+				Object[] values = new Object[index];
+				for (int i = 0; i < index; i++) {
+					values[i] = readElementValue();
+				}
+				return values;
+			default:
+				throw new ClassFormatError("Invalid annotation element value tag " + tag);
+		}
+	}
+
+	private String getClassConstant(final int index) {
+		int offset = constantOffsets[index];
+		if (bytes[offset] != CONSTANT_CLASS) throw new ClassFormatError("Constant " + index + " is not a class entry");
+		return toBinaryName(getUtf8(readUnsignedShort(offset + 1)));
+	}
+
+	private int skipAttributes(final int offset) {
+		int count = readUnsignedShort(offset);
+		int current = offset + 2;
+		for (int i = 0; i < count; i++) {
+			current += 6 + readInt(current + 2);
+		}
+		return current;
+	}
+
+	private String getUtf8(final int index) {
+		int offset = constantOffsets[index];
+		if (bytes[offset] != CONSTANT_UTF8) throw new ClassFormatError("Constant " + index + " is not an UTF8 entry");
+
+		int length = readUnsignedShort(offset + 1);
+		int start = offset + 3;
+		char[] chars = new char[length];
+		int count = 0;
+		for (int i = start, end = start + length; i < end; ) {
+			int c = bytes[i++] & 0xFF;
+			if (c < 0x80) {
+				chars[count++] = (char) c;
+			} else if ((c & 0xE0) == 0xC0) {
+				chars[count++] = (char) (((c & 0x1F) << 6) | (bytes[i++] & 0x3F));
+			} else {
+				chars[count++] = (char) (((c & 0x0F) << 12) | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F));
+			}
+		}
+		return new String(chars, 0, count);
+	}
+
+	private int readUnsignedShort(final int offset) {
+		return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+	}
+
+	private int readInt(final int offset) {
+		return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+			| ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+	}
+
+	private long readLong(final int offset) {
+		return ((long) readInt(offset) << 32) | (readInt(offset + 4) & 0xFFFFFFFFL);
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 1024));
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,198 @@
+package now.gf.diggit.java.reflection;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Records which classes metadata are requested for, and how often, so that the
+ * cache can be warmed with the hottest classes after a restart.</p>
+ *
+ * <p>Recording costs a map lookup and a contention-free increment. The profile is
+ * kept in memory and written to its file only when {@link #flush()} is called, e.g.
+ * periodically or at shutdown; a flush that has nothing new to write doesn't touch the file.</p>
+ *
+ * <p>The file is plain text, one <tt>count binaryClassName</tt> line per class, hottest first.
+ * When a profile is created over an existing file, recorded counts are carried over halved,
+ * so that classes no longer requested fade out over restarts.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassIntrospector#setAccessProfile(AccessProfile)
+ * @see ClassIntrospector#replay(AccessProfile, ClassLoader)
+ */
+public final class AccessProfile {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String HEADER = "# diggit access profile: count binaryClassName";
+
+	private final File file;
+	private final ConcurrentMap<String, LongAdder> counts;  // key=<binary class name>
+	private long flushedTotal;  // Sum of counts when last read or written
+	private int flushedSize;    // Number of classes when last read or written
+
+	/**
+	 * Builds a profile backed by the specified file, carrying over the counts it holds, if any.
+	 * Malformed lines are ignored.
+	 *
+	 * @param file profile file, created by the first flush if it doesn't exist
+	 * @throws IOException if the file exists but can't be read
+	 */
+	public AccessProfile(final File file) throws IOException {
+		if (file == null) throw new IllegalArgumentException("Unspecified file");
+		this.file = file;
+		this.counts = new ConcurrentHashMap<String, LongAdder>();
+		if (file.exists()) read();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Records a request for the metadata of a class.
+	 *
+	 * @param clz requested class
+	 */
+	public void record(final Class<?> clz) {
+		if (clz == null) return;
+		String className = clz.getName();
+		LongAdder count = counts.get(className);
+		if (count == null) {
+			LongAdder newCount = new LongAdder();
+			count = counts.putIfAbsent(className, newCount);
+			if (count == null) count = newCount;
+		}
+		count.increment();
+	}
+
+	/**
+	 * Returns how many requests were recorded for a class.
+	 *
+	 * @param className binary class name
+	 * @return recorded requests, including those carried over from the file
+	 */
+	public long getCount(final String className) {
+		LongAdder count = counts.get(className);
+		return count == null ? 0 : count.sum();
+	}
+
+	/**
+	 * Returns the most requested classes, hottest first.
+	 *
+	 * @param limit maximum number of classes to return
+	 * @return binary class names
+	 */
+	public List<String> getHottest(final int limit) {
+		List<Map.Entry<String, Long>> entries = snapshot();
+		List<String> result = new ArrayList<String>(Math.min(limit, entries.size()));
+		for (int i = 0; i < entries.size() && i < limit; i++) {
+			result.add(entries.get(i).getKey());
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the profile to its file, unless nothing was recorded since the last flush.
+	 * The file is replaced atomically where the file system allows it, so that a crash
+	 * while flushing never leaves a truncated profile behind.
+	 *
+	 * @return <tt>true</tt> if the file was written
+	 * @throws IOException if the file can't be written
+	 */
+	public synchronized boolean flush() throws IOException {
+		List<Map.Entry<String, Long>> entries = snapshot();
+		long total = 0;
+		for (Map.Entry<String, Long> entry : entries) {
+			total += entry.getValue();
+		}
+		if (total == flushedTotal && entries.size() == flushedSize && file.exists()) return false;
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temporaryFile = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporaryFile), UTF8));
+			try {
+				out.write(HEADER);
+				out.write('\n');
+				for (Map.Entry<String, Long> entry : entries) {
+					out.write(entry.getValue().toString());
+					out.write(' ');
+					out.write(entry.getKey());
+					out.write('\n');
+				}
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temporaryFile.delete();
+		}
+		flushedTotal = total;
+		flushedSize = entries.size();
+		return true;
+	}
+
+	/**
+	 * Returns current counts, hottest first.
+	 */
+	private List<Map.Entry<String, Long>> snapshot() {
+		List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(counts.size());
+		for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+			entries.add(new AbstractMap.SimpleImmutableEntry<String, Long>(entry.getKey(), entry.getValue().sum()));
+		}
+		Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+			public int compare(final Map.Entry<String, Long> entry1, final Map.Entry<String, Long> entry2) {
+				int result = entry2.getValue().compareTo(entry1.getValue());
+				return result != 0 ? result : entry1.getKey().compareTo(entry2.getKey());
+			}
+		});
+		return entries;
+	}
+
+	private void read() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int separator = line.indexOf(' ');
+				if (line.startsWith("#") || separator < 1) continue;
+				long count;
+				try {
+					count = Long.parseLong(line.substring(0, separator)) / 2;
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				String className = line.substring(separator + 1).trim();
+				if (count <= 0 || className.isEmpty()) continue;
+				LongAdder adder = new LongAdder();
+				adder.add(count);
+				counts.put(className, adder);
+				flushedTotal += count;
+			}
+		} finally {
+			in.close();
+		}
+		flushedSize = counts.size();
+	}
+}
@@ -0,0 +1,209 @@
+package now.gf.diggit.java.reflection;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import now.gf.diggit.java.reflection.model.AnnotationMetadata;
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+import now.gf.diggit.java.reflection.model.FieldMetadata;
+import now.gf.diggit.utils.ICacheListener;
+
+/**
+ * <p>Inverted index from annotations to the cached class and field metadata carrying them.
+ * It listens to the metadata cache, so that it is updated as entries are added and evicted,
+ * and it can be read while other threads update it.</p>
+ *
+ * <p>Postings hold metadata by identity: removals only drop the very instance that left
+ * the cache, never an equal instance that replaced it in the meantime. They hold metadata 
+ * weakly, so that the index doesn't keep the classes of cached metadata from being unloaded: 
+ * postings of unloaded classes are dropped on next write.</p>
+ *
+ * <p>Added metadata are only queued, and indexed when the index is first queried afterwards:
+ * caching metadata doesn't force their annotation sections to be computed.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassIntrospector#getAnnotatedClasses(Class)
+ */
+class AnnotatedMetadataIndex implements ICacheListener<Object, ClassMetadata> {
+	private final ConcurrentMap<String, Set<Posting<ClassMetadata>>> classesByAnnotation;  // key=<annotation qualified name>
+	private final ConcurrentMap<String, Set<Posting<FieldMetadata>>> fieldsByAnnotation;   // key=<annotation qualified name>
+	private final Set<Posting<ClassMetadata>> pending;  // Added, not indexed yet
+	private final ReferenceQueue<Object> collected;
+
+	AnnotatedMetadataIndex() {
+		this.classesByAnnotation = new ConcurrentHashMap<String, Set<Posting<ClassMetadata>>>();
+		this.fieldsByAnnotation = new ConcurrentHashMap<String, Set<Posting<FieldMetadata>>>();
+		this.pending = ConcurrentHashMap.newKeySet();
+		this.collected = new ReferenceQueue<Object>();
+	}
+
+	public void entryAdded(final Object key, final ClassMetadata classMetadata) {
+		purge();
+		pending.add(new Posting<ClassMetadata>(classMetadata, collected));
+	}
+
+	public synchronized void entryRemoved(final Object key, final ClassMetadata classMetadata, final boolean evicted) {
+		purge();
+		Posting<ClassMetadata> probe = new Posting<ClassMetadata>(classMetadata, null);
+		if (pending.remove(probe)) return;
+		for (AnnotationMetadata annotation : classMetadata.getAnnotations()) {
+			remove(classesByAnnotation.get(annotation.getQualifiedName()), probe);
+		}
+		for (FieldMetadata field : classMetadata.getFields()) {
+			Posting<FieldMetadata> fieldProbe = new Posting<FieldMetadata>(field, null);
+			for (AnnotationMetadata annotation : field.getAnnotations()) {
+				remove(fieldsByAnnotation.get(annotation.getQualifiedName()), fieldProbe);
+			}
+		}
+	}
+
+	/**
+	 * Returns a live, read-only view of the classes carrying an annotation.
+	 */
+	Collection<ClassMetadata> getClasses(final String annotationName) {
+		indexPending();
+		Set<Posting<ClassMetadata>> classes = classesByAnnotation.get(annotationName);
+		return classes == null ? Collections.<ClassMetadata>emptySet() : new PostingView<ClassMetadata>(classes);
+	}
+
+	/**
+	 * Returns a live, read-only view of the fields carrying an annotation.
+	 */
+	Collection<FieldMetadata> getFields(final String annotationName) {
+		indexPending();
+		Set<Posting<FieldMetadata>> fields = fieldsByAnnotation.get(annotationName);
+		return fields == null ? Collections.<FieldMetadata>emptySet() : new PostingView<FieldMetadata>(fields);
+	}
+
+	private void indexPending() {
+		if (pending.isEmpty()) return;
+		synchronized (this) {
+			purge();
+			for (Posting<ClassMetadata> posting : pending) {
+				ClassMetadata classMetadata = posting.get();
+				if (pending.remove(posting) && classMetadata != null) index(classMetadata);
+			}
+		}
+	}
+
+	private void index(final ClassMetadata classMetadata) {
+		Posting<ClassMetadata> classPosting = null;
+		for (AnnotationMetadata annotation : classMetadata.getAnnotations()) {
+			if (classPosting == null) classPosting = new Posting<ClassMetadata>(classMetadata, collected);
+			postings(classesByAnnotation, annotation.getQualifiedName()).add(classPosting);
+		}
+		for (FieldMetadata field : classMetadata.getFields()) {
+			Posting<FieldMetadata> fieldPosting = null;
+			for (AnnotationMetadata annotation : field.getAnnotations()) {
+				if (fieldPosting == null) fieldPosting = new Posting<FieldMetadata>(field, collected);
+				postings(fieldsByAnnotation, annotation.getQualifiedName()).add(fieldPosting);
+			}
+		}
+	}
+
+	/**
+	 * Drops the postings of collected metadata. A collected posting is equal only to itself.
+	 */
+	private void purge() {
+		Reference<?> reference;
+		while ((reference = collected.poll()) != null) {
+			pending.remove(reference);
+			for (Set<Posting<ClassMetadata>> classes : classesByAnnotation.values()) {
+				classes.remove(reference);
+			}
+			for (Set<Posting<FieldMetadata>> fields : fieldsByAnnotation.values()) {
+				fields.remove(reference);
+			}
+		}
+	}
+
+	private static <T> Set<Posting<T>> postings(final ConcurrentMap<String, Set<Posting<T>>> index, final String annotationName) {
+		Set<Posting<T>> postings = index.get(annotationName);
+		if (postings == null) {
+			Set<Posting<T>> newPostings = ConcurrentHashMap.newKeySet();
+			postings = index.putIfAbsent(annotationName, newPostings);
+			if (postings == null) postings = newPostings;
+		}
+		return postings;
+	}
+
+	private static <T> void remove(final Set<Posting<T>> postings, final Posting<T> probe) {
+		if (postings != null) postings.remove(probe);
+	}
+
+	/**
+	 * Weak reference to indexed metadata, equal to any posting of the very same instance.
+	 */
+	private static final class Posting<T> extends WeakReference<T> {
+		private final int hash;
+
+		Posting(final T metadata, final ReferenceQueue<Object> queue) {
+			super(metadata, queue);
+			this.hash = System.identityHashCode(metadata);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Posting)) return false;
+			Object metadata = get();
+			return metadata != null && metadata == ((Posting<?>) obj).get();
+		}
+	}
+
+	/**
+	 * Read-only view of the metadata still referred to by a set of postings.
+	 */
+	private static final class PostingView<T> extends AbstractCollection<T> {
+		private final Set<Posting<T>> postings;
+
+		PostingView(final Set<Posting<T>> postings) {
+			this.postings = postings;
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			final Iterator<Posting<T>> iterator = postings.iterator();
+			return new Iterator<T>() {
+				private T next;
+
+				public boolean hasNext() {
+					while (next == null && iterator.hasNext()) {
+						next = iterator.next().get();
+					}
+					return next != null;
+				}
+
+				public T next() {
+					if (!hasNext()) throw new NoSuchElementException();
+					T result = next;
+					next = null;
+					return result;
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			int size = 0;
+			for (Iterator<T> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+				size++;
+			}
+			return size;
+		}
+	}
+}
@@ -1,10 +1,12 @@
 package now.gf.diggit.java.reflection;
 
 import java.lang.annotation.Annotation;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * <p>Registry of annotation listeners, shared by every {@link ClassIntrospector}.
+ * Listeners can be registered while other threads are building metadata.</p>
  * 
  * @author Giorgio Ferrara
  *
@@ -15,7 +17,7 @@ public class AnnotationHelper {
 	private Map<Class, IAnnotationListener> annotationListenersMap;
 	
 	private AnnotationHelper() {
-		this.annotationListenersMap = new HashMap();
+		this.annotationListenersMap = new ConcurrentHashMap();
 	}
 	
 	public static AnnotationHelper instance() {
@@ -34,10 +36,18 @@ public class AnnotationHelper {
 		return annotationListenersMap.containsKey(annotation.annotationType());
 	}
 	
+	/**
+	 * Returns the listener registered for an annotation type.
+	 * 
+	 * @param annotation annotation type
+	 * @return the registered listener, null if the annotation type is not managed
+	 */
+	public <T extends Annotation> IAnnotationListener<T> getAnnotationListener(final Class<T> annotation) {
+		return annotationListenersMap.get(annotation);
+	}
+	
 	public Map<String, Object> getAttributesMap(final Annotation annotation) {
-		if (!annotationListenersMap.containsKey(annotation.annotationType())) return null;
-		
 		IAnnotationListener annotationListener = annotationListenersMap.get(annotation.annotationType());
-		return annotationListener.getAttributesMap(annotation);
+		return annotationListener == null ? null : annotationListener.getAttributesMap(annotation);
 	}
 }
@@ -0,0 +1,57 @@
+package now.gf.diggit.java.reflection;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Bounded executor running background metadata builds, shared by every
+ * {@link ClassIntrospector} that isn't given an executor of its own.</p>
+ *
+ * <p>At most as many builds as available processors run at once, and at most
+ * {@value #QUEUE_CAPACITY} wait: further tasks are rejected rather than piling up.
+ * Builds run on daemon threads, so that they never keep the JVM alive; idle threads
+ * are released, so an unused executor holds none.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassIntrospector#getClassMetadataAsync(Class)
+ */
+final class BackgroundExecutor {
+	private static final int QUEUE_CAPACITY = 4096;
+	private static final String THREAD_NAME_PREFIX = "diggit-metadata-";
+
+	private BackgroundExecutor() {}
+
+	/**
+	 * Returns the shared executor, creating it on first call.
+	 */
+	static Executor shared() {
+		return Holder.EXECUTOR;
+	}
+
+	private static final class Holder {
+		static final Executor EXECUTOR = newExecutor();
+	}
+
+	private static Executor newExecutor() {
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), threadFactory());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private static ThreadFactory threadFactory() {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(final Runnable task) {
+				Thread thread = new Thread(task, THREAD_NAME_PREFIX + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,18 @@
+package now.gf.diggit.java.reflection;
+
+/**
+ * Sections class metadata are built in, each computed on first access and timed separately.
+ * 
+ * @author Giorgio Ferrara
+ * @see IMetricsListener#phaseCompleted(BuildPhase, String, long)
+ */
+public enum BuildPhase {
+	/** Class file parse and per-field reflection */
+	CLASS_FILE,
+	/** Resolution of getter and setter methods */
+	BEAN_ACCESSORS,
+	/** Class annotation extraction */
+	CLASS_ANNOTATIONS,
+	/** Annotation extraction of a single field */
+	FIELD_ANNOTATIONS
+}
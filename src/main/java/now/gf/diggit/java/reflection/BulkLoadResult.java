@@ -0,0 +1,65 @@
+package now.gf.diggit.java.reflection;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+
+/**
+ * <p>Outcome of a bulk metadata load: metadata obtained for each class that
+ * could be analyzed and, separately, the failure reported for each class
+ * that couldn't. A failing class doesn't prevent the others from being loaded.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassIntrospector#loadClassesMetadata(java.util.concurrent.Executor, Class...)
+ */
+public class BulkLoadResult {
+	private final Map<Class<?>, ClassMetadata> loaded;
+	private final Map<Class<?>, Throwable> failures;
+
+	BulkLoadResult() {
+		this.loaded = new LinkedHashMap<Class<?>, ClassMetadata>();
+		this.failures = new LinkedHashMap<Class<?>, Throwable>();
+	}
+
+	/**
+	 * Returns metadata of the classes successfully loaded, in request order.
+	 *
+	 * @return read-only map: key=<class>, value=<class metadata>
+	 */
+	public Map<Class<?>, ClassMetadata> getLoaded() {
+		return Collections.unmodifiableMap(loaded);
+	}
+
+	/**
+	 * Returns the classes whose metadata couldn't be built, in request order.
+	 *
+	 * @return read-only map: key=<class>, value=<cause of the failure>
+	 */
+	public Map<Class<?>, Throwable> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * Tells whether metadata were obtained for every requested class.
+	 *
+	 * @return <tt>true</tt> if no class failed
+	 */
+	public boolean isSuccessful() {
+		return failures.isEmpty();
+	}
+
+	void addLoaded(final Class<?> clz, final ClassMetadata classMetadata) {
+		loaded.put(clz, classMetadata);
+	}
+
+	void addFailure(final Class<?> clz, final Throwable cause) {
+		failures.put(clz, cause);
+	}
+
+	@Override
+	public String toString() {
+		return "BulkLoadResult [loaded=" + loaded.size() + ", failures=" + failures.keySet() + "]";
+	}
+}
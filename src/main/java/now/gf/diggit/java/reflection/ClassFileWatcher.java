@@ -0,0 +1,333 @@
+package now.gf.diggit.java.reflection;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+
+/**
+ * <p>Watches class directories and JARs, and invalidates the cached metadata of the classes
+ * whose class files change, keeping every other entry of the cache.</p>
+ *
+ * <p>Directories are watched through a {@link WatchService}, subdirectories included.
+ * The CRC-32 checksum of every class file is recorded when the directory is registered,
+ * so that a class file written again with the same bytes, e.g. by an incremental build,
+ * doesn't invalidate anything. JARs are checked on each poll: when their size or
+ * modification time change, the checksums recorded in their central directory are
+ * compared entry by entry.</p>
+ *
+ * <p>Invalidated metadata can be rebuilt right away through a class loader, typically the
+ * one loading the new version of the classes; otherwise they are built again on next request.
+ * Changes are processed by a daemon thread started by {@link #start()}, or on demand by
+ * {@link #checkForChanges()}.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassIntrospector#invalidate(java.util.Collection)
+ */
+public final class ClassFileWatcher implements Closeable {
+	private static final long POLL_INTERVAL_MILLIS = 1000;
+	private static final long SETTLE_MILLIS = 200;  // Lets a build finish writing a batch of class files
+	private static final String CLASS_FILE_SUFFIX = ".class";
+
+	private final ClassIntrospector classIntrospector;
+	private final ClassLoader rebuildClassLoader;  // Null if invalidated metadata are not rebuilt
+	private final WatchService watchService;
+	private final Map<WatchKey, Path[]> directories;  // value=[<watched directory>, <class path root>]
+	private final Map<String, Long> classChecksums;   // key=<binary class name> of class files in watched directories
+	private final Map<File, JarState> jars;
+	private final AtomicLong invalidationCount;
+	private volatile Thread thread;
+	private volatile boolean closed;
+
+	/**
+	 * Builds a watcher invalidating the cache of the specified introspector.
+	 *
+	 * @param classIntrospector introspector whose cache is invalidated
+	 * @param rebuildClassLoader class loader to rebuild invalidated metadata with, null not to rebuild them
+	 * @throws IOException if the file system can't be watched
+	 */
+	public ClassFileWatcher(final ClassIntrospector classIntrospector, final ClassLoader rebuildClassLoader) throws IOException {
+		if (classIntrospector == null) throw new IllegalArgumentException("Unspecified class introspector");
+		this.classIntrospector = classIntrospector;
+		this.rebuildClassLoader = rebuildClassLoader;
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.directories = new ConcurrentHashMap<WatchKey, Path[]>();
+		this.classChecksums = new HashMap<String, Long>();
+		this.jars = new HashMap<File, JarState>();
+		this.invalidationCount = new AtomicLong();
+	}
+
+	/**
+	 * Watches a class directory, i.e. the root of a package hierarchy, along with its subdirectories.
+	 *
+	 * @param directory class directory
+	 * @throws IOException if the directory can't be read or watched
+	 */
+	public synchronized void watchDirectory(final File directory) throws IOException {
+		if (directory == null || !directory.isDirectory()) throw new IllegalArgumentException("Not a directory: " + directory);
+		Path root = directory.toPath().toAbsolutePath().normalize();
+		register(root, root);
+	}
+
+	/**
+	 * Watches a JAR.
+	 *
+	 * @param jar JAR file
+	 * @throws IOException if the JAR can't be read
+	 */
+	public synchronized void watchJar(final File jar) throws IOException {
+		if (jar == null || !jar.isFile()) throw new IllegalArgumentException("Not a file: " + jar);
+		File file = jar.getAbsoluteFile();
+		JarState state = new JarState(file);
+		state.refresh(new LinkedHashSet<String>());
+		jars.put(file, state);
+	}
+
+	/**
+	 * Starts processing changes in background.
+	 */
+	public synchronized void start() {
+		if (closed) throw new IllegalStateException("Watcher closed");
+		if (thread != null) return;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				watch();
+			}
+		}, "diggit-class-file-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Processes the changes observed since the last check, without waiting for new ones.
+	 *
+	 * @return binary names of the classes whose class files changed
+	 */
+	public Set<String> checkForChanges() {
+		try {
+			return check(watchService.poll());
+		} catch (ClosedWatchServiceException e) {
+			return Collections.emptySet();
+		}
+	}
+
+	/**
+	 * Returns how many cached metadata were invalidated so far.
+	 *
+	 * @return invalidated metadata, subclasses included
+	 */
+	public long getInvalidationCount() {
+		return invalidationCount.get();
+	}
+
+	/**
+	 * Stops watching.
+	 */
+	public void close() throws IOException {
+		closed = true;
+		watchService.close();
+		Thread watcherThread = thread;
+		if (watcherThread != null) watcherThread.interrupt();
+	}
+
+	private void watch() {
+		while (!closed) {
+			try {
+				WatchKey key = watchService.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				if (key != null) Thread.sleep(SETTLE_MILLIS);
+				check(key);
+			} catch (InterruptedException e) {
+				if (closed) return;
+			} catch (ClosedWatchServiceException e) {
+				return;
+			} catch (RuntimeException e) {
+				// Keep watching: a single failed rebuild mustn't stop invalidation
+			}
+		}
+	}
+
+	private synchronized Set<String> check(final WatchKey firstKey) {
+		Set<String> changed = new LinkedHashSet<String>();
+		for (WatchKey key = firstKey; key != null; key = watchService.poll()) {
+			Path[] directory = directories.get(key);
+			if (directory != null) processEvents(key, directory[0], directory[1], changed);
+			if (!key.reset()) directories.remove(key);
+		}
+		for (JarState jar : jars.values()) {
+			jar.refresh(changed);
+		}
+		if (changed.isEmpty()) return changed;
+
+		List<ClassMetadata> invalidated = classIntrospector.invalidate(changed);
+		invalidationCount.addAndGet(invalidated.size());
+		if (rebuildClassLoader != null && !invalidated.isEmpty()) rebuild(invalidated);
+		return changed;
+	}
+
+	private void processEvents(final WatchKey key, final Path directory, final Path root, final Set<String> changed) {
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// Events were lost: compare every class file under the directory
+				try {
+					register(directory, root, changed);
+				} catch (IOException e) {}
+				continue;
+			}
+
+			Path path = directory.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				try {
+					register(path, root, changed);
+				} catch (IOException e) {}
+				continue;
+			}
+			String className = toClassName(root, path);
+			if (className == null) continue;
+			Long checksum = event.kind() == StandardWatchEventKinds.ENTRY_DELETE ? null : checksum(path);
+			Long previous = checksum == null ? classChecksums.remove(className) : classChecksums.put(className, checksum);
+			if (previous == null ? checksum != null : !previous.equals(checksum)) changed.add(className);
+		}
+	}
+
+	private void register(final Path directory, final Path root) throws IOException {
+		register(directory, root, null);
+	}
+
+	/**
+	 * Watches a directory tree and records the checksums of its class files, reporting
+	 * the class files whose checksum changed if a set is passed.
+	 */
+	private void register(final Path directory, final Path root, final Set<String> changed) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attributes) throws IOException {
+				WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+				directories.put(key, new Path[] { dir, root });
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+				String className = toClassName(root, file);
+				Long checksum = className == null ? null : checksum(file);
+				if (checksum != null) {
+					Long previous = classChecksums.put(className, checksum);
+					if (changed != null && !checksum.equals(previous)) changed.add(className);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void rebuild(final List<ClassMetadata> invalidated) {
+		List<Class<?>> classes = new ArrayList<Class<?>>(invalidated.size());
+		for (ClassMetadata classMetadata : invalidated) {
+			String className = classMetadata.getClz() == null ? null : classMetadata.getClz().getName();
+			if (className == null) continue;
+			try {
+				classes.add(Class.forName(className, false, rebuildClassLoader));
+			} catch (ClassNotFoundException e) {
+			} catch (LinkageError e) {}
+		}
+		classIntrospector.loadClassesMetadataInParallel(classes.toArray(new Class<?>[classes.size()]));
+	}
+
+	/**
+	 * Returns the binary name of the class a class file under a class path root holds,
+	 * null if the path doesn't denote a class.
+	 */
+	private static String toClassName(final Path root, final Path path) {
+		String fileName = path.getFileName().toString();
+		if (!fileName.endsWith(CLASS_FILE_SUFFIX) || fileName.equals("module-info.class") || fileName.equals("package-info.class")) return null;
+		String relativePath = root.relativize(path).toString();
+		return relativePath.substring(0, relativePath.length() - CLASS_FILE_SUFFIX.length()).replace(File.separatorChar, '.');
+	}
+
+	private static Long checksum(final Path file) {
+		try {
+			byte[] bytes = Files.readAllBytes(file);
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length);
+			return crc.getValue();
+		} catch (IOException e) {
+			return null;  // Deleted, or still being written: a later event will tell
+		}
+	}
+
+	/**
+	 * Last known state of a JAR: checksums of its class entries, as recorded in its central directory.
+	 */
+	private static final class JarState {
+		private final File file;
+		private long lastModified = -1;
+		private long length = -1;
+		private Map<String, Long> classChecksums = Collections.emptyMap();  // key=<binary class name>
+
+		JarState(final File file) {
+			this.file = file;
+		}
+
+		/**
+		 * Reads the JAR again if it changed, reporting classes added, removed or changed since the last read.
+		 */
+		void refresh(final Set<String> changed) {
+			long currentLastModified = file.lastModified(), currentLength = file.length();
+			if (currentLastModified == lastModified && currentLength == length) return;
+
+			Map<String, Long> checksums = new HashMap<String, Long>();
+			if (file.isFile()) {
+				try {
+					JarFile jar = new JarFile(file, false);
+					try {
+						for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+							JarEntry entry = entries.nextElement();
+							String name = entry.getName();
+							if (entry.isDirectory() || !name.endsWith(CLASS_FILE_SUFFIX) || name.endsWith("module-info.class") || name.endsWith("package-info.class")) continue;
+							checksums.put(name.substring(0, name.length() - CLASS_FILE_SUFFIX.length()).replace('/', '.'), entry.getCrc());
+						}
+					} finally {
+						jar.close();
+					}
+				} catch (IOException e) {
+					return;  // Still being written: read it again on next poll
+				}
+			}
+			for (Map.Entry<String, Long> entry : checksums.entrySet()) {
+				if (!entry.getValue().equals(classChecksums.get(entry.getKey()))) changed.add(entry.getKey());
+			}
+			for (String className : classChecksums.keySet()) {
+				if (!checksums.containsKey(className)) changed.add(className);
+			}
+			classChecksums = checksums;
+			lastModified = currentLastModified;
+			length = currentLength;
+		}
+	}
+}
@@ -1,11 +1,45 @@
 package now.gf.diggit.java.reflection;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
+import now.gf.diggit.java.reflection.model.AnnotationMetadata;
 import now.gf.diggit.java.reflection.model.ClassMetadata;
-import now.gf.diggit.utils.LRUCache;
+import now.gf.diggit.java.reflection.model.FieldMetadata;
+import now.gf.diggit.java.reflection.model.IMetadataVisitor;
+import now.gf.diggit.java.reflection.model.MetadataBinaryWriter;
+import now.gf.diggit.java.reflection.model.MetadataJsonWriter;
+import now.gf.diggit.java.reflection.model.MetadataSnapshot;
+import now.gf.diggit.utils.ClassValueCache;
+import now.gf.diggit.utils.ConcurrentLRUCache;
+import now.gf.diggit.utils.EvictionPolicy;
+import now.gf.diggit.utils.ICacheListener;
+import now.gf.diggit.utils.IWeigher;
+import now.gf.diggit.utils.TypeResolver;
 
 /**
  * <p>This is the entry-point class for getting class metadata info.
@@ -17,18 +51,49 @@ import now.gf.diggit.utils.LRUCache;
  * object will be built for the required class and then cached for 
  * later use.</p>
  * 
+ * <p>An instance can be shared among threads: the cache serves lookups 
+ * without locking and metadata for a given class are built only once, 
+ * even when several threads ask for them at the same time.</p>
+ * 
+ * <p>Several instances can share the metadata they build through a {@link SharedMetadataCache}:
+ * metadata missing from the cache of an instance are then looked up in the shared cache before 
+ * being built, so that each class is analyzed and held once.</p>
+ * 
+ * <p>Cached metadata are keyed by class identity, through a {@link ClassValueCache}: same-named 
+ * classes loaded by different class loaders get metadata of their own, and cached metadata 
+ * don't keep their class loader from being unloaded, e.g. on redeploys. Metadata built from 
+ * class files, which have no class, are cached apart by qualified name, under the same 
+ * eviction policy, and returned for same-named classes missing from the cache.</p>
+ * 
  * @author Giorgio Ferrara
  *
  */
 public class ClassIntrospector {
 	private static final int DEFAULT_MAX_CACHE_SIZE = 100;
-	private LRUCache<String, ClassMetadata> classMetadataCache;  // Holds class metadata info: key=<canonical class name>, value=<class metadata>
+	private static final ClassValue<String> cacheKeys = new ClassValue<String>() {
+		@Override
+		protected String computeValue(final Class<?> type) {
+			// Local and anonymous classes have no canonical name
+			String canonicalName = type.getCanonicalName();
+			return canonicalName != null ? canonicalName : type.getName();
+		}
+	};
+	private ClassValueCache<ClassMetadata> classMetadataCache;  // Holds class metadata info: key=<class>, value=<class metadata>
+	private ConcurrentLRUCache<String, ClassMetadata> namedMetadataCache;  // Holds metadata without a class: key=<qualified class name>
+	private AnnotatedMetadataIndex annotatedMetadataIndex;  // Cached metadata by annotation
+	private EvictionPolicy<String, ClassMetadata> evictionPolicy;
+	private int maxCacheSize;
+	private volatile IMetricsListener metricsListener;  // Null if metrics are not collected
+	private volatile Executor executor;  // Runs asynchronous builds, null for the shared background executor
+	private volatile AccessProfile accessProfile;  // Null if requests are not recorded
+	private volatile SharedMetadataCache sharedCache;  // Second-level cache, null if metadata are not shared
+	private volatile boolean freezeMetadata;
 
 	/**
 	 * Build a new <tt>ClassIntrospector</tt> with default-sized LRU cache.
 	 */
 	public ClassIntrospector() {
-		classMetadataCache = new LRUCache<String, ClassMetadata>(DEFAULT_MAX_CACHE_SIZE);
+		this(DEFAULT_MAX_CACHE_SIZE);
 	}
 	
 	/**
@@ -37,7 +102,165 @@ public class ClassIntrospector {
 	 * @param maxCacheSize maximum size of internal metadata cache
 	 */
 	public ClassIntrospector(final int maxCacheSize) {
-		classMetadataCache = new LRUCache<String, ClassMetadata>(maxCacheSize);
+		this(EvictionPolicy.<String, ClassMetadata>maxSize(maxCacheSize));
+	}
+	
+	/**
+	 * Build a new <tt>ClassIntrospector</tt> by specifying the eviction policy of its internal cache. 
+	 * Use {@link MetadataWeigher} to bound cached metadata by their size rather than by their number, 
+	 * and frequency admission to keep bulk loads from flushing metadata in frequent use.
+	 * 
+	 * @param evictionPolicy eviction policy of internal metadata cache
+	 * @see MetadataWeigher#maxWeight(long)
+	 * @see EvictionPolicy#withFrequencyAdmission()
+	 */
+	public ClassIntrospector(final EvictionPolicy<String, ClassMetadata> evictionPolicy) {
+		if (evictionPolicy == null) throw new IllegalArgumentException("Unspecified eviction policy");
+		this.evictionPolicy = evictionPolicy;
+		this.maxCacheSize = (int) Math.min(evictionPolicy.getMaximum(), Integer.MAX_VALUE);
+		annotatedMetadataIndex = new AnnotatedMetadataIndex();
+		classMetadataCache = new ClassValueCache<ClassMetadata>(byClass(evictionPolicy));
+		classMetadataCache.setCacheListener(new CacheEvents<Class<?>>());
+		namedMetadataCache = new ConcurrentLRUCache<String, ClassMetadata>(evictionPolicy);
+		namedMetadataCache.setCacheListener(new CacheEvents<String>());
+	}
+	
+	/**
+	 * Adapts an eviction policy weighing metadata by class name to the class-keyed cache.
+	 */
+	private static EvictionPolicy<Class<?>, ClassMetadata> byClass(final EvictionPolicy<String, ClassMetadata> evictionPolicy) {
+		EvictionPolicy<Class<?>, ClassMetadata> result = evictionPolicy.isWeighted()
+			? EvictionPolicy.<Class<?>, ClassMetadata>maxWeight(evictionPolicy.getMaximum(), new IWeigher<Class<?>, ClassMetadata>() {
+				public int weigh(final Class<?> clz, final ClassMetadata classMetadata) {
+					return evictionPolicy.getWeigher().weigh(cacheKeys.get(clz), classMetadata);
+				}
+			})
+			: EvictionPolicy.<Class<?>, ClassMetadata>maxSize((int) Math.min(evictionPolicy.getMaximum(), Integer.MAX_VALUE));
+		return evictionPolicy.isFrequencyAdmission() ? result.withFrequencyAdmission() : result;
+	}
+	
+	/**
+	 * Returns the maximum number of class metadata cached, or their maximum total weight
+	 * if the eviction policy weighs them.
+	 * 
+	 * @return cache bound
+	 */
+	public int getMaxCacheSize() {
+		return maxCacheSize;
+	}
+	
+	public EvictionPolicy<String, ClassMetadata> getEvictionPolicy() {
+		return evictionPolicy;
+	}
+	
+	/**
+	 * Returns the total weight of class metadata currently cached.
+	 * 
+	 * @return cache weight, the cache size if the eviction policy doesn't weigh metadata
+	 */
+	public long getCacheWeight() {
+		return classMetadataCache.getWeight() + namedMetadataCache.getWeight();
+	}
+	
+	/**
+	 * Returns the number of class metadata currently cached.
+	 * 
+	 * @return cache size
+	 */
+	public int getCacheSize() {
+		return classMetadataCache.size() + namedMetadataCache.size();
+	}
+	
+	/**
+	 * Sets a listener notified of cache hits, misses and evictions, and of the time spent 
+	 * building each section of class metadata. Only metadata built afterwards are timed.
+	 * 
+	 * @param metricsListener metrics listener, null to stop collecting metrics
+	 * @see #enableMetrics()
+	 */
+	public void setMetricsListener(final IMetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+	
+	public IMetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+	
+	/**
+	 * Sets the executor running asynchronous builds and prefetches. By default they run on 
+	 * a bounded pool of daemon threads shared among instances.
+	 * 
+	 * @param executor executor, null for the shared background executor
+	 * @see #getClassMetadataAsync(Class)
+	 */
+	public void setExecutor(final Executor executor) {
+		this.executor = executor;
+	}
+	
+	public Executor getExecutor() {
+		Executor result = executor;
+		return result == null ? BackgroundExecutor.shared() : result;
+	}
+	
+	/**
+	 * Sets a profile recording the classes metadata are requested for, through 
+	 * {@link #getClassMetadata(Class)} and {@link #getClassMetadataAsync(Class)}, to be 
+	 * replayed by {@link #replay(AccessProfile, ClassLoader)} after a restart. Bulk loads, 
+	 * prefetches and superclass lookups are not recorded.
+	 * 
+	 * @param accessProfile access profile, null to stop recording
+	 */
+	public void setAccessProfile(final AccessProfile accessProfile) {
+		this.accessProfile = accessProfile;
+	}
+	
+	public AccessProfile getAccessProfile() {
+		return accessProfile;
+	}
+	
+	/**
+	 * Sets a second-level cache, shared with other instances, to look metadata up in 
+	 * before building them. Metadata built afterwards are linked to the superclass 
+	 * metadata held by the shared cache.
+	 * 
+	 * @param sharedCache shared cache, e.g. {@link SharedMetadataCache#instance()}, null not to share metadata
+	 */
+	public void setSharedCache(final SharedMetadataCache sharedCache) {
+		this.sharedCache = sharedCache;
+	}
+	
+	public SharedMetadataCache getSharedCache() {
+		return sharedCache;
+	}
+	
+	/**
+	 * Sets whether metadata built afterwards are frozen before being cached, so that callers 
+	 * can share them among threads without defensive copies. Every section of frozen metadata 
+	 * is computed when they are built, rather than on first access. Metadata obtained from 
+	 * a shared cache are always frozen.
+	 * 
+	 * @param freezeMetadata <tt>true</tt> to freeze metadata
+	 * @see ClassMetadata#freeze()
+	 */
+	public void setFreezeMetadata(final boolean freezeMetadata) {
+		this.freezeMetadata = freezeMetadata;
+	}
+	
+	public boolean isFreezeMetadata() {
+		return freezeMetadata;
+	}
+	
+	/**
+	 * Starts collecting metrics through a new {@link IntrospectionMetrics}, replacing any 
+	 * previous metrics listener. Call {@link IntrospectionMetrics#register(String)} on the 
+	 * result to publish metrics through JMX.
+	 * 
+	 * @return collected metrics
+	 */
+	public IntrospectionMetrics enableMetrics() {
+		IntrospectionMetrics metrics = new IntrospectionMetrics(this);
+		setMetricsListener(metrics);
+		return metrics;
 	}
 	
 	/**
@@ -53,6 +276,18 @@ public class ClassIntrospector {
 		AnnotationHelper.instance().registerAnnotationListener(annotation, annotationListener);
 	}
 	
+	/**
+	 * Allows to register an annotation without writing a listener for it: everytime the annotation 
+	 * is reached, all of its attributes are extracted by a {@link DefaultAnnotationListener}.
+	 * 
+	 * @param annotation the class that corresponds to the annotation
+	 */
+	public <T extends Annotation> void registerAnnotation(final Class<T> annotation) {
+		if (annotation == null) throw new IllegalArgumentException("Unspecified annotation");
+		
+		AnnotationHelper.instance().registerAnnotationListener(annotation, DefaultAnnotationListener.forType(annotation));
+	}
+	
 	/**
 	 * Populates internal metadata cache with class metadata information obtained
 	 * analyzing each of the classes passed as a parameter. 
@@ -64,21 +299,369 @@ public class ClassIntrospector {
 		if (clzs == null || clzs.length == 0) return;
 		
 		for (Class<?> clz : clzs) {
-			String clzName = clz.getCanonicalName();
-			if (classMetadataCache.containsKey(clzName)) continue;
+			lookupClassMetadata(clz);
+		}
+	}
+	
+	/**
+	 * Populates internal metadata cache by analyzing the specified classes in parallel
+	 * on the common fork-join pool.
+	 * 
+	 * @param clzs classes to load metadata information from
+	 * @return metadata obtained for each class, along with the failure of each class that couldn't be analyzed
+	 * @see #loadClassesMetadata(Executor, Class...)
+	 */
+	public BulkLoadResult loadClassesMetadataInParallel(final Class<?>... clzs) {
+		return loadClassesMetadata(ForkJoinPool.commonPool(), clzs);
+	}
+	
+	/**
+	 * Populates internal metadata cache by analyzing the specified classes on the passed executor.
+	 * Unlike {@link #loadClassesMetadata(Class...)}, a class that can't be analyzed doesn't stop 
+	 * the load: its failure is reported in the returned result. Classes already cached are not 
+	 * analyzed again, and newly built metadata are published to the cache all at once, 
+	 * after every class has been analyzed.
+	 * 
+	 * @param executor executor running metadata builds
+	 * @param clzs classes to load metadata information from
+	 * @return metadata obtained for each class, along with the failure of each class that couldn't be analyzed
+	 */
+	public BulkLoadResult loadClassesMetadata(final Executor executor, final Class<?>... clzs) {
+		if (executor == null) throw new IllegalArgumentException("Unspecified executor");
+		
+		BulkLoadResult result = new BulkLoadResult();
+		if (clzs == null || clzs.length == 0) return result;
+		
+		// Start a build for each class not cached yet
+		final SharedMetadataCache shared = sharedCache;
+		Map<Class<?>, Object> pending = new LinkedHashMap<Class<?>, Object>();  // value=<cached metadata or running build>
+		for (final Class<?> clz : clzs) {
+			if (clz == null || pending.containsKey(clz)) continue;
+			
+			IMetricsListener listener = metricsListener;
+			ClassMetadata classMetadata = getCachedClassMetadata(clz);
+			if (classMetadata != null) {
+				if (listener != null) listener.cacheHit(cacheKeys.get(clz));
+				pending.put(clz, classMetadata);
+				continue;
+			}
+			if (listener != null) listener.cacheMiss(cacheKeys.get(clz));
+			FutureTask<ClassMetadata> build = new FutureTask<ClassMetadata>(new Callable<ClassMetadata>() {
+				public ClassMetadata call() throws ClassNotFoundException {
+					return shared != null ? shared.get(clz, metricsListener) : new ClassMetadata(clz, metricsListener);
+				}
+			});
+			pending.put(clz, build);
+			executor.execute(build);
+		}
+		
+		// Collect results
+		Map<Class<?>, ClassMetadata> built = new LinkedHashMap<Class<?>, ClassMetadata>();
+		boolean interrupted = false;
+		for (Map.Entry<Class<?>, Object> entry : pending.entrySet()) {
+			Class<?> clz = entry.getKey();
+			if (entry.getValue() instanceof ClassMetadata) {
+				result.addLoaded(clz, (ClassMetadata) entry.getValue());
+				continue;
+			}
+			
+			@SuppressWarnings("unchecked")
+			FutureTask<ClassMetadata> build = (FutureTask<ClassMetadata>) entry.getValue();
+			while (true) {
+				try {
+					ClassMetadata classMetadata = build.get();
+					built.put(clz, classMetadata);
+					result.addLoaded(clz, classMetadata);
+					break;
+				} catch (ExecutionException e) {
+					result.addFailure(clz, e.getCause());
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		
+		// Link to superclasses, preferring the ones just built (shared metadata are linked already)
+		for (Map.Entry<Class<?>, ClassMetadata> entry : result.getLoaded().entrySet()) {
+			if (shared == null && built.get(entry.getKey()) == entry.getValue()) linkSuperclass(entry.getKey(), entry.getValue(), built);
+		}
+		if (freezeMetadata) {
+			for (ClassMetadata classMetadata : built.values()) {
+				classMetadata.freeze();
+			}
+		}
+		
+		// Publish
+		classMetadataCache.putAll(built);
+		return result;
+	}
+	
+	/**
+	 * Resolves metadata of the specified classes and of every class they reach through
+	 * their instance fields, analyzing classes in parallel on the common fork-join pool.
+	 * 
+	 * @param roots classes to start from
+	 * @return metadata of the classes reached, along with the references between them and their cycles
+	 * @see #resolveGraph(Executor, Class...)
+	 */
+	public MetadataGraph resolveGraph(final Class<?>... roots) {
+		return resolveGraph(ForkJoinPool.commonPool(), roots);
+	}
+	
+	/**
+	 * Resolves metadata of the specified classes and of every class they reach through
+	 * their instance fields, inherited ones included: field types, component types of arrays, and 
+	 * element, key and value types of collections and maps. Primitive and JDK types are skipped.
+	 * 
+	 * <p>The graph is walked breadth-first: the classes first reached from a level of the
+	 * graph make up the next one, which is loaded as a single batch by
+	 * {@link #loadClassesMetadata(Executor, Class...)}, so that its classes not cached yet
+	 * are analyzed in parallel. Each class is visited once however many fields refer to it,
+	 * so cycles don't keep the walk going; they are reported by the returned graph.</p>
+	 * 
+	 * @param executor executor running metadata builds
+	 * @param roots classes to start from
+	 * @return metadata of the classes reached, along with the references between them and their cycles
+	 */
+	public MetadataGraph resolveGraph(final Executor executor, final Class<?>... roots) {
+		if (executor == null) throw new IllegalArgumentException("Unspecified executor");
+		
+		MetadataGraph graph = new MetadataGraph();
+		if (roots == null || roots.length == 0) return graph;
+		
+		Set<Class<?>> visited = new HashSet<Class<?>>();
+		Set<Class<?>> level = new LinkedHashSet<Class<?>>();
+		for (Class<?> root : roots) {
+			if (root == null) continue;
+			graph.addRoot(root);
+			addFieldType(level, root);
+		}
+		visited.addAll(level);
+		while (!level.isEmpty()) {
+			BulkLoadResult result = loadClassesMetadata(executor, level.toArray(new Class<?>[level.size()]));
+			for (Map.Entry<Class<?>, Throwable> failure : result.getFailures().entrySet()) {
+				graph.addFailure(failure.getKey(), failure.getValue());
+			}
 			
-			ClassMetadata classMetadata = new ClassMetadata(clz);
-			classMetadataCache.put(clzName, classMetadata);
+			Set<Class<?>> nextLevel = new LinkedHashSet<Class<?>>();
+			for (Map.Entry<Class<?>, ClassMetadata> entry : result.getLoaded().entrySet()) {
+				Set<Class<?>> referredClasses = new LinkedHashSet<Class<?>>();
+				for (ClassMetadata metadata = entry.getValue(); metadata != null; metadata = metadata.getSuperclassMetadata()) {
+					addFieldTypes(referredClasses, metadata, entry.getKey(), true);
+				}
+				graph.addNode(entry.getKey(), entry.getValue(), referredClasses);
+				for (Class<?> referredClass : referredClasses) {
+					if (visited.add(referredClass)) nextLevel.add(referredClass);
+				}
+			}
+			level = nextLevel;
 		}
+		graph.complete();
+		return graph;
 	}
 	
 	/**
-	 * Merges internal cache info with data obtained from the passed map.
+	 * Merges internal cache info with data obtained from the passed map. Metadata of 
+	 * a loaded class are cached by class, the others by the key they are mapped to.
 	 * 
 	 * @param classMetadata a Map containing class metadata info
 	 */
 	public void addClassMetadataMapInfo (final Map<String, ClassMetadata> classMetadata) {
-		if (classMetadata != null) classMetadataCache.putAll(classMetadata);
+		if (classMetadata == null) return;
+		
+		for (Map.Entry<String, ClassMetadata> entry : classMetadata.entrySet()) {
+			Class<?> clz = entry.getValue().getClz();
+			if (clz != null) classMetadataCache.put(clz, entry.getValue()); else namedMetadataCache.put(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Drops cached metadata of a class, along with cached metadata of its subclasses.
+	 * 
+	 * @param clz class whose metadata are stale
+	 * @return dropped metadata
+	 * @see #invalidate(Collection)
+	 */
+	public List<ClassMetadata> invalidate(final Class<?> clz) {
+		if (clz == null) return Collections.emptyList();
+		return invalidate(Collections.singleton(clz.getName()));
+	}
+	
+	/**
+	 * Drops cached metadata of the specified classes, e.g. because their class files changed,
+	 * keeping every other entry. Cached metadata of their subclasses are dropped as well, 
+	 * since they are linked to the metadata of their superclasses. Stale metadata are dropped 
+	 * from the shared cache too, if any.
+	 * 
+	 * @param classNames binary names of the classes whose metadata are stale
+	 * @return dropped metadata
+	 */
+	public List<ClassMetadata> invalidate(final Collection<String> classNames) {
+		if (classNames == null || classNames.isEmpty()) return Collections.emptyList();
+		SharedMetadataCache shared = sharedCache;
+		if (shared != null) shared.invalidate(classNames);
+		
+		// Metadata built from a class file, without loading the class, only know their canonical name
+		Set<String> canonicalNames = new HashSet<String>(classNames.size() * 4 / 3 + 1);
+		for (String className : classNames) {
+			canonicalNames.add(className.replace('$', '.'));
+		}
+		List<ClassMetadata> result = new ArrayList<ClassMetadata>();
+		for (Map.Entry<Class<?>, ClassMetadata> entry : new ArrayList<Map.Entry<Class<?>, ClassMetadata>>(classMetadataCache.entrySet())) {
+			if (isStale(entry.getValue(), classNames, canonicalNames)) {
+				classMetadataCache.remove(entry.getKey());
+				result.add(entry.getValue());
+			}
+		}
+		for (Map.Entry<String, ClassMetadata> entry : new ArrayList<Map.Entry<String, ClassMetadata>>(namedMetadataCache.entrySet())) {
+			if (isStale(entry.getValue(), classNames, canonicalNames)) {
+				namedMetadataCache.remove(entry.getKey());
+				result.add(entry.getValue());
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Tells whether metadata describe one of the specified classes, or a subclass of theirs.
+	 */
+	private static boolean isStale(final ClassMetadata classMetadata, final Collection<String> classNames, final Set<String> canonicalNames) {
+		for (ClassMetadata metadata = classMetadata; metadata != null; metadata = metadata.getSuperclassMetadata()) {
+			Class<?> clz = metadata.getClz();
+			if (clz != null ? classNames.contains(clz.getName()) : canonicalNames.contains(metadata.getQualifiedName())) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Walks every metadata held by internal cache with the specified visitor.
+	 * 
+	 * @param visitor metadata visitor
+	 * @see ClassMetadata#accept(IMetadataVisitor)
+	 */
+	public void visitMetadata(final IMetadataVisitor visitor) {
+		if (visitor == null) throw new IllegalArgumentException("Unspecified visitor");
+		
+		for (ClassMetadata classMetadata : getCachedMetadata()) {
+			classMetadata.accept(visitor);
+		}
+	}
+	
+	/**
+	 * Dumps internal metadata cache as a JSON array, streamed to the passed writer 
+	 * rather than built into a string first.
+	 * 
+	 * @param writer destination writer, not closed
+	 * @return number of class metadata written
+	 * @throws IOException if the writer fails
+	 * @see MetadataJsonWriter
+	 */
+	public int writeJson(final Writer writer) throws IOException {
+		return new MetadataJsonWriter(writer).writeAll(getCachedMetadata());
+	}
+	
+	/**
+	 * Dumps internal metadata cache in binary form, streamed to the passed channel 
+	 * through a fixed-size buffer.
+	 * 
+	 * @param channel destination channel, not closed
+	 * @return number of class metadata written
+	 * @throws IOException if the channel fails
+	 * @see MetadataBinaryWriter
+	 */
+	public int writeBinary(final WritableByteChannel channel) throws IOException {
+		return new MetadataBinaryWriter(channel).writeAll(getCachedMetadata());
+	}
+	
+	/**
+	 * Writes a binary snapshot of internal metadata cache, to be restored at a later startup
+	 * by {@link #loadSnapshot(File, ClassLoader)}.
+	 * 
+	 * @param file destination file, overwritten if it exists
+	 * @return number of class metadata written
+	 * @throws IOException if the snapshot can't be written
+	 * @see MetadataSnapshot
+	 */
+	public int writeSnapshot(final File file) throws IOException {
+		return MetadataSnapshot.write(getCachedMetadata(), file);
+	}
+	
+	/**
+	 * Populates internal metadata cache from a snapshot written by {@link #writeSnapshot(File)}. 
+	 * Metadata of classes whose class file changed since the snapshot was written are built again; 
+	 * classes that can't be found anymore are ignored.
+	 * 
+	 * @param file snapshot file
+	 * @param classLoader class loader to look classes up with, null for the system class loader
+	 * @return metadata restored or built again for each class, along with the failure of each class 
+	 * that couldn't be built again
+	 * @throws IOException if the snapshot can't be read
+	 * @see MetadataSnapshot
+	 */
+	public BulkLoadResult loadSnapshot(final File file, final ClassLoader classLoader) throws IOException {
+		List<String> staleClassNames = new ArrayList<String>();
+		Map<String, ClassMetadata> restored = MetadataSnapshot.read(file, classLoader, staleClassNames);
+		Map<Class<?>, ClassMetadata> batch = new HashMap<Class<?>, ClassMetadata>(restored.size() * 4 / 3 + 1);
+		for (ClassMetadata classMetadata : restored.values()) {
+			batch.put(classMetadata.getClz(), classMetadata);
+		}
+		for (ClassMetadata classMetadata : restored.values()) {
+			linkSuperclass(classMetadata.getClz(), classMetadata, batch);
+		}
+		if (freezeMetadata) {
+			for (ClassMetadata classMetadata : restored.values()) {
+				classMetadata.freeze();
+			}
+		}
+		addClassMetadataMapInfo(restored);
+		
+		// Build stale entries again
+		List<Class<?>> staleClasses = new ArrayList<Class<?>>();
+		ClassLoader loader = classLoader == null ? ClassLoader.getSystemClassLoader() : classLoader;
+		for (String className : staleClassNames) {
+			try {
+				staleClasses.add(Class.forName(className, false, loader));
+			} catch (ClassNotFoundException e) {
+			} catch (LinkageError e) {}
+		}
+		BulkLoadResult result = loadClassesMetadataInParallel(staleClasses.toArray(new Class<?>[staleClasses.size()]));
+		for (ClassMetadata classMetadata : restored.values()) {
+			result.addLoaded(classMetadata.getClz(), classMetadata);
+		}
+		return result;
+	}
+	
+	/**
+	 * Warms internal metadata cache with the hottest classes of an access profile, e.g. one recorded
+	 * before a restart, up to the maximum cache size. Classes are analyzed in parallel, hottest first, 
+	 * and end up in the cache as if they had been requested from the coldest to the hottest, so that 
+	 * the hottest are the last to be evicted. Classes that can't be found anymore are ignored.
+	 * 
+	 * @param accessProfile access profile to replay
+	 * @param classLoader class loader to look classes up with, null for the system class loader
+	 * @return metadata obtained for each class, along with the failure of each class that couldn't be analyzed
+	 * @see #setAccessProfile(AccessProfile)
+	 */
+	public BulkLoadResult replay(final AccessProfile accessProfile, final ClassLoader classLoader) {
+		if (accessProfile == null) throw new IllegalArgumentException("Unspecified access profile");
+		
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		ClassLoader loader = classLoader == null ? ClassLoader.getSystemClassLoader() : classLoader;
+		for (String className : accessProfile.getHottest(maxCacheSize)) {
+			try {
+				classes.add(Class.forName(className, false, loader));
+			} catch (ClassNotFoundException e) {
+			} catch (LinkageError e) {}
+		}
+		BulkLoadResult result = loadClassesMetadataInParallel(classes.toArray(new Class<?>[classes.size()]));
+		
+		// Touch from the coldest to the hottest, refreshing recency
+		for (int i = classes.size() - 1; i >= 0; i--) {
+			classMetadataCache.get(classes.get(i));
+		}
+		return result;
 	}
 	
 	/**
@@ -89,25 +672,318 @@ public class ClassIntrospector {
 	 * @throws ClassNotFoundException if the specified class is not found in classpath
 	 */
 	public ClassMetadata getClassMetadata(final Class<?> clz) throws ClassNotFoundException {
+		AccessProfile profile = accessProfile;
+		if (profile != null) profile.record(clz);
+		return lookupClassMetadata(clz);
+	}
+	
+	private ClassMetadata lookupClassMetadata(final Class<?> clz) throws ClassNotFoundException {
 		if (clz == null) return null;
 		
 		// Check cache
-		String clzName = clz.getCanonicalName();
-		if (classMetadataCache.containsKey(clzName)) return classMetadataCache.get(clzName);
+		final IMetricsListener listener = metricsListener;
+		ClassMetadata classMetadata = getCachedClassMetadata(clz);
+		if (classMetadata != null) {
+			if (listener != null) listener.cacheHit(cacheKeys.get(clz));
+			return classMetadata;
+		}
 		
-		// Build new metadata and put them into cache
-		ClassMetadata classMetadata = new ClassMetadata(clz);
-		classMetadataCache.put(clzName, classMetadata);
+		// Build new metadata and put them into cache, once even if several threads ask for them
+		try {
+			return classMetadataCache.get(clz, new Callable<ClassMetadata>() {
+				public ClassMetadata call() throws ClassNotFoundException {
+					if (listener != null) listener.cacheMiss(cacheKeys.get(clz));
+					return buildClassMetadata(clz, listener);
+				}
+			});
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ClassNotFoundException) throw (ClassNotFoundException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+	
+	/**
+	 * Returns cached metadata of a class, or else cached metadata built from the class file 
+	 * of a same-named class, null if there are none.
+	 */
+	private ClassMetadata getCachedClassMetadata(final Class<?> clz) {
+		ClassMetadata classMetadata = classMetadataCache.get(clz);
+		if (classMetadata == null && !namedMetadataCache.isEmpty()) classMetadata = namedMetadataCache.get(cacheKeys.get(clz));
 		return classMetadata;
 	}
 	
 	/**
-	 * Returns internal class metadata cache as unmodifiable map. 
+	 * Returns every cached metadata, those of loaded classes first.
+	 */
+	private List<ClassMetadata> getCachedMetadata() {
+		List<ClassMetadata> result = new ArrayList<ClassMetadata>(classMetadataCache.values());
+		result.addAll(namedMetadataCache.values());
+		return result;
+	}
+	
+	/**
+	 * Gets metadata missing from the cache from the shared cache, if any, or builds them.
+	 */
+	private ClassMetadata buildClassMetadata(final Class<?> clz, final IMetricsListener listener) throws ClassNotFoundException {
+		SharedMetadataCache shared = sharedCache;
+		if (shared != null) return shared.get(clz, listener);
+		
+		ClassMetadata classMetadata = new ClassMetadata(clz, listener);
+		linkSuperclass(clz, classMetadata, null);
+		return freezeMetadata ? classMetadata.freeze() : classMetadata;
+	}
+	
+	/**
+	 * Returns metadata information for the requested class without blocking: metadata already 
+	 * cached are returned right away, otherwise they are built on the executor of this instance.
+	 * 
+	 * @param clz class to analyze
+	 * @return future metadata information for the specified class, completed exceptionally
+	 * if the class can't be analyzed or the executor rejects the build
+	 * @see #setExecutor(Executor)
+	 */
+	public CompletableFuture<ClassMetadata> getClassMetadataAsync(final Class<?> clz) {
+		AccessProfile profile = accessProfile;
+		if (profile != null) profile.record(clz);
+		return getClassMetadataAsync(clz, getExecutor(), false);
+	}
+	
+	/**
+	 * Gets metadata on an executor, unless they are cached and don't need to be preloaded.
+	 */
+	private CompletableFuture<ClassMetadata> getClassMetadataAsync(final Class<?> clz, final Executor executor, final boolean preload) {
+		if (clz == null) return CompletableFuture.completedFuture(null);
+		
+		if (!preload) {
+			ClassMetadata classMetadata = getCachedClassMetadata(clz);
+			if (classMetadata != null) {
+				IMetricsListener listener = metricsListener;
+				if (listener != null) listener.cacheHit(cacheKeys.get(clz));
+				return CompletableFuture.completedFuture(classMetadata);
+			}
+		}
+		
+		final CompletableFuture<ClassMetadata> result = new CompletableFuture<ClassMetadata>();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						ClassMetadata classMetadata = lookupClassMetadata(clz);
+						result.complete(preload && classMetadata != null ? classMetadata.preload() : classMetadata);
+					} catch (Throwable e) {
+						result.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+	
+	/**
+	 * Warms the cache in the background with the metadata of a class and of the types of its 
+	 * fields, i.e. field types and the element, value and key types of arrays, collections 
+	 * and maps. Only application types are prefetched: primitive and JDK types are skipped.
+	 * Field types that can't be analyzed are ignored. Every section of prefetched metadata
+	 * is computed, so that no lazy work is left for the thread that later reads them.
+	 * 
+	 * @param clz class to prefetch metadata of
+	 * @return future completed once every prefetch is over, exceptionally if the class itself can't be analyzed
+	 * @see #getClassMetadataAsync(Class)
+	 * @see ClassMetadata#preload()
+	 */
+	public CompletableFuture<Void> prefetch(final Class<?> clz) {
+		final Executor executor = getExecutor();
+		return getClassMetadataAsync(clz, executor, true).thenCompose(classMetadata -> {
+			List<CompletableFuture<ClassMetadata>> builds = new ArrayList<CompletableFuture<ClassMetadata>>();
+			if (classMetadata != null) {
+				for (Class<?> fieldType : getFieldTypes(classMetadata)) {
+					builds.add(getClassMetadataAsync(fieldType, executor, true).exceptionally(e -> null));
+				}
+			}
+			return CompletableFuture.allOf(builds.toArray(new CompletableFuture<?>[builds.size()]));
+		});
+	}
+	
+	/**
+	 * Returns the application types the fields of a class refer to, resolving the names
+	 * reported by field metadata against the fields of the loaded class.
+	 */
+	private static Set<Class<?>> getFieldTypes(final ClassMetadata classMetadata) {
+		Set<Class<?>> result = new LinkedHashSet<Class<?>>();
+		addFieldTypes(result, classMetadata, classMetadata.getClz(), false);
+		result.remove(classMetadata.getClz());
+		return result;
+	}
+	
+	/**
+	 * Adds the application types the fields declared by a class refer to, as seen from 
+	 * the specified subclass, the types of its instance fields only if so specified.
+	 */
+	private static void addFieldTypes(final Set<Class<?>> fieldTypes, final ClassMetadata classMetadata, final Class<?> context, 
+			final boolean instanceFieldsOnly) {
+		Class<?> clz = classMetadata.getClz();
+		if (clz == null) return;
+		
+		for (Field field : clz.getDeclaredFields()) {
+			FieldMetadata fieldMetadata = classMetadata.getNamedField(field.getName());
+			if (fieldMetadata == null || (instanceFieldsOnly && Modifier.isStatic(field.getModifiers()))) continue;
+			
+			Type genericType = TypeResolver.resolve(context, field.getGenericType());
+			Class<?> type = TypeResolver.toClass(genericType);
+			if (type == null) {
+				// Unbound type variable
+				type = field.getType();
+				genericType = type;
+			}
+			addFieldType(fieldTypes, type);
+			if (type.isArray()) continue;  // Component type already added
+			
+			boolean isMap = Map.class.isAssignableFrom(type);
+			if (!isMap && !Collection.class.isAssignableFrom(type)) continue;
+			Type[] typeArguments = TypeResolver.getTypeArguments(context, genericType, isMap ? Map.class : Collection.class);
+			if (typeArguments == null) continue;
+			if (isMap) {
+				addFieldType(fieldTypes, TypeResolver.toClass(typeArguments[0]));
+				addFieldType(fieldTypes, TypeResolver.toClass(typeArguments[1]));
+			} else {
+				addFieldType(fieldTypes, TypeResolver.toClass(typeArguments[0]));
+			}
+		}
+	}
+	
+	private static void addFieldType(final Set<Class<?>> fieldTypes, final Class<?> type) {
+		Class<?> elementType = type;
+		while (elementType != null && elementType.isArray()) elementType = elementType.getComponentType();
+		// Skip primitive and JDK types
+		if (elementType == null || elementType.isPrimitive() || elementType.getClassLoader() == null) return;
+		fieldTypes.add(elementType);
+	}
+	
+	/**
+	 * Links class metadata to the metadata of its superclass, so that superclass fields are 
+	 * shared rather than copied. The superclass is looked up in the specified batch first, 
+	 * then in the cache, where it is loaded if missing. Metadata are left unlinked if 
+	 * the superclass can't be analyzed, or if it is a JDK class, i.e. loaded by the bootstrap 
+	 * class loader, so that JDK superclasses don't take up cache entries.
+	 */
+	private void linkSuperclass(final Class<?> clz, final ClassMetadata classMetadata, final Map<Class<?>, ClassMetadata> batch) {
+		Class<?> superclass = clz == null ? null : clz.getSuperclass();
+		if (superclass == null || superclass.getClassLoader() == null) return;  // Object and other JDK classes
+		
+		ClassMetadata superclassMetadata = batch == null ? null : batch.get(superclass);
+		try {
+			if (superclassMetadata == null) superclassMetadata = lookupClassMetadata(superclass);
+		} catch (ClassNotFoundException e) {
+			return;
+		}
+		classMetadata.setSuperclassMetadata(superclassMetadata);
+	}
+	
+	/**
+	 * Returns cached metadata of the classes carrying the specified annotation. The result 
+	 * comes from an index kept up to date as the cache changes, so its cost doesn't depend 
+	 * on cache size. Only annotations with a registered listener are reported. 
 	 * 
-	 * @return read-only version of internal cache
+	 * @param annotation annotation to look for
+	 * @return live, read-only view of the matching class metadata
+	 * @see #registerAnnotationListener(Class, IAnnotationListener)
+	 */
+	public Collection<ClassMetadata> getAnnotatedClasses(final Class<? extends Annotation> annotation) {
+		if (annotation == null) throw new IllegalArgumentException("Unspecified annotation");
+		return annotatedMetadataIndex.getClasses(annotation.getCanonicalName());
+	}
+	
+	/**
+	 * Returns cached metadata of the classes carrying the specified annotation with 
+	 * the specified attribute value (arrays are compared by content).
+	 * 
+	 * @param annotation annotation to look for
+	 * @param attributeName name of the attribute, as reported by the annotation listener
+	 * @param attributeValue expected attribute value
+	 * @return the matching class metadata
+	 * @see #getAnnotatedClasses(Class)
+	 */
+	public List<ClassMetadata> getAnnotatedClasses(final Class<? extends Annotation> annotation, final String attributeName, final Object attributeValue) {
+		List<ClassMetadata> result = new ArrayList<ClassMetadata>();
+		for (ClassMetadata classMetadata : getAnnotatedClasses(annotation)) {
+			AnnotationMetadata annotationMetadata = classMetadata.getNamedAnnotation(annotation);
+			if (annotationMetadata != null && Objects.deepEquals(annotationMetadata.getAttribute(attributeName), attributeValue)) result.add(classMetadata);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns metadata of the fields carrying the specified annotation, among cached classes. 
+	 * The result comes from an index kept up to date as the cache changes, so its cost doesn't 
+	 * depend on cache size. Only annotations with a registered listener are reported. 
+	 * 
+	 * @param annotation annotation to look for
+	 * @return live, read-only view of the matching field metadata
+	 * @see #registerAnnotationListener(Class, IAnnotationListener)
+	 */
+	public Collection<FieldMetadata> getAnnotatedFields(final Class<? extends Annotation> annotation) {
+		if (annotation == null) throw new IllegalArgumentException("Unspecified annotation");
+		return annotatedMetadataIndex.getFields(annotation.getCanonicalName());
+	}
+	
+	/**
+	 * Returns metadata of the fields carrying the specified annotation with the specified 
+	 * attribute value (arrays are compared by content), among cached classes.
+	 * 
+	 * @param annotation annotation to look for
+	 * @param attributeName name of the attribute, as reported by the annotation listener
+	 * @param attributeValue expected attribute value
+	 * @return the matching field metadata
+	 * @see #getAnnotatedFields(Class)
+	 */
+	public List<FieldMetadata> getAnnotatedFields(final Class<? extends Annotation> annotation, final String attributeName, final Object attributeValue) {
+		List<FieldMetadata> result = new ArrayList<FieldMetadata>();
+		for (FieldMetadata fieldMetadata : getAnnotatedFields(annotation)) {
+			AnnotationMetadata annotationMetadata = fieldMetadata.getNamedAnnotation(annotation);
+			if (annotationMetadata != null && Objects.deepEquals(annotationMetadata.getAttribute(attributeName), attributeValue)) result.add(fieldMetadata);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns a read-only copy of internal class metadata cache, keyed by canonical class name 
+	 * (binary name if none). Since the cache is keyed by class, same-named classes loaded 
+	 * by different class loaders are reported once, with the metadata of one of them. 
+	 * The copy is taken when this method is called: later changes to the cache, e.g. 
+	 * evictions, are not reflected, so callers polling the cache must call it again.
+	 * 
+	 * @return read-only copy of internal cache
 	 * @see Collections
 	 */
 	public Map<String, ClassMetadata> getClassMetadataCache() {
-		return Collections.unmodifiableMap(classMetadataCache);
+		Map<String, ClassMetadata> result = new LinkedHashMap<String, ClassMetadata>();
+		for (Map.Entry<Class<?>, ClassMetadata> entry : classMetadataCache.entrySet()) {
+			result.put(cacheKeys.get(entry.getKey()), entry.getValue());
+		}
+		for (Map.Entry<String, ClassMetadata> entry : namedMetadataCache.entrySet()) {
+			if (!result.containsKey(entry.getKey())) result.put(entry.getKey(), entry.getValue());
+		}
+		return Collections.unmodifiableMap(result);
+	}
+	
+	/**
+	 * Forwards cache changes to the annotation index and evictions to the metrics listener.
+	 * Cached metadata must not be reachable from here, otherwise their classes can't be unloaded.
+	 */
+	private class CacheEvents <K> implements ICacheListener<K, ClassMetadata> {
+		public void entryAdded(final K key, final ClassMetadata classMetadata) {
+			annotatedMetadataIndex.entryAdded(key, classMetadata);
+		}
+		
+		public void entryRemoved(final K key, final ClassMetadata classMetadata, final boolean evicted) {
+			annotatedMetadataIndex.entryRemoved(key, classMetadata, evicted);
+			IMetricsListener listener = metricsListener;
+			if (evicted && listener != null) listener.cacheEviction(key instanceof Class ? cacheKeys.get((Class<?>) key) : (String) key);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+package now.gf.diggit.java.reflection;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import now.gf.diggit.java.classfile.ClassFileAnnotation;
+import now.gf.diggit.java.classfile.ClassFileReader;
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+
+/**
+ * <p>Builds class metadata for every class found in a set of directories and JAR files,
+ * reading class files directly: no class gets loaded, nor initialized. Directories and
+ * JAR files are walked the same way, JAR entries being read through the NIO zip file system.</p>
+ *
+ * <p>An annotation filter can be specified, so that metadata are built only for classes
+ * carrying at least one of the specified annotations; the other classes are discarded as
+ * soon as their annotations are read.</p>
+ *
+ * <p>Since classes are not loaded, metadata obtained this way are slightly less
+ * complete than those built by {@link ClassIntrospector}: see {@link ClassMetadata#ClassMetadata(ClassFileReader)}.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassFileReader
+ */
+public class ClassPathScanner {
+	private static final String CLASS_FILE_SUFFIX = ".class";
+	private static final String[] ARCHIVE_SUFFIXES = {".jar", ".zip"};
+
+	private Set<String> annotationFilter;  // Binary names of the annotations classes must carry, empty if no filter applies
+	private ByteBuffer buffer;             // Reused across class files
+
+	/**
+	 * Build a new <tt>ClassPathScanner</tt> which builds metadata for every class found.
+	 */
+	public ClassPathScanner() {
+		this.annotationFilter = new HashSet<String>();
+		this.buffer = ByteBuffer.allocate(16 * 1024);
+	}
+
+	/**
+	 * Restricts the scan to classes carrying the specified annotation. When more
+	 * annotations are added, classes carrying any of them are accepted.
+	 *
+	 * @param annotation annotation classes must carry; must be retained at runtime
+	 */
+	public void addAnnotationFilter(final Class<? extends Annotation> annotation) {
+		if (annotation == null) throw new IllegalArgumentException("Unspecified annotation");
+		annotationFilter.add(annotation.getName());
+	}
+
+	/**
+	 * Restricts the scan to classes carrying the specified annotation,
+	 * without the need of loading the annotation itself.
+	 *
+	 * @param annotationName binary name of the annotation classes must carry
+	 * @see #addAnnotationFilter(Class)
+	 */
+	public void addAnnotationFilter(final String annotationName) {
+		if (annotationName == null || annotationName.trim().length() == 0) throw new IllegalArgumentException("Unspecified annotation");
+		annotationFilter.add(annotationName);
+	}
+
+	/**
+	 * Scans every entry of the current class path (<tt>java.class.path</tt> system property).
+	 *
+	 * @return metadata of the classes found
+	 * @throws IOException if an entry can't be read
+	 */
+	public List<ClassMetadata> scanClassPath() throws IOException {
+		List<File> roots = new ArrayList<File>();
+		for (String entry : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+			if (entry.length() > 0) roots.add(new File(entry));
+		}
+		return scan(roots.toArray(new File[roots.size()]));
+	}
+
+	/**
+	 * Scans the specified directories and JAR files. Entries that don't exist, files other
+	 * than <tt>.jar</tt> and <tt>.zip</tt> archives, and archives that can't be opened are skipped.
+	 *
+	 * @param roots class directories and JAR files
+	 * @return metadata of the classes found, in scan order
+	 * @throws IOException if a directory or a JAR file can't be read
+	 */
+	public List<ClassMetadata> scan(final File... roots) throws IOException {
+		if (roots == null || roots.length == 0) return Collections.emptyList();
+
+		List<ClassMetadata> result = new ArrayList<ClassMetadata>();
+		for (File root : roots) {
+			if (root == null || !root.exists()) continue;
+
+			if (root.isDirectory()) {
+				scanTree(root.toPath(), result);
+			} else if (isArchive(root)) {
+				FileSystem jar;
+				try {
+					jar = FileSystems.newFileSystem(root.toPath(), (ClassLoader) null);
+				} catch (IOException e) {
+					// Not a valid archive, e.g. a truncated download: nothing to scan
+					continue;
+				} catch (ProviderNotFoundException e) {
+					continue;
+				}
+				try {
+					scanTree(jar.getPath("/"), result);
+				} finally {
+					jar.close();
+				}
+			}
+		}
+		return result;
+	}
+
+	private static boolean isArchive(final File file) {
+		String name = file.getName().toLowerCase();
+		for (String suffix : ARCHIVE_SUFFIXES) {
+			if (name.endsWith(suffix)) return true;
+		}
+		return false;
+	}
+
+	private void scanTree(final Path root, final List<ClassMetadata> result) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+				Path name = dir.getFileName();
+				return name != null && name.toString().startsWith("META-INF") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+				String name = file.getFileName().toString();
+				// Skip module-info and package-info, which don't describe classes
+				if (attrs.isRegularFile() && name.endsWith(CLASS_FILE_SUFFIX) && name.indexOf('-') < 0) {
+					ClassMetadata classMetadata = read(file);
+					if (classMetadata != null) result.add(classMetadata);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private ClassMetadata read(final Path file) throws IOException {
+		SeekableByteChannel channel = Files.newByteChannel(file);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) return null;
+			if (buffer.capacity() < size) buffer = ByteBuffer.allocate((int) size);
+			buffer.clear();
+			buffer.limit((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) break;
+			}
+		} finally {
+			channel.close();
+		}
+		buffer.flip();
+
+		try {
+			// The reader keeps the array, while the buffer is reused for the next class file
+			ClassFileReader classFile = new ClassFileReader(Arrays.copyOf(buffer.array(), buffer.limit()));
+			if (!accept(classFile)) return null;
+			return new ClassMetadata(classFile);
+		} catch (ClassFormatError e) {
+			// Not a valid class file: nothing to describe
+			return null;
+		}
+	}
+
+	private boolean accept(final ClassFileReader classFile) {
+		if (annotationFilter.isEmpty()) return true;
+
+		for (ClassFileAnnotation annotation : classFile.getAnnotations()) {
+			if (annotationFilter.contains(annotation.getTypeName())) return true;
+		}
+		return false;
+	}
+}
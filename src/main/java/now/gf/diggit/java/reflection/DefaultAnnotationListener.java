@@ -0,0 +1,99 @@
+package now.gf.diggit.java.reflection;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>An annotation listener that works for any annotation type: its attributes map
+ * holds the value of every attribute the annotation declares.</p>
+ *
+ * <p>Attribute methods are resolved into method handles once per annotation type,
+ * when the listener is first asked for; listeners are then cached, so that extracting
+ * attributes involves no reflective lookup.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassIntrospector#registerAnnotation(Class)
+ */
+public final class DefaultAnnotationListener <T extends Annotation> implements IAnnotationListener<T> {
+	private static final MethodType ATTRIBUTE_TYPE = MethodType.methodType(Object.class, Annotation.class);
+	private static final ClassValue<DefaultAnnotationListener<?>> listeners = new ClassValue<DefaultAnnotationListener<?>>() {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		@Override
+		protected DefaultAnnotationListener<?> computeValue(final Class<?> type) {
+			return new DefaultAnnotationListener(type);
+		}
+	};
+
+	private final String[] names;
+	private final MethodHandle[] attributes;
+
+	private DefaultAnnotationListener(final Class<T> annotation) {
+		List<String> names = new ArrayList<String>();
+		List<MethodHandle> attributes = new ArrayList<MethodHandle>();
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		for (Method method : annotation.getDeclaredMethods()) {
+			if (Modifier.isStatic(method.getModifiers()) || method.getParameterTypes().length > 0) continue;
+			try {
+				method.setAccessible(true);
+			} catch (RuntimeException e) {}  // Not open to this module: fine for public annotations
+			try {
+				attributes.add(lookup.unreflect(method).asType(ATTRIBUTE_TYPE));
+				names.add(method.getName());
+			} catch (IllegalAccessException e) {
+				throw new IllegalArgumentException("Attribute " + method.getName() + " of " + annotation.getName() + " is not accessible", e);
+			}
+		}
+		this.names = names.toArray(new String[names.size()]);
+		this.attributes = attributes.toArray(new MethodHandle[attributes.size()]);
+	}
+
+	/**
+	 * Returns the listener for the specified annotation type, building it on first call.
+	 *
+	 * @param annotation annotation type
+	 * @return the listener for the annotation type
+	 * @throws IllegalArgumentException if annotation attributes can't be accessed
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Annotation> DefaultAnnotationListener<T> forType(final Class<T> annotation) {
+		if (annotation == null || !annotation.isAnnotation()) throw new IllegalArgumentException("An annotation type must be specified");
+		return (DefaultAnnotationListener<T>) listeners.get(annotation);
+	}
+
+	public Map<String, Object> getAttributesMap(final T annotation) {
+		if (names.length == 0) return null;
+
+		Map<String, Object> attributesMap = new HashMap<String, Object>(names.length * 4 / 3 + 1);
+		try {
+			for (int i = 0; i < names.length; i++) {
+				attributesMap.put(names[i], (Object) attributes[i].invokeExact((Annotation) annotation));
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException("Error reading attributes of " + annotation, e);
+		}
+		return attributesMap;
+	}
+
+	/**
+	 * Returns the names of the attributes this listener extracts.
+	 *
+	 * @return read-only list of attribute names
+	 */
+	public List<String> getAttributeNames() {
+		return Collections.unmodifiableList(Arrays.asList(names));
+	}
+}
@@ -0,0 +1,43 @@
+package now.gf.diggit.java.reflection;
+
+/**
+ * <p>Gets notified of metadata cache activity and of the time spent building 
+ * class metadata, e.g. to size the cache from real data. Cache hits are notified 
+ * on the lookup path, therefore implementations should be cheap; since a 
+ * <tt>ClassIntrospector</tt> can be shared among threads, they must also be thread-safe.</p>
+ * 
+ * @author Giorgio Ferrara
+ * @see ClassIntrospector#setMetricsListener(IMetricsListener)
+ * @see IntrospectionMetrics
+ */
+public interface IMetricsListener {
+	/**
+	 * Called when class metadata are found in the cache.
+	 * 
+	 * @param className canonical class name
+	 */
+	public void cacheHit(String className);
+	
+	/**
+	 * Called when class metadata are not found in the cache, and are going to be built.
+	 * 
+	 * @param className canonical class name
+	 */
+	public void cacheMiss(String className);
+	
+	/**
+	 * Called when class metadata are evicted from the cache to make room.
+	 * 
+	 * @param className canonical class name
+	 */
+	public void cacheEviction(String className);
+	
+	/**
+	 * Called when a section of class metadata has been built.
+	 * 
+	 * @param phase built section
+	 * @param className canonical class name
+	 * @param nanos time spent, in nanoseconds
+	 */
+	public void phaseCompleted(BuildPhase phase, String className, long nanos);
+}
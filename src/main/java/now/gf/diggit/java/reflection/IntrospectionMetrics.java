@@ -0,0 +1,157 @@
+package now.gf.diggit.java.reflection;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>Metrics listener collecting cache hit, miss and eviction counts along with 
+ * latency histograms of each build phase, for a given <tt>ClassIntrospector</tt>. 
+ * Counters are striped, so that the cache hit path stays cheap even under contention.</p>
+ * 
+ * <p>Metrics can be published as a JMX MXBean through {@link #register(String)}.</p>
+ * 
+ * @author Giorgio Ferrara
+ * @see ClassIntrospector#enableMetrics()
+ */
+public class IntrospectionMetrics implements IMetricsListener, IntrospectionMetricsMXBean {
+	public static final String DEFAULT_OBJECT_NAME = "now.gf.diggit:type=ClassIntrospector";
+	
+	private final ClassIntrospector classIntrospector;
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder evictions;
+	private final Map<BuildPhase, LatencyHistogram> latencies;
+	private ObjectName objectName;  // Null unless registered
+	
+	public IntrospectionMetrics(final ClassIntrospector classIntrospector) {
+		if (classIntrospector == null) throw new IllegalArgumentException("Unspecified class introspector");
+		
+		this.classIntrospector = classIntrospector;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.evictions = new LongAdder();
+		this.latencies = new EnumMap<BuildPhase, LatencyHistogram>(BuildPhase.class);
+		for (BuildPhase phase : BuildPhase.values()) {
+			latencies.put(phase, new LatencyHistogram());
+		}
+	}
+	
+	public void cacheHit(final String className) {
+		hits.increment();
+	}
+	
+	public void cacheMiss(final String className) {
+		misses.increment();
+	}
+	
+	public void cacheEviction(final String className) {
+		evictions.increment();
+	}
+	
+	public void phaseCompleted(final BuildPhase phase, final String className, final long nanos) {
+		latencies.get(phase).record(nanos);
+	}
+	
+	public long getHitCount() {
+		return hits.sum();
+	}
+	
+	public long getMissCount() {
+		return misses.sum();
+	}
+	
+	public double getHitRatio() {
+		long hitCount = hits.sum(), lookups = hitCount + misses.sum();
+		return lookups == 0 ? 0 : (double) hitCount / lookups;
+	}
+	
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+	
+	public int getCacheSize() {
+		return classIntrospector.getCacheSize();
+	}
+	
+	public int getMaxCacheSize() {
+		return classIntrospector.getMaxCacheSize();
+	}
+	
+	public long getCacheWeight() {
+		return classIntrospector.getCacheWeight();
+	}
+	
+	/**
+	 * Returns the latency histogram of a build phase.
+	 * 
+	 * @param phase build phase
+	 * @return live latency histogram
+	 */
+	public LatencyHistogram getBuildLatency(final BuildPhase phase) {
+		return latencies.get(phase);
+	}
+	
+	public Map<String, LatencyHistogram> getBuildLatencies() {
+		Map<String, LatencyHistogram> result = new LinkedHashMap<String, LatencyHistogram>();
+		for (Map.Entry<BuildPhase, LatencyHistogram> entry : latencies.entrySet()) {
+			result.put(entry.getKey().name(), entry.getValue());
+		}
+		return result;
+	}
+	
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+		for (LatencyHistogram histogram : latencies.values()) {
+			histogram.reset();
+		}
+	}
+	
+	/**
+	 * Registers these metrics into the platform MBean server.
+	 * 
+	 * @param objectName JMX object name, null for {@link #DEFAULT_OBJECT_NAME}
+	 * @throws JMException if metrics can't be registered, e.g. if the name is already taken
+	 */
+	public synchronized void register(final String objectName) throws JMException {
+		if (this.objectName != null) throw new IllegalStateException("Metrics already registered as " + this.objectName);
+		ObjectName name = new ObjectName(objectName == null ? DEFAULT_OBJECT_NAME : objectName);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		this.objectName = name;
+	}
+	
+	/**
+	 * Unregisters these metrics from the platform MBean server, if registered.
+	 * 
+	 * @throws JMException if metrics can't be unregistered
+	 */
+	public synchronized void unregister() throws JMException {
+		if (objectName == null) return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+		objectName = null;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder buffer = new StringBuilder("IntrospectionMetrics [")
+			.append('\n').append("hits=").append(getHitCount())
+			.append('\n').append("misses=").append(getMissCount())
+			.append('\n').append("evictions=").append(getEvictionCount())
+			.append('\n').append("size=").append(getCacheSize())
+			.append('\n').append("weight=").append(getCacheWeight()).append('/').append(getMaxCacheSize());
+		for (Map.Entry<BuildPhase, LatencyHistogram> entry : latencies.entrySet()) {
+			buffer.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+		}
+		buffer.append(']');
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,40 @@
+package now.gf.diggit.java.reflection;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link IntrospectionMetrics}.
+ * 
+ * @author Giorgio Ferrara
+ */
+public interface IntrospectionMetricsMXBean {
+	public long getHitCount();
+	
+	public long getMissCount();
+	
+	/**
+	 * @return ratio of lookups served by the cache, between 0 and 1
+	 */
+	public double getHitRatio();
+	
+	public long getEvictionCount();
+	
+	public int getCacheSize();
+	
+	public int getMaxCacheSize();
+	
+	/**
+	 * @return total weight of cached metadata, the cache size unless metadata are weighed
+	 */
+	public long getCacheWeight();
+	
+	/**
+	 * @return build latencies, key=<build phase name>
+	 */
+	public Map<String, LatencyHistogram> getBuildLatencies();
+	
+	/**
+	 * Clears every counter and histogram.
+	 */
+	public void reset();
+}
@@ -0,0 +1,114 @@
+package now.gf.diggit.java.reflection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Thread-safe histogram of latencies, in power-of-two nanosecond buckets: 
+ * recording a value costs a couple of atomic increments, while percentiles are 
+ * approximated by the upper bound of the bucket they fall in.</p>
+ * 
+ * @author Giorgio Ferrara
+ * @see IntrospectionMetrics
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 64;
+	
+	private final AtomicLongArray buckets;  // Bucket i counts values in [2^(i-1), 2^i)
+	private final AtomicLong count;
+	private final AtomicLong totalNanos;
+	private final AtomicLong maxNanos;
+	
+	public LatencyHistogram() {
+		this.buckets = new AtomicLongArray(BUCKETS);
+		this.count = new AtomicLong();
+		this.totalNanos = new AtomicLong();
+		this.maxNanos = new AtomicLong();
+	}
+	
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos latency in nanoseconds, negative values count as 0
+	 */
+	public void record(final long nanos) {
+		long value = Math.max(nanos, 0);
+		buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		totalNanos.addAndGet(value);
+		long max;
+		while (value > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, value));
+	}
+	
+	public long getCount() {
+		return count.get();
+	}
+	
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+	
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+	
+	public long getMeanNanos() {
+		long n = count.get();
+		return n == 0 ? 0 : totalNanos.get() / n;
+	}
+	
+	public long getP50Nanos() {
+		return getPercentileNanos(50);
+	}
+	
+	public long getP90Nanos() {
+		return getPercentileNanos(90);
+	}
+	
+	public long getP99Nanos() {
+		return getPercentileNanos(99);
+	}
+	
+	/**
+	 * Returns an upper bound of the specified percentile, never above the maximum recorded latency.
+	 * 
+	 * @param percentile percentile, between 0 and 100
+	 * @return percentile upper bound in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getPercentileNanos(final double percentile) {
+		if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("Invalid percentile: " + percentile);
+		long[] counts = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			n += counts[i];
+		}
+		if (n == 0) return 0;
+		
+		long rank = (long) Math.ceil(n * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && seen > 0) return Math.min(i == 0 ? 0 : i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1, getMaxNanos());
+		}
+		return getMaxNanos();
+	}
+	
+	/**
+	 * Clears every recorded latency. Values recorded while resetting may be partially lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+	
+	@Override
+	public String toString() {
+		return "LatencyHistogram [count=" + getCount() + ", mean=" + getMeanNanos() + "ns, p50=" + getP50Nanos() 
+			+ "ns, p90=" + getP90Nanos() + "ns, p99=" + getP99Nanos() + "ns, max=" + getMaxNanos() + "ns]";
+	}
+}
@@ -0,0 +1,209 @@
+package now.gf.diggit.java.reflection;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+
+/**
+ * <p>Outcome of an object graph resolution: metadata of the root classes and of every
+ * class they reach through their instance fields, along with the references between them.
+ * JDK and primitive types are not part of the graph.</p>
+ *
+ * <p>Classes referring to each other, directly or not, are reported as cycles, so that
+ * callers walking the graph know where to stop. A class whose metadata couldn't be built
+ * doesn't prevent the rest of the graph from being resolved.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassIntrospector#resolveGraph(java.util.concurrent.Executor, Class...)
+ */
+public class MetadataGraph {
+	private final List<Class<?>> roots;
+	private final Map<Class<?>, ClassMetadata> nodes;
+	private final Map<Class<?>, Set<Class<?>>> references;
+	private final Map<Class<?>, Throwable> failures;
+	private List<Set<Class<?>>> cycles;
+
+	MetadataGraph() {
+		this.roots = new ArrayList<Class<?>>();
+		this.nodes = new LinkedHashMap<Class<?>, ClassMetadata>();
+		this.references = new LinkedHashMap<Class<?>, Set<Class<?>>>();
+		this.failures = new LinkedHashMap<Class<?>, Throwable>();
+		this.cycles = Collections.emptyList();
+	}
+
+	/**
+	 * Returns the classes the graph was resolved from.
+	 *
+	 * @return read-only list of root classes, in request order
+	 */
+	public List<Class<?>> getRoots() {
+		return Collections.unmodifiableList(roots);
+	}
+
+	/**
+	 * Returns metadata of every class in the graph, breadth-first: root classes come first,
+	 * then the classes they refer to, and so on.
+	 *
+	 * @return read-only map: key=<class>, value=<class metadata>
+	 */
+	public Map<Class<?>, ClassMetadata> getNodes() {
+		return Collections.unmodifiableMap(nodes);
+	}
+
+	/**
+	 * Returns metadata of a class in the graph.
+	 *
+	 * @param clz class to look for
+	 * @return class metadata, null if the class is not part of the graph
+	 */
+	public ClassMetadata getClassMetadata(final Class<?> clz) {
+		return nodes.get(clz);
+	}
+
+	/**
+	 * Returns the classes of the graph referred to by the instance fields of a class, inherited
+	 * ones included: field types, component types of arrays, and element, key and value types
+	 * of collections and maps.
+	 *
+	 * @param clz class in the graph
+	 * @return read-only set of referred classes, empty if the class is not part of the graph
+	 */
+	public Set<Class<?>> getReferences(final Class<?> clz) {
+		Set<Class<?>> result = references.get(clz);
+		return result == null ? Collections.<Class<?>>emptySet() : Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * Returns the cycles of the graph, each being a set of classes that reach each other
+	 * through their fields. A class referring to itself, e.g. a tree node, is a cycle on its own.
+	 *
+	 * @return read-only list of cycles, empty if the graph is acyclic
+	 */
+	public List<Set<Class<?>>> getCycles() {
+		return cycles;
+	}
+
+	/**
+	 * Tells whether the graph contains no cycles.
+	 *
+	 * @return <tt>true</tt> if no class can reach itself through fields
+	 */
+	public boolean isAcyclic() {
+		return cycles.isEmpty();
+	}
+
+	/**
+	 * Returns the classes whose metadata couldn't be built, in discovery order.
+	 *
+	 * @return read-only map: key=<class>, value=<cause of the failure>
+	 */
+	public Map<Class<?>, Throwable> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * Tells whether metadata were obtained for every class reached.
+	 *
+	 * @return <tt>true</tt> if no class failed
+	 */
+	public boolean isSuccessful() {
+		return failures.isEmpty();
+	}
+
+	void addRoot(final Class<?> clz) {
+		roots.add(clz);
+	}
+
+	void addNode(final Class<?> clz, final ClassMetadata classMetadata, final Set<Class<?>> referredClasses) {
+		nodes.put(clz, classMetadata);
+		references.put(clz, referredClasses);
+	}
+
+	void addFailure(final Class<?> clz, final Throwable cause) {
+		failures.put(clz, cause);
+	}
+
+	/**
+	 * Completes the graph once every node was added: drops references to classes that failed,
+	 * then finds cycles as the strongly connected components of the graph (Tarjan's algorithm,
+	 * without recursion so that deep graphs don't overflow the stack).
+	 */
+	void complete() {
+		for (Set<Class<?>> referredClasses : references.values()) {
+			referredClasses.retainAll(nodes.keySet());
+		}
+
+		List<Set<Class<?>>> result = new ArrayList<Set<Class<?>>>();
+		Map<Class<?>, int[]> visited = new IdentityHashMap<Class<?>, int[]>();  // value=<index, lowlink>
+		Deque<Class<?>> component = new ArrayDeque<Class<?>>();
+		Set<Class<?>> onComponent = Collections.newSetFromMap(new IdentityHashMap<Class<?>, Boolean>());
+		Deque<Class<?>> path = new ArrayDeque<Class<?>>();
+		Deque<Iterator<Class<?>>> pending = new ArrayDeque<Iterator<Class<?>>>();
+		int index = 0;
+
+		for (Class<?> start : nodes.keySet()) {
+			if (visited.containsKey(start)) continue;
+
+			visited.put(start, new int[] {index, index++});
+			component.push(start);
+			onComponent.add(start);
+			path.push(start);
+			pending.push(references.get(start).iterator());
+			while (!path.isEmpty()) {
+				Class<?> clz = path.peek();
+				Iterator<Class<?>> referred = pending.peek();
+				if (referred.hasNext()) {
+					Class<?> next = referred.next();
+					int[] nextState = visited.get(next);
+					if (nextState == null) {
+						visited.put(next, new int[] {index, index++});
+						component.push(next);
+						onComponent.add(next);
+						path.push(next);
+						pending.push(references.get(next).iterator());
+					} else if (onComponent.contains(next)) {
+						int[] state = visited.get(clz);
+						state[1] = Math.min(state[1], nextState[0]);
+					}
+					continue;
+				}
+
+				// Every reference followed: close the component rooted here, if any
+				path.pop();
+				pending.pop();
+				int[] state = visited.get(clz);
+				if (!path.isEmpty()) {
+					int[] parentState = visited.get(path.peek());
+					parentState[1] = Math.min(parentState[1], state[1]);
+				}
+				if (state[1] != state[0]) continue;
+
+				Set<Class<?>> members = new LinkedHashSet<Class<?>>();
+				Class<?> member;
+				do {
+					member = component.pop();
+					onComponent.remove(member);
+					members.add(member);
+				} while (member != clz);
+				if (members.size() > 1 || references.get(clz).contains(clz)) result.add(Collections.unmodifiableSet(members));
+			}
+		}
+		this.cycles = Collections.unmodifiableList(result);
+	}
+
+	@Override
+	public String toString() {
+		return "MetadataGraph [roots=" + roots + ", nodes=" + nodes.size() + ", cycles=" + cycles.size()
+			+ ", failures=" + failures.keySet() + "]";
+	}
+}
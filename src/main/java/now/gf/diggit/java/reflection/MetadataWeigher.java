@@ -0,0 +1,48 @@
+package now.gf.diggit.java.reflection;
+
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+import now.gf.diggit.java.reflection.model.FieldMetadata;
+import now.gf.diggit.utils.EvictionPolicy;
+import now.gf.diggit.utils.IWeigher;
+
+/**
+ * <p>Weighs class metadata by their size: one unit for the class, plus one for each
+ * field and for each annotation of the class or of its fields. Inherited fields are
+ * not counted, since they belong to the cached metadata of the superclass.</p>
+ *
+ * <p>Weighing computes the field and annotation sections of the metadata, which are
+ * otherwise computed on first access.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassIntrospector#ClassIntrospector(EvictionPolicy)
+ * @see SharedMetadataCache#SharedMetadataCache(EvictionPolicy)
+ */
+public final class MetadataWeigher implements IWeigher<Object, ClassMetadata> {
+	private static final MetadataWeigher instance = new MetadataWeigher();
+
+	private MetadataWeigher() {}
+
+	public static MetadataWeigher instance() {
+		return instance;
+	}
+
+	/**
+	 * Returns a policy bounding the total weight of metadata cached by an introspector.
+	 * Pass {@link #instance()} to {@link EvictionPolicy#maxWeight(long, IWeigher)} to bound
+	 * a {@link SharedMetadataCache}.
+	 *
+	 * @param maxWeight maximum total weight: must be at least 1
+	 * @return eviction policy, to which frequency admission can be added
+	 */
+	public static EvictionPolicy<String, ClassMetadata> maxWeight(final long maxWeight) {
+		return EvictionPolicy.maxWeight(maxWeight, instance);
+	}
+
+	public int weigh(final Object key, final ClassMetadata classMetadata) {
+		int weight = 1 + classMetadata.getFieldCount() + classMetadata.getAnnotations().size();
+		for (FieldMetadata field : classMetadata.getFields()) {
+			weight += field.getAnnotations().size();
+		}
+		return weight;
+	}
+}
@@ -0,0 +1,155 @@
+package now.gf.diggit.java.reflection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+import now.gf.diggit.utils.ClassValueCache;
+import now.gf.diggit.utils.EvictionPolicy;
+
+/**
+ * <p>Second-level metadata cache, shared among {@link ClassIntrospector} instances: metadata
+ * missing from the cache of an introspector are looked up here before being built, so that
+ * metadata of a given class are built and held once, however many introspectors ask for them.</p>
+ *
+ * <p>Entries are keyed by class identity, so that same-named classes loaded by different
+ * class loaders don't collide, and held by a {@link ClassValueCache}: hits read a per-class
+ * slot, and the metadata of classes whose class loader is discarded don't keep it from being
+ * unloaded. Metadata are linked to the metadata of their superclass held by this cache,
+ * unless it is a JDK class.
+ * The cache is thread-safe; {@link #instance()} returns a JVM-wide one.</p>
+ *
+ * <p>Since they are shared, metadata are {@link ClassMetadata#freeze() frozen} before being
+ * cached: every section is computed when they are built, and they can't be changed afterwards.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassIntrospector#setSharedCache(SharedMetadataCache)
+ */
+public final class SharedMetadataCache {
+	private static final int DEFAULT_MAX_SIZE = 1000;
+	private static final SharedMetadataCache instance = new SharedMetadataCache(EvictionPolicy.<Class<?>, ClassMetadata>maxSize(DEFAULT_MAX_SIZE));
+
+	private final ClassValueCache<ClassMetadata> cache;
+
+	/**
+	 * Builds a new shared cache with the specified eviction policy.
+	 *
+	 * @param evictionPolicy eviction policy, possibly weighing metadata by a {@link MetadataWeigher}
+	 */
+	public SharedMetadataCache(final EvictionPolicy<Class<?>, ClassMetadata> evictionPolicy) {
+		this.cache = new ClassValueCache<ClassMetadata>(evictionPolicy);
+	}
+
+	/**
+	 * Returns the JVM-wide shared cache, holding up to 1000 class metadata.
+	 *
+	 * @return JVM-wide shared cache
+	 */
+	public static SharedMetadataCache instance() {
+		return instance;
+	}
+
+	public EvictionPolicy<Class<?>, ClassMetadata> getEvictionPolicy() {
+		return cache.getEvictionPolicy();
+	}
+
+	/**
+	 * Returns the number of class metadata currently cached.
+	 *
+	 * @return cache size
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Returns the total weight of class metadata currently cached.
+	 *
+	 * @return cache weight, the cache size if the eviction policy doesn't weigh metadata
+	 */
+	public long getWeight() {
+		return cache.getWeight();
+	}
+
+	/**
+	 * Returns metadata of a class, building them if they are not cached yet. Metadata of
+	 * a given class are built at most once, even when several threads ask for them at the same time.
+	 *
+	 * @param clz class to analyze
+	 * @param metricsListener listener timing the build, null for none
+	 * @return metadata information for the specified class
+	 * @throws ClassNotFoundException if the specified class is not found in classpath
+	 */
+	public ClassMetadata get(final Class<?> clz, final IMetricsListener metricsListener) throws ClassNotFoundException {
+		if (clz == null) return null;
+
+		ClassMetadata classMetadata = cache.get(clz);
+		if (classMetadata != null) return classMetadata;
+		try {
+			return cache.get(clz, new Callable<ClassMetadata>() {
+				public ClassMetadata call() throws ClassNotFoundException {
+					ClassMetadata classMetadata = new ClassMetadata(clz, metricsListener);
+					Class<?> superclass = clz.getSuperclass();
+					if (superclass != null && superclass.getClassLoader() != null) {  // Not a JDK class
+						try {
+							classMetadata.setSuperclassMetadata(get(superclass, metricsListener));
+						} catch (ClassNotFoundException e) {}
+					}
+					return classMetadata.freeze();
+				}
+			});
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ClassNotFoundException) throw (ClassNotFoundException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Returns cached metadata of a class, without building them.
+	 *
+	 * @param clz class to look for
+	 * @return cached metadata, null if not cached
+	 */
+	public ClassMetadata getIfPresent(final Class<?> clz) {
+		return clz == null ? null : cache.get(clz);
+	}
+
+	/**
+	 * Drops cached metadata of the classes with the specified names, along with cached metadata
+	 * of their subclasses.
+	 *
+	 * @param classNames binary names of the classes whose metadata are stale
+	 * @return dropped metadata
+	 * @see ClassIntrospector#invalidate(Collection)
+	 */
+	public List<ClassMetadata> invalidate(final Collection<String> classNames) {
+		if (classNames == null || classNames.isEmpty()) return Collections.emptyList();
+
+		List<ClassMetadata> result = new ArrayList<ClassMetadata>();
+		for (Map.Entry<Class<?>, ClassMetadata> entry : new ArrayList<Map.Entry<Class<?>, ClassMetadata>>(cache.entrySet())) {
+			for (Class<?> clz = entry.getKey(); clz != null; clz = clz.getSuperclass()) {
+				if (classNames.contains(clz.getName())) {
+					cache.remove(entry.getKey());
+					result.add(entry.getValue());
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Drops every cached metadata.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+}
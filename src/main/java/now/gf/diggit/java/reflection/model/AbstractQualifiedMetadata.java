@@ -19,11 +19,34 @@ abstract class AbstractQualifiedMetadata implements Serializable{
 		if (clz == null) throw new IllegalArgumentException("Unspecified class");
 
 		this.clz = clz;
-		this.qualifiedName = clz.getCanonicalName();
-		this.packageName = clz.getPackage() == null ? null : clz.getPackage().getName() ;
-		this.name = clz.getSimpleName();
+		this.qualifiedName = intern(clz.getCanonicalName());
+		this.packageName = clz.getPackage() == null ? null : intern(clz.getPackage().getName());
+		this.name = intern(clz.getSimpleName());
 	}
 	
+	/**
+	 * Builds metadata for a type known by name only, i.e. a type that hasn't been loaded.
+	 */
+	AbstractQualifiedMetadata(final String qualifiedName, final String packageName, final String name) {
+		if (qualifiedName == null) throw new IllegalArgumentException("Unspecified class name");
+
+		this.qualifiedName = intern(qualifiedName);
+		this.packageName = intern(packageName);
+		this.name = intern(name);
+	}
+	
+	/**
+	 * Shares names among metadata, e.g. among every occurrence of the same annotation.
+	 */
+	static String intern(final String name) {
+		return name == null ? null : name.intern();
+	}
+	
+	/**
+	 * Returns the class these metadata describe.
+	 * 
+	 * @return described class, null if metadata were read from a class file without loading the class
+	 */
 	public Class<?> getClz() {
 		return clz;
 	}
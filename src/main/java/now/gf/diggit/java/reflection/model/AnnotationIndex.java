@@ -0,0 +1,46 @@
+package now.gf.diggit.java.reflection.model;
+
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * <p>Indexes annotation metadata by annotation class, so that looking an annotation up
+ * costs a single identity hash lookup. Annotation metadata read from a class file, which
+ * have no class, are indexed by qualified name and looked up that way only when present.</p>
+ *
+ * @author Giorgio Ferrara
+ */
+class AnnotationIndex implements Serializable {
+	private static final long serialVersionUID = -2417763530512178641L;
+
+	private final Map<Class<?>, AnnotationMetadata> byClass;
+	private Map<String, AnnotationMetadata> byName;  // Null as long as every annotation has a class
+
+	AnnotationIndex() {
+		this.byClass = new IdentityHashMap<Class<?>, AnnotationMetadata>(4);
+	}
+
+	void add(final AnnotationMetadata annotation) {
+		if (annotation.getClz() != null) {
+			byClass.put(annotation.getClz(), annotation);
+		} else {
+			if (byName == null) byName = new HashMap<String, AnnotationMetadata>(4);
+			byName.put(annotation.getQualifiedName(), annotation);
+		}
+	}
+
+	void measure(final MetadataFootprint footprint) {
+		footprint.addOwned(this);
+		footprint.addHashTable(byClass, byClass.size());
+		if (byName != null) footprint.addHashTable(byName, byName.size());
+	}
+
+	AnnotationMetadata get(final Class<? extends Annotation> clzAnnotation) {
+		AnnotationMetadata annotation = byClass.get(clzAnnotation);
+		if (annotation == null && byName != null) annotation = byName.get(clzAnnotation.getCanonicalName());
+		return annotation;
+	}
+}
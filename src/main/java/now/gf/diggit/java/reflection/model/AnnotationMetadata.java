@@ -2,9 +2,13 @@ package now.gf.diggit.java.reflection.model;
 
 
 import java.lang.annotation.Annotation;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import now.gf.diggit.java.classfile.ClassFileAnnotation;
+import now.gf.diggit.java.classfile.ClassFileReader;
+
 import org.apache.commons.lang.StringUtils;
 
 /**
@@ -17,25 +21,46 @@ public class AnnotationMetadata extends AbstractQualifiedMetadata {
 
 	private ClassMetadata classMetadata;
 	private FieldMetadata fieldMetadata;
-	private Map<String, Object> attributesMap;
+	private Map<String, Object> attributesMap;  // Shared empty map as long as there are no attributes, read-only once frozen
+	private volatile boolean frozen;
 	
 	AnnotationMetadata(final ClassMetadata classMetadata, final Class<? extends Annotation> annotation) {
 		super(annotation);
 		this.classMetadata = classMetadata;
-		this.attributesMap = new HashMap<String, Object>();
+		this.attributesMap = Collections.emptyMap();
 	}
 	
 	AnnotationMetadata(final FieldMetadata fieldMetadata, final Class<? extends Annotation> annotation) {
 		super(annotation);
 		this.fieldMetadata = fieldMetadata;
-		this.attributesMap = new HashMap<String, Object>();
+		this.attributesMap = Collections.emptyMap();
+	}
+	
+	AnnotationMetadata(final ClassMetadata classMetadata, final ClassFileAnnotation annotation, final ClassFileReader classFile) {
+		this(annotation, classFile.toCanonicalClassName(annotation.getTypeName()));
+		this.classMetadata = classMetadata;
+	}
+	
+	AnnotationMetadata(final FieldMetadata fieldMetadata, final ClassFileAnnotation annotation, final ClassFileReader classFile) {
+		this(annotation, classFile.toCanonicalClassName(annotation.getTypeName()));
+		this.fieldMetadata = fieldMetadata;
 	}
 	
+	private AnnotationMetadata(final ClassFileAnnotation annotation, final String qualifiedName) {
+		super(qualifiedName, packageOf(annotation.getTypeName()), qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1));
+		setAttributesMap(annotation.getAttributesMap().isEmpty() ? null : new HashMap<String, Object>(annotation.getAttributesMap()));
+	}
 	
 	public Object getParentMetadata() {
 		return classMetadata == null ? fieldMetadata : classMetadata;
 	}
 	
+	/**
+	 * Returns annotation attributes. The map is read-only when there are no attributes
+	 * or once the owning metadata are frozen: use {@link #addAttribute(String, Object)} to add attributes.
+	 * 
+	 * @return non-null map of attributes (key=<annotation attribute name>, value=<annotation attribute value>)
+	 */
 	public Map<String, Object> getAttributesMap() {
 		return attributesMap;
 	}
@@ -45,13 +70,83 @@ public class AnnotationMetadata extends AbstractQualifiedMetadata {
 		return attributesMap.get(name);
 	}
 	
+	/**
+	 * Adds an attribute.
+	 * 
+	 * @param name attribute name
+	 * @param value attribute value
+	 * @throws IllegalStateException if the owning metadata are frozen
+	 */
 	public void addAttribute(final String name, final Object value) {
 		if (StringUtils.isBlank(name)) throw new IllegalArgumentException("Unspecified attribute name");
+		checkNotFrozen();
+		if (attributesMap.isEmpty()) attributesMap = new HashMap<String, Object>(4);
 		attributesMap.put(name, value);
 	}
 	
+	/**
+	 * Replaces attributes.
+	 * 
+	 * @param attributesMap attributes, null for none
+	 * @throws IllegalStateException if the owning metadata are frozen
+	 */
 	public void setAttributesMap(final Map<String, Object> attributesMap) {
-		if (attributesMap == null) this.attributesMap.clear(); else this.attributesMap = attributesMap;
+		checkNotFrozen();
+		this.attributesMap = attributesMap == null || attributesMap.isEmpty() ? Collections.<String, Object>emptyMap() : attributesMap;
+	}
+
+	/**
+	 * Makes attributes read-only.
+	 * 
+	 * @see ClassMetadata#freeze()
+	 */
+	void freeze() {
+		if (frozen) return;
+		if (!attributesMap.isEmpty()) attributesMap = Collections.unmodifiableMap(attributesMap);
+		frozen = true;
+	}
+	
+	public boolean isFrozen() {
+		return frozen;
+	}
+	
+	private void checkNotFrozen() {
+		if (frozen) throw new IllegalStateException("Annotation " + qualifiedName + " is frozen");
+	}
+
+	/**
+	 * Walks these metadata with the specified visitor: this annotation, then its attributes.
+	 *
+	 * @param visitor metadata visitor
+	 * @see ClassMetadata#accept(IMetadataVisitor)
+	 */
+	public void accept(final IMetadataVisitor visitor) {
+		if (visitor == null) throw new IllegalArgumentException("Unspecified visitor");
+
+		visitor.visitAnnotation(this);
+		for (Map.Entry<String, Object> attribute : attributesMap.entrySet()) {
+			visitor.visitAttribute(attribute.getKey(), attribute.getValue());
+		}
+		visitor.endAnnotation(this);
+	}
+
+	/**
+	 * Accounts the structures owned by these metadata, along with attribute values.
+	 */
+	void measure(final MetadataFootprint footprint) {
+		footprint.addName(qualifiedName);
+		footprint.addName(packageName);
+		footprint.addName(name);
+		footprint.addHashTable(attributesMap, attributesMap.size());
+		for (Map.Entry<String, Object> attribute : attributesMap.entrySet()) {
+			footprint.addName(attribute.getKey());
+			footprint.addValue(attribute.getValue());
+		}
+	}
+
+	private static String packageOf(final String binaryName) {
+		int index = binaryName.lastIndexOf('.');
+		return index < 0 ? null : binaryName.substring(0, index);
 	}
 
 	@Override
@@ -61,8 +156,8 @@ public class AnnotationMetadata extends AbstractQualifiedMetadata {
 			.append('\n').append("package=").append(packageName)
 			.append('\n').append("name=").append(name);
 		if (!attributesMap.isEmpty()) {
-			for (String key : attributesMap.keySet()) {
-				buffer.append('\n').append(key).append("=").append(attributesMap.get(key).toString());
+			for (Map.Entry<String, Object> attribute : attributesMap.entrySet()) {
+				buffer.append('\n').append(attribute.getKey()).append("=").append(attribute.getValue());
 			}
 		}
 		buffer.append('\n').append(']');
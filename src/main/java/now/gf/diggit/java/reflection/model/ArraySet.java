@@ -0,0 +1,91 @@
+package now.gf.diggit.java.reflection.model;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Immutable set backed by an array, for the few annotations of a class or a field:
+ * it takes a single array, and can be read by index with no iterator. Lookups scan
+ * the array, which is faster than hashing for a handful of elements.</p>
+ *
+ * @author Giorgio Ferrara
+ */
+final class ArraySet <E> extends AbstractSet<E> implements Serializable {
+	private static final long serialVersionUID = 6125370744398417235L;
+	private static final ArraySet<Object> EMPTY = new ArraySet<Object>(new Object[0]);
+
+	private final Object[] elements;
+
+	private ArraySet(final Object[] elements) {
+		this.elements = elements;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <E> ArraySet<E> empty() {
+		return (ArraySet<E>) EMPTY;
+	}
+
+	/**
+	 * Returns a set made of the elements of this set followed by the specified element,
+	 * this set if it already contains the element.
+	 */
+	ArraySet<E> with(final E element) {
+		if (contains(element)) return this;
+		Object[] result = Arrays.copyOf(elements, elements.length + 1);
+		result[elements.length] = element;
+		return new ArraySet<E>(result);
+	}
+
+	@SuppressWarnings("unchecked")
+	E get(final int index) {
+		return (E) elements[index];
+	}
+
+	/**
+	 * Returns the backing array, to measure its footprint.
+	 */
+	Object[] elements() {
+		return elements;
+	}
+
+	@Override
+	public int size() {
+		return elements.length;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		for (Object element : elements) {
+			if (element.equals(o)) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			private int index;
+
+			public boolean hasNext() {
+				return index < elements.length;
+			}
+
+			@SuppressWarnings("unchecked")
+			public E next() {
+				if (index >= elements.length) throw new NoSuchElementException();
+				return (E) elements[index++];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private Object readResolve() {
+		return elements.length == 0 ? EMPTY : this;
+	}
+}
@@ -0,0 +1,184 @@
+package now.gf.diggit.java.reflection.model;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Matches fields to their getter and setter methods, following JavaBeans naming rules
+ * (<tt>getX</tt>, <tt>isX</tt> for <tt>boolean</tt>, <tt>setX</tt>), in a single pass over
+ * the public methods of a class.</p>
+ *
+ * <p>Results are the same as the read and write methods of the property descriptors
+ * reported by <tt>java.beans.Introspector</tt> for classes described by naming rules only, 
+ * without building a whole <tt>BeanInfo</tt> and without filling the JDK global 
+ * <tt>BeanInfo</tt> cache. Classes for which an explicit <tt>BeanInfo</tt> class can be 
+ * found, for themselves or one of their superclasses, are rather resolved through 
+ * <tt>Introspector</tt>, so that their <tt>BeanInfo</tt> is honoured. Whether a class has 
+ * an explicit <tt>BeanInfo</tt> is checked once per class.</p>
+ *
+ * @author Giorgio Ferrara
+ */
+final class BeanAccessorResolver {
+	// Whether a class or one of its superclasses has an explicit BeanInfo, computed once per class:
+	// negative results are cached too, so the failing class lookups behind them are never repeated
+	private static final ClassValue<Boolean> explicitBeanInfo = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(final Class<?> type) {
+			Class<?> superclass = type.getSuperclass();
+			return hasBeanInfoClass(type) || (superclass != null && superclass != Object.class && get(superclass));
+		}
+	};
+
+	private BeanAccessorResolver() {}
+
+	/**
+	 * Sets getter and setter method names of the specified fields of a class.
+	 *
+	 * @param clz class declaring or inheriting the methods
+	 * @param fields fields to resolve accessors for
+	 */
+	static void resolve(final Class<?> clz, final Collection<FieldMetadata> fields) {
+		if (fields.isEmpty()) return;
+		if (explicitBeanInfo.get(clz) && resolveByIntrospector(clz, fields)) return;
+
+		Map<String, Accessors> accessorsMap = new HashMap<String, Accessors>(fields.size() * 4 / 3 + 1);  // key=<property name>
+		for (FieldMetadata field : fields) {
+			accessorsMap.put(field.getName(), new Accessors());
+		}
+
+		for (Method method : clz.getMethods()) {
+			if (Modifier.isStatic(method.getModifiers()) || method.isBridge()) continue;
+			String methodName = method.getName();
+			int prefixLength = methodName.startsWith("get") || methodName.startsWith("set") ? 3 : methodName.startsWith("is") ? 2 : 0;
+			if (prefixLength == 0 || methodName.length() == prefixLength) continue;
+
+			Accessors accessors = accessorsMap.get(decapitalize(methodName.substring(prefixLength)));
+			if (accessors == null) continue;
+
+			Class<?>[] parameterTypes = method.getParameterTypes();
+			Class<?> returnType = method.getReturnType();
+			if (methodName.charAt(0) == 's') {
+				if (parameterTypes.length == 1 && returnType == void.class) accessors.addSetter(method);
+			} else if (parameterTypes.length == 0) {
+				if (prefixLength == 2) {
+					if (returnType == boolean.class) accessors.isGetter = method;
+				} else if (returnType != void.class) {
+					accessors.getGetter = method;
+				}
+			}
+		}
+
+		for (FieldMetadata field : fields) {
+			Accessors accessors = accessorsMap.get(field.getName());
+			Method getter = accessors.getGetter();
+			Method setter = accessors.getSetter(getter);
+			if (getter != null) field.setGetterMethodName(getter.getName());
+			if (setter != null) field.setSetterMethodName(setter.getName());
+		}
+	}
+
+	/**
+	 * Sets accessor method names as reported by the <tt>BeanInfo</tt> of a class.
+	 * 
+	 * @return <tt>false</tt> if the class can't be introspected
+	 */
+	private static boolean resolveByIntrospector(final Class<?> clz, final Collection<FieldMetadata> fields) {
+		PropertyDescriptor[] propertyDescriptors;
+		try {
+			propertyDescriptors = Introspector.getBeanInfo(clz).getPropertyDescriptors();
+		} catch (IntrospectionException e) {
+			return false;
+		}
+
+		Map<String, PropertyDescriptor> descriptorMap = new HashMap<String, PropertyDescriptor>(propertyDescriptors.length * 4 / 3 + 1);  // key=<property name>
+		for (PropertyDescriptor propertyDescriptor : propertyDescriptors) {
+			descriptorMap.put(propertyDescriptor.getName(), propertyDescriptor);
+		}
+		for (FieldMetadata field : fields) {
+			PropertyDescriptor propertyDescriptor = descriptorMap.get(field.getName());
+			if (propertyDescriptor == null) continue;
+			if (propertyDescriptor.getReadMethod() != null) field.setGetterMethodName(propertyDescriptor.getReadMethod().getName());
+			if (propertyDescriptor.getWriteMethod() != null) field.setSetterMethodName(propertyDescriptor.getWriteMethod().getName());
+		}
+		return true;
+	}
+
+	/**
+	 * Tells whether an explicit <tt>BeanInfo</tt> class can be found for a class, where 
+	 * <tt>Introspector</tt> looks for it: next to the class, then along the <tt>BeanInfo</tt> search path.
+	 */
+	private static boolean hasBeanInfoClass(final Class<?> clz) {
+		String beanInfoName = clz.getName() + "BeanInfo";
+		if (isLoadable(beanInfoName, clz.getClassLoader())) return true;
+		String simpleName = beanInfoName.substring(beanInfoName.lastIndexOf('.') + 1);
+		for (String searchPackage : Introspector.getBeanInfoSearchPath()) {
+			if (isLoadable(searchPackage + '.' + simpleName, clz.getClassLoader())) return true;
+		}
+		return false;
+	}
+
+	private static boolean isLoadable(final String className, final ClassLoader classLoader) {
+		try {
+			Class.forName(className, false, classLoader);
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Turns the capitalized part of an accessor name into a property name, the way
+	 * <tt>java.beans.Introspector.decapitalize</tt> does.
+	 */
+	static String decapitalize(final String name) {
+		if (name.length() > 1 && Character.isUpperCase(name.charAt(1)) && Character.isUpperCase(name.charAt(0))) return name;
+		char[] chars = name.toCharArray();
+		chars[0] = Character.toLowerCase(chars[0]);
+		return new String(chars);
+	}
+
+	/**
+	 * Candidate accessor methods of a property.
+	 */
+	private static final class Accessors {
+		private Method getGetter;
+		private Method isGetter;
+		private Method setter;
+		private Method[] moreSetters;  // Overloaded setters, if any
+
+		Method getGetter() {
+			return isGetter != null ? isGetter : getGetter;
+		}
+
+		Method getSetter(final Method getter) {
+			if (getter == null) return setter;
+			Class<?> type = getter.getReturnType();
+			if (setter != null && setter.getParameterTypes()[0] == type) return setter;
+			if (moreSetters != null) {
+				for (Method method : moreSetters) {
+					if (method.getParameterTypes()[0] == type) return method;
+				}
+			}
+			return null;
+		}
+
+		void addSetter(final Method method) {
+			if (setter == null) {
+				setter = method;
+			} else {
+				Method[] setters = moreSetters == null ? new Method[1] : new Method[moreSetters.length + 1];
+				if (moreSetters != null) System.arraycopy(moreSetters, 0, setters, 0, moreSetters.length);
+				setters[setters.length - 1] = method;
+				moreSetters = setters;
+			}
+		}
+	}
+}
@@ -1,117 +1,615 @@
 package now.gf.diggit.java.reflection.model;
 
-import java.beans.BeanInfo;
-import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.lang.annotation.Annotation;
-import java.lang.reflect.Method;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import now.gf.diggit.java.classfile.ClassFileAnnotation;
+import now.gf.diggit.java.classfile.ClassFileField;
+import now.gf.diggit.java.classfile.ClassFileReader;
 import now.gf.diggit.java.reflection.AnnotationHelper;
-
-import org.apache.bcel.Repository;
-import org.apache.bcel.classfile.Field;
-import org.apache.bcel.classfile.JavaClass;
-import org.apache.commons.lang.StringUtils;
+import now.gf.diggit.java.reflection.BuildPhase;
+import now.gf.diggit.java.reflection.IAnnotationListener;
+import now.gf.diggit.java.reflection.IMetricsListener;
 
 /**
+ * <p>Metadata of a class. Fields are kept in an array, in declaration order, and annotations 
+ * in an immutable array-backed set: both can be read by index, with no iterator.</p>
+ * 
+ * <p>Once {@link #freeze() frozen}, metadata are immutable and every section is computed, 
+ * so that they can be shared among threads and read with no locking and no defensive copy.</p>
  * 
  * @author Giorgio Ferrara
  *
  */
 public class ClassMetadata extends AbstractQualifiedMetadata {
 	private static final long serialVersionUID = 4846394635597769806L;
+	private static final FieldMetadata[] NO_FIELDS = new FieldMetadata[0];
 	
-	private Set<FieldMetadata> fields;  // Non-null set of fields
-	private Set<AnnotationMetadata> annotations;   // Non-null set of annotations
+	private transient Set<FieldMetadata> fields;  // Read-only view over fieldArray, built on first request
+	private ArraySet<AnnotationMetadata> annotations;   // Non-null set of annotations, shared empty set if none
+	private FieldMetadata[] fieldArray;  // Fields by ordinal
+	private Map<String, FieldMetadata> fieldIndex;  // key=<field name>, value=<field metadata>
+	private AnnotationIndex annotationIndex;  // Null as long as there are no annotations
+	private ClassMetadata superclassMetadata;  // Null if unknown or if the superclass is a JDK class, e.g. Object
+	private transient volatile FieldMetadata[] inheritedFieldArray;  // Inherited fields bound to this class, null until requested
+	private volatile boolean fieldsLoaded;  // Sections computed so far: always true unless built from a class
+	private volatile boolean accessorsLoaded;
+	private volatile boolean annotationsLoaded;
+	private volatile boolean frozen;
+	private transient IMetricsListener metricsListener;  // Null if sections are not timed
+	
+	/**
+	 * Builds class metadata for a loaded class. Names are available right away, while fields, 
+	 * getter and setter methods, class annotations and field annotations are each computed on 
+	 * first access, so that a caller pays only for the sections it uses. Sections are computed 
+	 * at most once, and can be safely accessed by several threads.
+	 * 
+	 * <p>Fields are listed in the order they are declared in the class file; if the class file can't 
+	 * be found, or doesn't match the class, in the order reported by reflection.
+	 * 
+	 * @param clz class to describe
+	 */
+	public ClassMetadata(final Class<?> clz) {
+		this(clz, null);
+	}
 	
-	public ClassMetadata(final Class<?> clz) throws ClassNotFoundException {
+	/**
+	 * Builds class metadata for a loaded class, reporting the time spent building each section.
+	 * 
+	 * @param clz class to describe
+	 * @param metricsListener listener notified as each section is built, null for none
+	 * @see #ClassMetadata(Class)
+	 */
+	public ClassMetadata(final Class<?> clz, final IMetricsListener metricsListener) {
 		super(clz);
+		this.metricsListener = metricsListener;
+	}
+	
+	/**
+	 * Builds class metadata straight from a class file, without loading the class.
+	 * Compared to metadata built from a loaded class:
+	 * <ul>
+	 * <li>{@link #getClz()} returns null;</li>
+	 * <li>getter and setter method names of fields are not resolved;</li>
+	 * <li>every runtime-visible annotation is reported, regardless of registered annotation listeners,
+	 * with the attribute values explicitly set in the class file;</li>
+	 * <li>only JDK field types are recognized as collections.</li>
+	 * </ul>
+	 * 
+	 * @param classFile reader over the class file
+	 */
+	public ClassMetadata(final ClassFileReader classFile) {
+		super(classFile.getCanonicalName() == null ? classFile.getClassName() : classFile.getCanonicalName(), 
+			classFile.getPackageName(), classFile.getSimpleName());
+		this.fieldsLoaded = this.accessorsLoaded = this.annotationsLoaded = true;
 		
-		// In order to get fields in the exact order they are declared, we use BCEL library for class file reading
-		// (Java introspection can't ensure this)
-		JavaClass javaClass = Repository.lookupClass(qualifiedName);
-		if (javaClass == null) throw new ClassNotFoundException(qualifiedName);
-
 		// Fields
-		this.fields = new LinkedHashSet<FieldMetadata>();
-		// Get fields in the order they are declared
-		Field[] clzFields = javaClass.getFields();
-		// Get info on getter and setter methods
-		Map<String, Method> getterMap = new HashMap<String, Method>(), setterMap = new HashMap<String, Method>();
-		BeanInfo beanInfo;
-		try {
-			beanInfo = Introspector.getBeanInfo(clz);
-			if (beanInfo != null) {
-				PropertyDescriptor[] propertyDescriptors = beanInfo.getPropertyDescriptors();
-				for (PropertyDescriptor propertyDescriptor : propertyDescriptors) {
-					getterMap.put(propertyDescriptor.getName(), propertyDescriptor.getReadMethod());
-					setterMap.put(propertyDescriptor.getName(), propertyDescriptor.getWriteMethod());
-				}
-			}
-		} catch (IntrospectionException e) {}
-		// Save info into metadata
-		try {
-			for (Field field : clzFields) {
-				String name = field.getName();
-				FieldMetadata fieldMetadata = new FieldMetadata(this, clz.getDeclaredField(name));
-				if (getterMap.get(name) != null) fieldMetadata.setGetterMethodName(getterMap.get(name).getName());
-				if (setterMap.get(name) != null) fieldMetadata.setSetterMethodName(setterMap.get(name).getName());
-				fields.add(fieldMetadata);
-			}
-		} catch (NoSuchFieldException e) {}
+		List<ClassFileField> clzFields = classFile.getFields(true);
+		List<FieldMetadata> fields = new ArrayList<FieldMetadata>(clzFields.size());
+		for (ClassFileField field : clzFields) {
+			fields.add(new FieldMetadata(this, field, classFile));
+		}
+		initFields(fields);
 		
 		// Annotations
-		this.annotations = new HashSet<AnnotationMetadata>();
-		if (AnnotationHelper.instance().isAnnotationAware()) {
-			for (Annotation annotation : clz.getAnnotations()) {
-				if (AnnotationHelper.instance().isAnnotationManaged(annotation)) {
-					AnnotationMetadata annotationMetadata = new AnnotationMetadata(this, annotation.annotationType());
-					annotationMetadata.setAttributesMap(AnnotationHelper.instance().getAttributesMap(annotation));
-					this.annotations.add(annotationMetadata);
-				}
-			}
+		initAnnotations(Collections.<AnnotationMetadata>emptySet());
+		for (ClassFileAnnotation annotation : classFile.getAnnotations()) {
+			addAnnotation(new AnnotationMetadata(this, annotation, classFile));
 		}
 	}
 	
+	/**
+	 * Builds class metadata out of already known parts, e.g. when restoring a snapshot.
+	 */
+	ClassMetadata(final Class<?> clz, final Set<FieldMetadata> fields, final Set<AnnotationMetadata> annotations) {
+		super(clz);
+		this.fieldsLoaded = this.accessorsLoaded = this.annotationsLoaded = true;
+		initFields(fields);
+		initAnnotations(annotations);
+	}
+	
+	/**
+	 * Returns fields in the order they are declared. The returned set is a read-only view:
+	 * use {@link #addField(FieldMetadata)} and {@link #setFields(Set)} to change fields, 
+	 * {@link #getFieldCount()} and {@link #getField(int)} to read them with no iterator.
+	 * 
+	 * @return non-null set of fields
+	 */
 	public Set<FieldMetadata> getFields() {
-		return fields;
+		loadFields();
+		Set<FieldMetadata> result = fields;
+		if (result == null) fields = result = new FieldSet();
+		return result;
+	}
+	
+	/**
+	 * Returns the number of fields.
+	 * 
+	 * @return number of fields
+	 */
+	public int getFieldCount() {
+		loadFields();
+		return fieldArray.length;
+	}
+	
+	/**
+	 * Returns a field by its position in declaration order.
+	 * 
+	 * @param ordinal field position, starting from 0
+	 * @return field metadata
+	 * @throws IndexOutOfBoundsException if there is no such field
+	 * @see FieldMetadata#getOrdinal()
+	 */
+	public FieldMetadata getField(final int ordinal) {
+		loadFields();
+		return fieldArray[ordinal];
 	}
 	
 	public FieldMetadata getNamedField(final String fieldName) {
-		if (StringUtils.isBlank(fieldName)) return null;
-		for (FieldMetadata field : fields) {
-			if (field.getName().equals(fieldName)) return field;
+		if (fieldName == null) return null;
+		loadFields();
+		return fieldIndex.get(fieldName);
+	}
+	
+	/**
+	 * Returns metadata of the superclass, shared with every other subclass linked to it.
+	 * 
+	 * @return superclass metadata, or null if the superclass is a JDK class, e.g. <tt>Object</tt>, or wasn't linked
+	 * @see #setSuperclassMetadata(ClassMetadata)
+	 */
+	public ClassMetadata getSuperclassMetadata() {
+		return superclassMetadata;
+	}
+	
+	/**
+	 * Links these metadata to the metadata of the superclass, to be done before these metadata are 
+	 * shared among threads. Superclass fields are not copied: they are reached through the link.
+	 * 
+	 * @param superclassMetadata superclass metadata, null to unlink
+	 * @throws IllegalArgumentException if the link would make the hierarchy circular
+	 * @throws IllegalStateException if these metadata are frozen
+	 */
+	public void setSuperclassMetadata(final ClassMetadata superclassMetadata) {
+		checkNotFrozen();
+		for (ClassMetadata ancestor = superclassMetadata; ancestor != null; ancestor = ancestor.superclassMetadata) {
+			if (ancestor == this) throw new IllegalArgumentException("Circular hierarchy for class " + qualifiedName);
+		}
+		this.superclassMetadata = superclassMetadata;
+		this.inheritedFieldArray = null;
+	}
+	
+	/**
+	 * Returns inherited fields followed by declared fields, from the topmost linked superclass down 
+	 * to this class. Inherited fields are seen from this class: the type of a generic field 
+	 * reports the type arguments this class binds, e.g. <tt>List&lt;T&gt; items</tt> declared by 
+	 * <tt>Base&lt;T&gt;</tt> has <tt>String</tt> elements in <tt>Sub extends Base&lt;String&gt;</tt>. 
+	 * Metadata of inherited fields are shared with the superclass unless their type changes.
+	 * 
+	 * @return read-only list of all fields
+	 * @see #getSuperclassMetadata()
+	 */
+	public List<FieldMetadata> getAllFields() {
+		loadFields();
+		final FieldMetadata[] declaredFields = fieldArray;
+		final FieldMetadata[] inheritedFields = getInheritedFields();
+		if (inheritedFields.length == 0) return Collections.unmodifiableList(Arrays.asList(declaredFields));
+		return new AbstractList<FieldMetadata>() {
+			@Override
+			public FieldMetadata get(final int index) {
+				return index < inheritedFields.length ? inheritedFields[index] : declaredFields[index - inheritedFields.length];
+			}
+			
+			@Override
+			public int size() {
+				return inheritedFields.length + declaredFields.length;
+			}
+		};
+	}
+	
+	/**
+	 * Looks a field up among declared fields first, then up the linked superclasses, 
+	 * the same way a field name is resolved in Java code. Inherited fields are seen from this class.
+	 * 
+	 * @param fieldName field name
+	 * @return field metadata, or null if no class in the hierarchy declares such a field
+	 * @see #getAllFields()
+	 */
+	public FieldMetadata getInheritedNamedField(final String fieldName) {
+		if (fieldName == null) return null;
+		FieldMetadata field = getNamedField(fieldName);
+		if (field != null) return field;
+		
+		// Nearest superclasses come last
+		FieldMetadata[] inheritedFields = getInheritedFields();
+		for (int i = inheritedFields.length - 1; i >= 0; i--) {
+			if (inheritedFields[i].getName().equals(fieldName)) return inheritedFields[i];
 		}
 		return null;
 	}
 	
+	/**
+	 * Returns the fields of the linked superclasses bound to this class, computed on first request
+	 * and again whenever the superclasses gain fields.
+	 */
+	private FieldMetadata[] getInheritedFields() {
+		ClassMetadata superclass = superclassMetadata;
+		if (superclass == null) return NO_FIELDS;
+		
+		List<FieldMetadata> inherited = superclass.getAllFields();
+		FieldMetadata[] result = inheritedFieldArray;
+		if (result == null || result.length != inherited.size()) {
+			result = new FieldMetadata[inherited.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = inherited.get(i).bindTo(clz);
+			}
+			inheritedFieldArray = result;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns class annotations.
+	 * 
+	 * @return non-null, read-only set of annotations
+	 */
 	public Set<AnnotationMetadata> getAnnotations() {
+		loadAnnotations();
 		return annotations;
 	}
 	
+	public int getAnnotationCount() {
+		loadAnnotations();
+		return annotations.size();
+	}
+	
+	/**
+	 * Returns a class annotation by its position, to read annotations with no iterator.
+	 * 
+	 * @param index annotation position, starting from 0
+	 * @return annotation metadata
+	 * @throws IndexOutOfBoundsException if there is no such annotation
+	 */
+	public AnnotationMetadata getAnnotation(final int index) {
+		loadAnnotations();
+		return annotations.get(index);
+	}
+	
 	public AnnotationMetadata getNamedAnnotation(final Class<? extends Annotation> clzAnnotation) {
 		if (clzAnnotation == null) return null;
+		loadAnnotations();
+		AnnotationIndex index = annotationIndex;
+		return index == null ? null : index.get(clzAnnotation);
+	}
+	
+	/**
+	 * Copies the value of each instance field from a bean to another, following the order
+	 * fields are declared. Getter and setter methods are used where available.
+	 * 
+	 * @param src bean to copy from
+	 * @param dst bean to copy to
+	 * @throws IllegalStateException if metadata were read from a class file without loading the class
+	 * @see FieldMetadata#getAccessor()
+	 */
+	public void copyProperties(final Object src, final Object dst) {
+		if (src == null || dst == null) throw new IllegalArgumentException("Both source and destination beans must be specified");
+		if (clz == null) throw new IllegalStateException("Class " + qualifiedName + " is not loaded");
+		if (!clz.isInstance(src) || !clz.isInstance(dst)) throw new IllegalArgumentException("Beans must be instances of " + qualifiedName);
 		
-		String annotationQualifiedName = clzAnnotation.getCanonicalName();
-		for (AnnotationMetadata annotation : annotations) {
-			if (annotation.getQualifiedName().equals(annotationQualifiedName)) return annotation;
+		loadFields();
+		for (FieldMetadata field : fieldArray) {
+			if (Modifier.isStatic(field.getModifiers())) continue;
+			PropertyAccessor accessor = field.getAccessor();
+			if (accessor.isReadable() && accessor.isWritable()) accessor.set(dst, accessor.get(src));
 		}
-		return null;
 	}
 	
+	/**
+	 * Adds a field, unless a field with the same name exists already.
+	 * 
+	 * @param field field metadata
+	 * @throws IllegalStateException if these metadata are frozen
+	 */
 	public void addField(final FieldMetadata field) {
 		if (field == null) throw new IllegalArgumentException("Unspecified field");
-		fields.add(field);
+		loadFields();
+		synchronized (this) {
+			checkNotFrozen();
+			if (fieldIndex.containsKey(field.getName())) return;
+			
+			FieldMetadata[] fields = Arrays.copyOf(fieldArray, fieldArray.length + 1);
+			field.setOrdinal(fieldArray.length);
+			fields[fieldArray.length] = field;
+			fieldIndex.put(field.getName(), field);
+			fieldArray = fields;
+		}
 	}
 	
+	/**
+	 * Replaces fields.
+	 * 
+	 * @param fields fields metadata, in declaration order
+	 * @throws IllegalStateException if these metadata are frozen
+	 */
 	public void setFields(final Set<FieldMetadata> fields) {
-		if (fields == null) this.fields.clear(); else this.fields = fields;
+		synchronized (this) {
+			checkNotFrozen();
+			initFields(fields == null ? Collections.<FieldMetadata>emptySet() : fields);
+			fieldsLoaded = true;
+		}
+	}
+	
+	void addAnnotation(final AnnotationMetadata annotation) {
+		loadAnnotations();
+		checkNotFrozen();
+		if (annotationIndex == null) annotationIndex = new AnnotationIndex();
+		ArraySet<AnnotationMetadata> result = annotations.with(annotation);
+		if (result != annotations) annotationIndex.add(annotation);
+		annotations = result;
+	}
+	
+	/**
+	 * Makes these metadata immutable, along with their fields and annotations, once they 
+	 * are built: every section is computed first, so that readers never lock, and mutators 
+	 * throw {@link IllegalStateException} afterwards. Annotation attribute maps become read-only.
+	 * The superclass link must be set beforehand.
+	 * 
+	 * @return these metadata
+	 */
+	public ClassMetadata freeze() {
+		if (frozen) return this;
+		preload();
+		getInheritedFields();
+		synchronized (this) {
+			for (FieldMetadata field : fieldArray) {
+				field.freeze();
+			}
+			for (int i = 0; i < annotations.size(); i++) {
+				annotations.get(i).freeze();
+			}
+			frozen = true;
+		}
+		return this;
+	}
+	
+	/**
+	 * Tells whether these metadata are immutable.
+	 * 
+	 * @return <tt>true</tt> if these metadata were frozen
+	 * @see #freeze()
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+	
+	private void checkNotFrozen() {
+		if (frozen) throw new IllegalStateException("Metadata of class " + qualifiedName + " are frozen");
+	}
+	
+	IMetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+	
+	/**
+	 * Computes every section of these metadata now rather than on first access, 
+	 * e.g. to warm them on a background thread.
+	 * 
+	 * @return these metadata
+	 */
+	public ClassMetadata preload() {
+		loadAccessors();
+		loadAnnotations();
+		for (FieldMetadata field : fieldArray) {
+			field.getAnnotations();
+		}
+		return this;
+	}
+	
+	/**
+	 * Makes sure getter and setter method names of fields are known.
+	 */
+	void loadAccessors() {
+		if (accessorsLoaded) return;
+		loadFields();
+		synchronized (this) {
+			if (accessorsLoaded) return;
+			long start = metricsListener == null ? 0 : System.nanoTime();
+			BeanAccessorResolver.resolve(clz, Arrays.asList(fieldArray));
+			accessorsLoaded = true;
+			if (metricsListener != null) metricsListener.phaseCompleted(BuildPhase.BEAN_ACCESSORS, qualifiedName, System.nanoTime() - start);
+		}
+	}
+	
+	private void loadFields() {
+		if (fieldsLoaded) return;
+		synchronized (this) {
+			if (fieldsLoaded) return;
+			long start = metricsListener == null ? 0 : System.nanoTime();
+			// In order to get fields in the exact order they are declared, we read the class file
+			// (Java introspection can't ensure this)
+			List<FieldMetadata> fields = new ArrayList<FieldMetadata>();
+			try {
+				List<ClassFileField> clzFields = ClassFileReader.forClass(clz).getFields();
+				for (ClassFileField field : clzFields) {
+					fields.add(new FieldMetadata(this, clz.getDeclaredField(field.getName())));
+				}
+			} catch (ClassNotFoundException e) {
+				addDeclaredFields(fields);
+			} catch (NoSuchFieldException e) {
+				// The class file doesn't match the loaded class, e.g. it was replaced on disk
+				fields.clear();
+				addDeclaredFields(fields);
+			}
+			initFields(fields);
+			fieldsLoaded = true;
+			if (metricsListener != null) metricsListener.phaseCompleted(BuildPhase.CLASS_FILE, qualifiedName, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Adds metadata of the fields declared by the class, in the order reported by reflection.
+	 */
+	private void addDeclaredFields(final List<FieldMetadata> fields) {
+		for (Field field : clz.getDeclaredFields()) {
+			fields.add(new FieldMetadata(this, field));
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void loadAnnotations() {
+		if (annotationsLoaded) return;
+		synchronized (this) {
+			if (annotationsLoaded) return;
+			long start = metricsListener == null ? 0 : System.nanoTime();
+			List<AnnotationMetadata> annotations = new ArrayList<AnnotationMetadata>(4);
+			AnnotationHelper annotationHelper = AnnotationHelper.instance();
+			if (annotationHelper.isAnnotationAware()) {
+				for (Annotation annotation : clz.getAnnotations()) {
+					IAnnotationListener<Annotation> annotationListener = annotationHelper.getAnnotationListener((Class<Annotation>) annotation.annotationType());
+					if (annotationListener != null) {
+						AnnotationMetadata annotationMetadata = new AnnotationMetadata(this, annotation.annotationType());
+						annotationMetadata.setAttributesMap(annotationListener.getAttributesMap(annotation));
+						annotations.add(annotationMetadata);
+					}
+				}
+			}
+			initAnnotations(annotations);
+			annotationsLoaded = true;
+			if (metricsListener != null) metricsListener.phaseCompleted(BuildPhase.CLASS_ANNOTATIONS, qualifiedName, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Numbers and indexes fields, skipping fields whose name is already taken.
+	 */
+	private void initFields(final Collection<FieldMetadata> fields) {
+		List<FieldMetadata> fieldList = new ArrayList<FieldMetadata>(fields.size());
+		Map<String, FieldMetadata> fieldIndex = new HashMap<String, FieldMetadata>(fields.size() * 4 / 3 + 1);
+		for (FieldMetadata field : fields) {
+			if (fieldIndex.containsKey(field.getName())) continue;
+			field.setOrdinal(fieldList.size());
+			fieldList.add(field);
+			fieldIndex.put(field.getName(), field);
+		}
+		this.fieldIndex = fieldIndex;
+		this.fieldArray = fieldList.isEmpty() ? NO_FIELDS : fieldList.toArray(new FieldMetadata[fieldList.size()]);
+	}
+	
+	private void initAnnotations(final Collection<AnnotationMetadata> annotations) {
+		ArraySet<AnnotationMetadata> result = ArraySet.empty();
+		AnnotationIndex index = null;
+		for (AnnotationMetadata annotation : annotations) {
+			ArraySet<AnnotationMetadata> added = result.with(annotation);
+			if (added == result) continue;
+			if (index == null) index = new AnnotationIndex();
+			index.add(annotation);
+			result = added;
+		}
+		this.annotations = result;
+		this.annotationIndex = index;
+	}
+	
+	/**
+	 * Walks these metadata with the specified visitor: this class, its annotations, then its 
+	 * own fields along with their annotations. Metadata of the superclass are not visited.
+	 * 
+	 * @param visitor metadata visitor
+	 * @see IMetadataVisitor
+	 */
+	public void accept(final IMetadataVisitor visitor) {
+		if (visitor == null) throw new IllegalArgumentException("Unspecified visitor");
+		
+		visitor.visitClass(this);
+		loadAnnotations();
+		ArraySet<AnnotationMetadata> classAnnotations = annotations;
+		for (int i = 0; i < classAnnotations.size(); i++) {
+			classAnnotations.get(i).accept(visitor);
+		}
+		for (FieldMetadata field : getFields()) {
+			field.accept(visitor);
+		}
+		visitor.endClass(this);
+	}
+	
+	/**
+	 * Accounts the structures owned by these metadata, along with fields and annotations.
+	 */
+	void measure(final MetadataFootprint footprint) {
+		footprint.addOwned(this);
+		footprint.addName(qualifiedName);
+		footprint.addName(packageName);
+		footprint.addName(name);
+		loadFields();
+		if (fieldArray.length > 0) footprint.addOwned(fieldArray);
+		footprint.addHashTable(fieldIndex, fieldIndex.size());
+		for (FieldMetadata field : fieldArray) {
+			footprint.addField(field);
+		}
+		loadAnnotations();
+		if (!annotations.isEmpty()) {
+			footprint.addOwned(annotations);
+			footprint.addOwned(annotations.elements());
+		}
+		if (annotationIndex != null) annotationIndex.measure(footprint);
+		for (AnnotationMetadata annotation : annotations) {
+			footprint.addAnnotation(annotation);
+		}
+	}
+	
+	/**
+	 * Read-only view of fields in declaration order.
+	 */
+	private class FieldSet extends AbstractSet<FieldMetadata> {
+		@Override
+		public Iterator<FieldMetadata> iterator() {
+			final FieldMetadata[] fields = fieldArray;
+			return new Iterator<FieldMetadata>() {
+				private int index;
+				
+				public boolean hasNext() {
+					return index < fields.length;
+				}
+				
+				public FieldMetadata next() {
+					if (index >= fields.length) throw new NoSuchElementException();
+					return fields[index++];
+				}
+				
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+		
+		@Override
+		public int size() {
+			return fieldArray.length;
+		}
+		
+		@Override
+		public boolean contains(final Object o) {
+			return o instanceof FieldMetadata && o.equals(fieldIndex.get(((FieldMetadata) o).getName()));
+		}
+	}
+	
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+		loadAccessors();
+		loadAnnotations();
+		out.defaultWriteObject();
 	}
 	
 	@Override
@@ -120,13 +618,14 @@ public class ClassMetadata extends AbstractQualifiedMetadata {
 		buffer.append('\n').append("qualifiedName=").append(qualifiedName)
 			.append('\n').append("package=").append(packageName)
 			.append('\n').append("name=").append(name)
+			.append('\n').append("superclass=").append(superclassMetadata == null ? null : superclassMetadata.getQualifiedName())
 			.append('\n').append("fields=[");
-		for (FieldMetadata fieldMetadata : fields) {
+		for (FieldMetadata fieldMetadata : getFields()) {
 			buffer.append('\n').append(fieldMetadata.toString());
 		}
 		buffer.append(']');
 		buffer.append('\n').append("annotations=[");
-		for (AnnotationMetadata annotationMetadata : annotations) {
+		for (AnnotationMetadata annotationMetadata : getAnnotations()) {
 			buffer.append('\n').append(annotationMetadata.toString());
 		}
 		buffer.append(']');
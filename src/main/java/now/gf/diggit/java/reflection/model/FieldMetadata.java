@@ -1,15 +1,27 @@
 package now.gf.diggit.java.reflection.model;
 
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 
+import now.gf.diggit.java.classfile.ClassFileAnnotation;
+import now.gf.diggit.java.classfile.ClassFileField;
+import now.gf.diggit.java.classfile.ClassFileReader;
 import now.gf.diggit.java.reflection.AnnotationHelper;
-import now.gf.diggit.utils.ClassUtils;
+import now.gf.diggit.java.reflection.BuildPhase;
+import now.gf.diggit.java.reflection.IAnnotationListener;
+import now.gf.diggit.java.reflection.IMetricsListener;
+import now.gf.diggit.utils.TypeResolver;
 
 /**
  * 
@@ -21,44 +33,191 @@ public class FieldMetadata implements Serializable {
 
 	private String qualifiedClassName;
 	private String name;
-	private String typeName;
-	private String baseTypeName;
+	private TypeDescriptor type;  // Shared with every field of the same type
 	private String getterMethodName;
 	private String setterMethodName;
 	private int modifiers;
-	private boolean isArray;
-	private boolean isList;
-	private boolean isSet;
-	private boolean isMultiple;
-	private Set<AnnotationMetadata> annotations;
+	private int ordinal;
+	private ArraySet<AnnotationMetadata> annotations;  // Shared empty set as long as there are no annotations
+	private AnnotationIndex annotationIndex;  // Null as long as there are no annotations
+	private transient Class<?> declaringClass;  // Null if the class wasn't loaded
+	private transient ClassMetadata classMetadata;  // Set if getter and setter method names are resolved lazily
+	private volatile boolean annotationsLoaded;  // Always true unless built from a field
+	private transient volatile PropertyAccessor accessor;
 	
+	/**
+	 * Builds field metadata from a loaded field. Annotations, and getter and setter method names 
+	 * (resolved by the class metadata), are computed on first access.
+	 */
 	FieldMetadata(final ClassMetadata classMetadata, final Field field) {
 		if (field == null) throw new IllegalArgumentException("Unspecified field");
 
-		Class<?> type = (Class<?>) field.getType();
-		
+		this.declaringClass = field.getDeclaringClass();
+		this.classMetadata = classMetadata;
 		this.qualifiedClassName = classMetadata.getQualifiedName();
 		this.name = field.getName();
-		this.typeName = type.getCanonicalName();
 		this.modifiers = field.getModifiers(); 
-		this.isArray = type.isArray();
-		this.isList = Collection.class.isAssignableFrom(type);
-		this.isSet = Set.class.isAssignableFrom(type);
-		this.isMultiple = (isArray || isList || isSet);
-		if (isMultiple) {
-			Class<?> baseType = ClassUtils.getActualType(field);
-			this.baseTypeName = baseType.getCanonicalName();
+		this.type = describe(declaringClass, field);
+		this.annotations = ArraySet.empty();
+	}
+	
+	/**
+	 * Builds metadata of an inherited field as seen from a subclass, sharing everything
+	 * but the type with the metadata of the declaring class, whose sections must be computed.
+	 */
+	private FieldMetadata(final FieldMetadata inherited, final TypeDescriptor type) {
+		this.declaringClass = inherited.declaringClass;
+		this.qualifiedClassName = inherited.qualifiedClassName;
+		this.name = inherited.name;
+		this.modifiers = inherited.modifiers;
+		this.ordinal = inherited.ordinal;
+		this.getterMethodName = inherited.getterMethodName;
+		this.setterMethodName = inherited.setterMethodName;
+		this.annotations = inherited.annotations;
+		this.annotationIndex = inherited.annotationIndex;
+		this.annotationsLoaded = true;
+		this.type = type;
+	}
+	
+	FieldMetadata(final ClassMetadata classMetadata, final ClassFileField field, final ClassFileReader classFile) {
+		String descriptor = field.getDescriptor();
+		
+		this.qualifiedClassName = classMetadata.getQualifiedName();
+		this.name = field.getName().intern();
+		this.modifiers = field.getAccessFlags();
+		boolean isArray = descriptor.charAt(0) == '[';
+		// Only JDK types are loaded to find out whether a type is a collection
+		Class<?> type = isArray ? null : loadJdkType(ClassFileReader.toBinaryName(descriptor));
+		boolean isList = type != null && Collection.class.isAssignableFrom(type);
+		boolean isSet = type != null && Set.class.isAssignableFrom(type);
+		boolean isMap = type != null && Map.class.isAssignableFrom(type);
+		String baseTypeName = null;
+		String keyTypeName = null;
+		if (isArray) {
+			baseTypeName = classFile.toCanonicalName(descriptor.substring(1));
+		} else if (isList) {
+			String[] signatureArguments = ClassFileReader.getTypeArguments(field.getSignature());
+			baseTypeName = getTypeArgumentName(type, Collection.class, 0, signatureArguments, classFile);
+		} else if (isMap) {
+			String[] signatureArguments = ClassFileReader.getTypeArguments(field.getSignature());
+			keyTypeName = getTypeArgumentName(type, Map.class, 0, signatureArguments, classFile);
+			baseTypeName = getTypeArgumentName(type, Map.class, 1, signatureArguments, classFile);
 		}
+		this.type = TypeDescriptor.of(classFile.toCanonicalName(descriptor), baseTypeName, keyTypeName, isArray, isList, isSet, isMap);
 		
-		this.annotations = new HashSet<AnnotationMetadata>();
-		if (AnnotationHelper.instance().isAnnotationAware()) {
-			for (Annotation annotation : field.getAnnotations()) {
-				if (AnnotationHelper.instance().isAnnotationManaged(annotation)) {
-					AnnotationMetadata annotationMetadata = new AnnotationMetadata(this, annotation.annotationType());
-					annotationMetadata.setAttributesMap(AnnotationHelper.instance().getAttributesMap(annotation));
-					this.annotations.add(annotationMetadata);
-				}
-			}
+		this.annotations = ArraySet.empty();
+		this.annotationsLoaded = true;
+		for (ClassFileAnnotation annotation : field.getAnnotations()) {
+			addAnnotation(new AnnotationMetadata(this, annotation, classFile));
+		}
+	}
+	
+	/**
+	 * Builds field metadata out of already known parts, e.g. when restoring a snapshot.
+	 */
+	FieldMetadata(final ClassMetadata classMetadata, final String name, final String typeName, final String baseTypeName, final String keyTypeName,
+			final int modifiers, final boolean isArray, final boolean isList, final boolean isSet, final boolean isMap) {
+		this.declaringClass = classMetadata.getClz();
+		this.qualifiedClassName = classMetadata.getQualifiedName();
+		this.name = name.intern();
+		this.type = TypeDescriptor.of(typeName, baseTypeName, keyTypeName, isArray, isList, isSet, isMap);
+		this.modifiers = modifiers;
+		this.annotations = ArraySet.empty();
+		this.annotationsLoaded = true;
+	}
+	
+	/**
+	 * Describes the type of a field as seen from a class, i.e. with the type variables 
+	 * the class hierarchy binds replaced by their arguments.
+	 */
+	private static TypeDescriptor describe(final Class<?> context, final Field field) {
+		Type genericType = field.getGenericType();
+		Class<?> type = TypeResolver.toClass(TypeResolver.resolve(context, genericType));
+		if (type == null) {
+			// Unbound type variable: fall back to its erasure
+			type = field.getType();
+			genericType = type;
+		}
+		
+		boolean isArray = type.isArray();
+		boolean isList = Collection.class.isAssignableFrom(type);
+		boolean isSet = Set.class.isAssignableFrom(type);
+		boolean isMap = Map.class.isAssignableFrom(type);
+		String baseTypeName = null;
+		String keyTypeName = null;
+		if (isArray) {
+			baseTypeName = type.getComponentType().getCanonicalName();
+		} else if (isList) {
+			baseTypeName = getTypeArgumentName(getTypeArgument(TypeResolver.getTypeArguments(context, genericType, Collection.class), 0));
+		} else if (isMap) {
+			Type[] typeArguments = TypeResolver.getTypeArguments(context, genericType, Map.class);
+			keyTypeName = getTypeArgumentName(getTypeArgument(typeArguments, 0));
+			baseTypeName = getTypeArgumentName(getTypeArgument(typeArguments, 1));
+		}
+		return TypeDescriptor.of(type.getCanonicalName(), baseTypeName, keyTypeName, isArray, isList, isSet, isMap);
+	}
+	
+	/**
+	 * Returns these metadata as seen from a subclass of the declaring class: if the subclass 
+	 * binds type variables the field type depends on, e.g. <tt>List&lt;T&gt;</tt> inherited by 
+	 * <tt>Sub extends Base&lt;String&gt;</tt>, the returned metadata report the bound types. 
+	 * Getter and setter method names and annotations are shared with these metadata.
+	 * 
+	 * @param context subclass the field is inherited by
+	 * @return these metadata if the field type doesn't change, otherwise metadata bound to the subclass
+	 */
+	FieldMetadata bindTo(final Class<?> context) {
+		if (declaringClass == null || context == null || context == declaringClass) return this;
+		
+		Field field;
+		try {
+			field = declaringClass.getDeclaredField(name);
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException("Field " + name + " not found in " + declaringClass.getName());
+		}
+		if (field.getGenericType() instanceof Class) return this;
+		
+		TypeDescriptor boundType = describe(context, field);
+		if (boundType == type) return this;  // Descriptors are interned
+		getGetterMethodName();
+		loadAnnotations();
+		return new FieldMetadata(this, boundType);
+	}
+	
+	/**
+	 * Returns a type argument, <tt>Object</tt> if it can't be told, e.g. for a field whose type is a type variable.
+	 */
+	private static Type getTypeArgument(final Type[] typeArguments, final int index) {
+		return typeArguments == null || index >= typeArguments.length ? Object.class : typeArguments[index];
+	}
+	
+	private static String getTypeArgumentName(final Type typeArgument) {
+		Class<?> type = TypeResolver.toClass(typeArgument);
+		return type == null ? null : type.getCanonicalName();
+	}
+	
+	/**
+	 * Returns the name of a type argument a JDK type passes to one of its supertypes, taking arguments
+	 * the JDK type doesn't bind itself from the field signature.
+	 */
+	private static String getTypeArgumentName(final Class<?> type, final Class<?> supertype, final int index, 
+			final String[] signatureArguments, final ClassFileReader classFile) {
+		Type typeArgument = getTypeArgument(TypeResolver.getTypeArguments(type, type, supertype), index);
+		if (!(typeArgument instanceof TypeVariable)) return getTypeArgumentName(typeArgument);
+		
+		int position = Arrays.asList(type.getTypeParameters()).indexOf(typeArgument);
+		if (position < 0 || signatureArguments == null || position >= signatureArguments.length || signatureArguments[position] == null) return null;
+		return classFile.toCanonicalName(signatureArguments[position]);
+	}
+	
+	private static Class<?> loadJdkType(final String binaryName) {
+		if (!binaryName.startsWith("java.")) return null;
+		try {
+			return Class.forName(binaryName, false, FieldMetadata.class.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
 		}
 	}
 	
@@ -70,19 +229,47 @@ public class FieldMetadata implements Serializable {
 		return name;
 	}
 	
+	/**
+	 * Returns the position of this field in the declaration order of its class.
+	 * 
+	 * @return field position, starting from 0
+	 * @see ClassMetadata#getField(int)
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+	
 	public String getTypeName() {
-		return typeName;
+		return type.getTypeName();
 	}
 	
+	/**
+	 * Returns the type of the objects this field contains: the component type of an array,
+	 * the element type of a collection, the value type of a map.
+	 * 
+	 * @return canonical name of the contained type, null if it's not specified or not a concrete type
+	 */
 	public String getBaseTypeName() {
-		return baseTypeName;
+		return type.getBaseTypeName();
+	}
+	
+	/**
+	 * Returns the key type of a map.
+	 * 
+	 * @return canonical name of the key type, null if this field is not a map or the key type is not specified
+	 * or not a concrete type
+	 */
+	public String getKeyTypeName() {
+		return type.getKeyTypeName();
 	}
 	
 	public String getGetterMethodName() {
+		if (classMetadata != null) classMetadata.loadAccessors();
 		return getterMethodName;
 	}
 	
 	public String getSetterMethodName() {
+		if (classMetadata != null) classMetadata.loadAccessors();
 		return setterMethodName;
 	}
 	
@@ -91,41 +278,192 @@ public class FieldMetadata implements Serializable {
 	}
 	
 	public boolean isArray() {
-		return isArray;
+		return type.isArray();
 	}
 	
 	public boolean isList() {
-		return isList;
+		return type.isList();
 	}
 	
 	public boolean isSet() {
-		return isSet;
+		return type.isSet();
+	}
+	
+	public boolean isMap() {
+		return type.isMap();
 	}
 	
 	public boolean isMultiple() {
-		return isMultiple;
+		return type.isMultiple();
 	}
 	
+	/**
+	 * Returns field annotations.
+	 * 
+	 * @return non-null, read-only set of annotations
+	 */
 	public Set<AnnotationMetadata> getAnnotations() {
+		loadAnnotations();
 		return annotations;
 	}
 	
+	public int getAnnotationCount() {
+		loadAnnotations();
+		return annotations.size();
+	}
+	
+	/**
+	 * Returns a field annotation by its position, to read annotations with no iterator.
+	 * 
+	 * @param index annotation position, starting from 0
+	 * @return annotation metadata
+	 * @throws IndexOutOfBoundsException if there is no such annotation
+	 */
+	public AnnotationMetadata getAnnotation(final int index) {
+		loadAnnotations();
+		return annotations.get(index);
+	}
+	
+	/**
+	 * Returns an accessor reading and writing this field, built on first call and then cached.
+	 * 
+	 * @return field accessor
+	 * @throws IllegalStateException if metadata were read from a class file without loading the class
+	 */
+	public PropertyAccessor getAccessor() {
+		PropertyAccessor result = accessor;
+		if (result == null) {
+			synchronized (this) {
+				result = accessor;
+				if (result == null) {
+					if (declaringClass == null) throw new IllegalStateException("Class " + qualifiedClassName + " is not loaded");
+					accessor = result = new PropertyAccessor(declaringClass, this);
+				}
+			}
+		}
+		return result;
+	}
+	
 	public AnnotationMetadata getNamedAnnotation(final Class<? extends Annotation> clzAnnotation) {
 		if (clzAnnotation == null) return null;
-		
-		String annotationQualifiedName = clzAnnotation.getCanonicalName();
-		for (AnnotationMetadata annotation : annotations) {
-			if (annotation.getQualifiedName().equals(annotationQualifiedName)) return annotation;
+		loadAnnotations();
+		AnnotationIndex index = annotationIndex;
+		return index == null ? null : index.get(clzAnnotation);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void loadAnnotations() {
+		if (annotationsLoaded) return;
+		synchronized (this) {
+			if (annotationsLoaded) return;
+			IMetricsListener metricsListener = classMetadata == null ? null : classMetadata.getMetricsListener();
+			long start = metricsListener == null ? 0 : System.nanoTime();
+			ArraySet<AnnotationMetadata> annotations = ArraySet.empty();
+			AnnotationIndex annotationIndex = null;
+			AnnotationHelper annotationHelper = AnnotationHelper.instance();
+			if (annotationHelper.isAnnotationAware()) {
+				Field field;
+				try {
+					field = declaringClass.getDeclaredField(name);
+				} catch (NoSuchFieldException e) {
+					throw new IllegalStateException("Field " + name + " not found in " + declaringClass.getName());
+				}
+				for (Annotation annotation : field.getAnnotations()) {
+					IAnnotationListener<Annotation> annotationListener = annotationHelper.getAnnotationListener((Class<Annotation>) annotation.annotationType());
+					if (annotationListener != null) {
+						AnnotationMetadata annotationMetadata = new AnnotationMetadata(this, annotation.annotationType());
+						annotationMetadata.setAttributesMap(annotationListener.getAttributesMap(annotation));
+						if (annotationIndex == null) annotationIndex = new AnnotationIndex();
+						ArraySet<AnnotationMetadata> added = annotations.with(annotationMetadata);
+						if (added != annotations) annotationIndex.add(annotationMetadata);
+						annotations = added;
+					}
+				}
+			}
+			this.annotations = annotations;
+			this.annotationIndex = annotationIndex;
+			annotationsLoaded = true;
+			if (metricsListener != null) metricsListener.phaseCompleted(BuildPhase.FIELD_ANNOTATIONS, qualifiedClassName, System.nanoTime() - start);
+		}
+	}
+	
+	void setOrdinal(final int ordinal) {
+		this.ordinal = ordinal;
+	}
+	
+	void addAnnotation(final AnnotationMetadata annotation) {
+		loadAnnotations();
+		if (annotationIndex == null) annotationIndex = new AnnotationIndex();
+		ArraySet<AnnotationMetadata> added = annotations.with(annotation);
+		if (added != annotations) annotationIndex.add(annotation);
+		annotations = added;
+	}
+	
+	/**
+	 * Computes getter and setter method names and annotations, and makes annotations immutable.
+	 * 
+	 * @see ClassMetadata#freeze()
+	 */
+	void freeze() {
+		getGetterMethodName();
+		loadAnnotations();
+		for (int i = 0; i < annotations.size(); i++) {
+			annotations.get(i).freeze();
 		}
-		return null;
 	}
 	
 	void setGetterMethodName(final String getterMethodName) {
-		this.getterMethodName = getterMethodName;
+		this.getterMethodName = getterMethodName == null ? null : getterMethodName.intern();
 	}
 	
 	void setSetterMethodName(final String setterMethodName) {
-		this.setterMethodName = setterMethodName;
+		this.setterMethodName = setterMethodName == null ? null : setterMethodName.intern();
+	}
+	
+	/**
+	 * Walks these metadata with the specified visitor: this field, then its annotations.
+	 * 
+	 * @param visitor metadata visitor
+	 * @see ClassMetadata#accept(IMetadataVisitor)
+	 */
+	public void accept(final IMetadataVisitor visitor) {
+		if (visitor == null) throw new IllegalArgumentException("Unspecified visitor");
+		
+		visitor.visitField(this);
+		loadAnnotations();
+		ArraySet<AnnotationMetadata> fieldAnnotations = annotations;
+		for (int i = 0; i < fieldAnnotations.size(); i++) {
+			fieldAnnotations.get(i).accept(visitor);
+		}
+		visitor.endField(this);
+	}
+	
+	/**
+	 * Accounts the structures owned by these metadata, along with annotations.
+	 */
+	void measure(final MetadataFootprint footprint) {
+		footprint.addName(name);
+		footprint.addName(getGetterMethodName());
+		footprint.addName(setterMethodName);
+		footprint.addShared(type);
+		footprint.addName(type.getTypeName());
+		footprint.addName(type.getBaseTypeName());
+		footprint.addName(type.getKeyTypeName());
+		loadAnnotations();
+		if (!annotations.isEmpty()) {
+			footprint.addOwned(annotations);
+			footprint.addOwned(annotations.elements());
+		}
+		if (annotationIndex != null) annotationIndex.measure(footprint);
+		for (AnnotationMetadata annotation : annotations) {
+			footprint.addAnnotation(annotation);
+		}
+	}
+	
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+		getGetterMethodName();
+		loadAnnotations();
+		out.defaultWriteObject();
 	}
 	
 	@Override
@@ -133,17 +471,19 @@ public class FieldMetadata implements Serializable {
 		StringBuilder buffer = new StringBuilder("FieldMetadata [")
 			.append('\n').append("qualifiedClassName=").append(qualifiedClassName)
 			.append('\n').append("name=").append(name)
-			.append('\n').append("typeName=").append(typeName)
-			.append('\n').append("baseTypeName=").append(baseTypeName)
-			.append('\n').append("getterMethodName=").append(getterMethodName)
-			.append('\n').append("setterMethodName=").append(setterMethodName)
+			.append('\n').append("typeName=").append(getTypeName())
+			.append('\n').append("baseTypeName=").append(getBaseTypeName())
+			.append('\n').append("keyTypeName=").append(getKeyTypeName())
+			.append('\n').append("getterMethodName=").append(getGetterMethodName())
+			.append('\n').append("setterMethodName=").append(getSetterMethodName())
 			.append('\n').append("modifiers=").append(modifiers)
-			.append('\n').append("isArray=").append(isArray)
-			.append('\n').append("isList=").append(isList)
-			.append('\n').append("isSet=").append(isSet)
-			.append('\n').append("isMultiple=").append(isMultiple)
+			.append('\n').append("isArray=").append(isArray())
+			.append('\n').append("isList=").append(isList())
+			.append('\n').append("isSet=").append(isSet())
+			.append('\n').append("isMap=").append(isMap())
+			.append('\n').append("isMultiple=").append(isMultiple())
 			.append('\n').append("annotations=[");
-		for (AnnotationMetadata annotationMetadata : annotations) {
+		for (AnnotationMetadata annotationMetadata : getAnnotations()) {
 			buffer.append('\n').append(annotationMetadata.toString());
 		}
 		buffer.append('\n').append(']');
@@ -0,0 +1,37 @@
+package now.gf.diggit.java.reflection.model;
+
+/**
+ * <p>Visitor of the metadata model, walked by {@link ClassMetadata#accept(IMetadataVisitor)}
+ * one element at a time, so that metadata can be exported without building them
+ * into a single string first.</p>
+ *
+ * <p>Elements are visited depth-first, each one enclosed by a <tt>visit</tt> and an
+ * <tt>end</tt> call: a class, then its annotations, then its own fields (inherited
+ * ones belong to the metadata of the superclass) along with their annotations.
+ * The attributes of an annotation are visited between its <tt>visit</tt> and <tt>end</tt> calls.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see MetadataJsonWriter
+ * @see MetadataBinaryWriter
+ */
+public interface IMetadataVisitor {
+	void visitClass(ClassMetadata classMetadata);
+
+	void visitField(FieldMetadata fieldMetadata);
+
+	void visitAnnotation(AnnotationMetadata annotationMetadata);
+
+	/**
+	 * Visits an attribute of the annotation being visited.
+	 *
+	 * @param name attribute name
+	 * @param value attribute value, as returned by the annotation
+	 */
+	void visitAttribute(String name, Object value);
+
+	void endAnnotation(AnnotationMetadata annotationMetadata);
+
+	void endField(FieldMetadata fieldMetadata);
+
+	void endClass(ClassMetadata classMetadata);
+}
@@ -0,0 +1,314 @@
+package now.gf.diggit.java.reflection.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>Writes class metadata in a compact binary form straight to a {@link WritableByteChannel},
+ * element by element, through a fixed-size buffer: memory use doesn't grow with the number
+ * of metadata written, so that a whole cache can be dumped for diagnostics.</p>
+ *
+ * <p>Unlike a {@link MetadataSnapshot}, the stream is not meant to be restored: it records
+ * every metadata and attribute value, whether or not classes can be loaded again, in the
+ * order they are visited. Format (version 1), all numbers big-endian:</p>
+ * <pre>
+ * stream     := magic:int version:short element* '.'
+ * element    := 'C' qualifiedName:string packageName:string name:string superclass:string   (starts a class)
+ *             | 'F' name:string typeName:string baseTypeName:string keyTypeName:string
+ *               getter:string setter:string modifiers:int flags:byte                       (starts a field)
+ *             | 'A' qualifiedName:string packageName:string name:string                    (starts an annotation)
+ *             | 'a' name:string value                                                       (annotation attribute)
+ *             | 'E'                                                                         (ends the innermost class, field or annotation)
+ * string     := length:int (-1 for null) utf8Bytes
+ * value      := tag:byte payload, tagged as in snapshots; 'o' string for values of other types
+ * </pre>
+ *
+ * <p>As a visitor, the writer raises {@link UncheckedIOException} when the channel fails;
+ * {@link #write(ClassMetadata)}, {@link #finish()} and {@link #writeAll(Iterable)} throw its
+ * cause instead. Instances are not thread-safe.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassMetadata#accept(IMetadataVisitor)
+ */
+public final class MetadataBinaryWriter implements IMetadataVisitor {
+	private static final int MAGIC = 0x44474D58;  // "DGMX"
+	private static final short VERSION = 1;
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final byte FLAG_ARRAY = 1;
+	private static final byte FLAG_LIST = 2;
+	private static final byte FLAG_SET = 4;
+	private static final byte FLAG_MAP = 8;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private boolean started;
+
+	/**
+	 * Builds a new binary writer.
+	 *
+	 * @param channel destination channel, not closed by this writer
+	 */
+	public MetadataBinaryWriter(final WritableByteChannel channel) {
+		if (channel == null) throw new IllegalArgumentException("Unspecified channel");
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	/**
+	 * Writes metadata of a class, preceded by the stream header if nothing was written yet.
+	 * Call {@link #finish()} once every class is written.
+	 *
+	 * @param classMetadata metadata to write
+	 * @throws IOException if the channel fails
+	 */
+	public void write(final ClassMetadata classMetadata) throws IOException {
+		if (classMetadata == null) throw new IllegalArgumentException("Unspecified class metadata");
+
+		try {
+			classMetadata.accept(this);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		flush();
+	}
+
+	/**
+	 * Ends the stream and writes whatever is still buffered.
+	 *
+	 * @throws IOException if the channel fails
+	 */
+	public void finish() throws IOException {
+		writeHeader();
+		ensure(1);
+		buffer.put((byte) '.');
+		flush();
+	}
+
+	/**
+	 * Writes metadata of several classes as a whole stream.
+	 *
+	 * @param classMetadata metadata to write
+	 * @return number of class metadata written
+	 * @throws IOException if the channel fails
+	 */
+	public int writeAll(final Iterable<ClassMetadata> classMetadata) throws IOException {
+		if (classMetadata == null) throw new IllegalArgumentException("Unspecified class metadata");
+
+		int count = 0;
+		try {
+			writeHeader();
+			for (ClassMetadata metadata : classMetadata) {
+				metadata.accept(this);
+				count++;
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		finish();
+		return count;
+	}
+
+	public void visitClass(final ClassMetadata classMetadata) {
+		try {
+			writeHeader();
+			ensure(1);
+			buffer.put((byte) 'C');
+			writeString(classMetadata.getQualifiedName());
+			writeString(classMetadata.getPackageName());
+			writeString(classMetadata.getName());
+			ClassMetadata superclassMetadata = classMetadata.getSuperclassMetadata();
+			writeString(superclassMetadata == null ? null : superclassMetadata.getQualifiedName());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void visitField(final FieldMetadata fieldMetadata) {
+		try {
+			ensure(1);
+			buffer.put((byte) 'F');
+			writeString(fieldMetadata.getName());
+			writeString(fieldMetadata.getTypeName());
+			writeString(fieldMetadata.getBaseTypeName());
+			writeString(fieldMetadata.getKeyTypeName());
+			writeString(fieldMetadata.getGetterMethodName());
+			writeString(fieldMetadata.getSetterMethodName());
+			ensure(5);
+			buffer.putInt(fieldMetadata.getModifiers());
+			buffer.put((byte) ((fieldMetadata.isArray() ? FLAG_ARRAY : 0) | (fieldMetadata.isList() ? FLAG_LIST : 0)
+				| (fieldMetadata.isSet() ? FLAG_SET : 0) | (fieldMetadata.isMap() ? FLAG_MAP : 0)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void visitAnnotation(final AnnotationMetadata annotationMetadata) {
+		try {
+			ensure(1);
+			buffer.put((byte) 'A');
+			writeString(annotationMetadata.getQualifiedName());
+			writeString(annotationMetadata.getPackageName());
+			writeString(annotationMetadata.getName());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void visitAttribute(final String name, final Object value) {
+		try {
+			ensure(1);
+			buffer.put((byte) 'a');
+			writeString(name);
+			writeValue(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void endAnnotation(final AnnotationMetadata annotationMetadata) {
+		writeEnd();
+	}
+
+	public void endField(final FieldMetadata fieldMetadata) {
+		writeEnd();
+	}
+
+	public void endClass(final ClassMetadata classMetadata) {
+		writeEnd();
+	}
+
+	private void writeEnd() {
+		try {
+			ensure(1);
+			buffer.put((byte) 'E');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeHeader() throws IOException {
+		if (started) return;
+		ensure(6);
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		started = true;
+	}
+
+	private void writeValue(final Object value) throws IOException {
+		ensure(9);
+		if (value == null) {
+			buffer.put((byte) 'N');
+		} else if (value instanceof String) {
+			buffer.put((byte) 's');
+			writeString((String) value);
+		} else if (value instanceof Integer) {
+			buffer.put((byte) 'I').putInt(((Integer) value).intValue());
+		} else if (value instanceof Boolean) {
+			buffer.put((byte) 'Z').put((byte) (((Boolean) value).booleanValue() ? 1 : 0));
+		} else if (value instanceof Long) {
+			buffer.put((byte) 'J').putLong(((Long) value).longValue());
+		} else if (value instanceof Double) {
+			buffer.put((byte) 'D').putDouble(((Double) value).doubleValue());
+		} else if (value instanceof Float) {
+			buffer.put((byte) 'F').putFloat(((Float) value).floatValue());
+		} else if (value instanceof Short) {
+			buffer.put((byte) 'S').putShort(((Short) value).shortValue());
+		} else if (value instanceof Byte) {
+			buffer.put((byte) 'B').put(((Byte) value).byteValue());
+		} else if (value instanceof Character) {
+			buffer.put((byte) 'C').putChar(((Character) value).charValue());
+		} else if (value instanceof Enum) {
+			buffer.put((byte) 'e');
+			writeString(((Enum<?>) value).getDeclaringClass().getName());
+			writeString(((Enum<?>) value).name());
+		} else if (value instanceof Class) {
+			buffer.put((byte) 'c');
+			writeString(((Class<?>) value).getName());
+		} else if (value.getClass().isArray()) {
+			buffer.put((byte) '[');
+			writeString(value.getClass().getComponentType().getName());
+			int length = Array.getLength(value);
+			ensure(4);
+			buffer.putInt(length);
+			for (int i = 0; i < length; i++) {
+				writeValue(Array.get(value, i));
+			}
+		} else {
+			buffer.put((byte) 'o');
+			writeString(value.toString());
+		}
+	}
+
+	/**
+	 * Writes a string encoded as UTF-8 straight into the buffer, with no intermediate byte array.
+	 * Unpaired surrogates are written as <tt>?</tt>, as {@link String#getBytes(java.nio.charset.Charset)} does.
+	 */
+	private void writeString(final String value) throws IOException {
+		ensure(4);
+		if (value == null) {
+			buffer.putInt(-1);
+			return;
+		}
+
+		int length = value.length();
+		int byteCount = 0;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				byteCount++;
+			} else if (c < 0x800) {
+				byteCount += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				byteCount += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				byteCount++;
+			} else {
+				byteCount += 3;
+			}
+		}
+		buffer.putInt(byteCount);
+
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			ensure(4);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xF0 | (codePoint >> 18)));
+				buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	/**
+	 * Makes room for the specified number of bytes, writing buffered bytes to the channel if needed.
+	 */
+	private void ensure(final int byteCount) throws IOException {
+		if (buffer.remaining() < byteCount) flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
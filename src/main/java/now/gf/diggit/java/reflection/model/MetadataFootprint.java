@@ -0,0 +1,228 @@
+package now.gf.diggit.java.reflection.model;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * <p>Estimates the heap retained by class metadata, assuming a 64-bit JVM with compressed
+ * references and compact strings. Objects shared among metadata, i.e. interned names and
+ * type descriptors, are accounted separately, once per report; metadata of linked superclasses
+ * are not accounted at all.</p>
+ *
+ * <p>Sizes are computed from a layout model, not measured: they are meant to compare
+ * configurations and to size caches, not to be exact.</p>
+ *
+ * @author Giorgio Ferrara
+ */
+public final class MetadataFootprint {
+	private static final int HEADER = 12;
+	private static final int ARRAY_HEADER = 16;
+	private static final int REFERENCE = 4;
+	private static final ClassValue<Long> shallowSizes = new ClassValue<Long>() {
+		@Override
+		protected Long computeValue(final Class<?> type) {
+			long size = HEADER;
+			for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (!Modifier.isStatic(field.getModifiers())) size += sizeOf(field.getType());
+				}
+			}
+			return align(size);
+		}
+	};
+
+	private final Map<Object, Boolean> seen;
+	private int classCount;
+	private int fieldCount;
+	private int annotationCount;
+	private long retainedBytes;
+	private long sharedBytes;
+
+	private MetadataFootprint() {
+		this.seen = new IdentityHashMap<Object, Boolean>();
+	}
+
+	/**
+	 * Estimates the heap retained by class metadata.
+	 *
+	 * @param classMetadata class metadata
+	 * @return footprint report
+	 */
+	public static MetadataFootprint of(final ClassMetadata classMetadata) {
+		return of(Collections.singleton(classMetadata));
+	}
+
+	/**
+	 * Estimates the heap retained by a collection of class metadata, e.g. a whole cache.
+	 *
+	 * @param classMetadata class metadata
+	 * @return footprint report
+	 */
+	public static MetadataFootprint of(final Collection<ClassMetadata> classMetadata) {
+		MetadataFootprint footprint = new MetadataFootprint();
+		for (ClassMetadata metadata : classMetadata) {
+			if (metadata != null && !footprint.seen.containsKey(metadata)) {
+				footprint.classCount++;
+				metadata.measure(footprint);
+			}
+		}
+		return footprint;
+	}
+
+	public int getClassCount() {
+		return classCount;
+	}
+
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	public int getAnnotationCount() {
+		return annotationCount;
+	}
+
+	/**
+	 * Returns the estimated size of objects owned by the metadata.
+	 *
+	 * @return bytes
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	/**
+	 * Returns the estimated size of shared objects the metadata refer to.
+	 *
+	 * @return bytes
+	 */
+	public long getSharedBytes() {
+		return sharedBytes;
+	}
+
+	/**
+	 * Returns the estimated retained size of each field.
+	 *
+	 * @return bytes per field, including the field share of class-level structures
+	 */
+	public long getRetainedBytesPerField() {
+		return fieldCount == 0 ? 0 : retainedBytes / fieldCount;
+	}
+
+	void addField(final FieldMetadata field) {
+		if (visit(field)) {
+			fieldCount++;
+			retainedBytes += shallowSizeOf(field);
+			field.measure(this);
+		}
+	}
+
+	void addAnnotation(final AnnotationMetadata annotation) {
+		if (visit(annotation)) {
+			annotationCount++;
+			retainedBytes += shallowSizeOf(annotation);
+			annotation.measure(this);
+		}
+	}
+
+	/**
+	 * Adds an object owned by the metadata, with no nested content.
+	 */
+	void addOwned(final Object object) {
+		if (object != null && visit(object)) retainedBytes += shallowSizeOf(object);
+	}
+
+	/**
+	 * Adds an object shared among metadata, with no nested content.
+	 */
+	void addShared(final Object object) {
+		if (object != null && visit(object)) sharedBytes += shallowSizeOf(object);
+	}
+
+	/**
+	 * Adds the structure of a hash-based map or set, excluding keys and values.
+	 */
+	void addHashTable(final Object table, final int size) {
+		if (table == null || table == Collections.EMPTY_SET || table == Collections.EMPTY_MAP || !visit(table)) return;
+		retainedBytes += shallowSizeOf(table);
+		if (table instanceof IdentityHashMap) {
+			// Keys and values are stored inline, in a table sized for at least 4 entries
+			int slots = 2 * Integer.highestOneBit(Math.max(size + (size >> 1), 6) * 2 - 1);
+			retainedBytes += align(ARRAY_HEADER + (long) REFERENCE * slots);
+		} else {
+			if (table instanceof HashSet) retainedBytes += shallowSizes.get(HashMap.class);
+			int capacity = Integer.highestOneBit(Math.max(size * 4 / 3, 1) * 2 - 1);
+			retainedBytes += align(ARRAY_HEADER + (long) REFERENCE * capacity) + 32L * size;
+		}
+	}
+
+	/**
+	 * Adds an attribute value, along with its elements if it's an array.
+	 */
+	void addValue(final Object value) {
+		if (value == null || !visit(value)) return;
+		if (value instanceof String) {
+			retainedBytes += stringSize((String) value);
+		} else if (value.getClass().isArray()) {
+			retainedBytes += shallowSizeOf(value);
+			if (!value.getClass().getComponentType().isPrimitive()) {
+				for (int i = 0, length = Array.getLength(value); i < length; i++) {
+					addValue(Array.get(value, i));
+				}
+			}
+		} else if (value instanceof AnnotationMetadata) {
+			addAnnotation((AnnotationMetadata) value);
+		} else if (!(value instanceof Class)) {
+			retainedBytes += shallowSizeOf(value);
+		}
+	}
+
+	/**
+	 * Adds a name, shared if it was interned.
+	 */
+	void addName(final String name) {
+		if (name != null && visit(name)) sharedBytes += stringSize(name);
+	}
+
+	private boolean visit(final Object object) {
+		return seen.put(object, Boolean.TRUE) == null;
+	}
+
+	private static long shallowSizeOf(final Object object) {
+		Class<?> type = object.getClass();
+		if (type.isArray()) return align(ARRAY_HEADER + (long) sizeOf(type.getComponentType()) * Array.getLength(object));
+		return shallowSizes.get(type);
+	}
+
+	private static long stringSize(final String string) {
+		boolean latin1 = true;
+		for (int i = 0; i < string.length() && latin1; i++) {
+			latin1 = string.charAt(i) <= 0xFF;
+		}
+		return shallowSizes.get(String.class) + align(ARRAY_HEADER + (long) string.length() * (latin1 ? 1 : 2));
+	}
+
+	private static int sizeOf(final Class<?> type) {
+		if (!type.isPrimitive()) return REFERENCE;
+		if (type == long.class || type == double.class) return 8;
+		if (type == int.class || type == float.class) return 4;
+		if (type == short.class || type == char.class) return 2;
+		return 1;
+	}
+
+	private static long align(final long size) {
+		return (size + 7) & ~7L;
+	}
+
+	@Override
+	public String toString() {
+		return "MetadataFootprint [classes=" + classCount + ", fields=" + fieldCount + ", annotations=" + annotationCount
+			+ ", retained=" + retainedBytes + "B, shared=" + sharedBytes + "B, retainedPerField=" + getRetainedBytesPerField() + "B]";
+	}
+}
@@ -0,0 +1,252 @@
+package now.gf.diggit.java.reflection.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+
+/**
+ * <p>Writes class metadata as JSON straight to a {@link Writer}, element by element:
+ * memory use doesn't grow with the number of metadata written, so that a whole cache
+ * can be dumped for diagnostics. Wrap the writer into a {@link java.io.BufferedWriter}
+ * unless it buffers already.</p>
+ *
+ * <p>Each class is written as an object holding its names, the qualified name of its
+ * superclass, its annotations and its own fields:</p>
+ * <pre>
+ * {"qualifiedName":"a.B","package":"a","name":"B","superclass":null,
+ *  "annotations":[{"qualifiedName":"a.C","package":"a","name":"C","attributes":{"value":1}}],
+ *  "fields":[{"name":"f","typeName":"java.util.List","baseTypeName":"a.D","keyTypeName":null,
+ *    "getterMethodName":"getF","setterMethodName":"setF","modifiers":2,
+ *    "isArray":false,"isList":true,"isSet":false,"isMap":false,"annotations":[]}]}
+ * </pre>
+ *
+ * <p>Attribute values are written as JSON numbers, booleans and arrays where they can be,
+ * classes by name, enums by constant name and any other value by its string form.</p>
+ *
+ * <p>As a visitor, the writer raises {@link UncheckedIOException} when the underlying writer
+ * fails; {@link #write(ClassMetadata)} and {@link #writeAll(Iterable)} throw its cause instead.
+ * Instances are not thread-safe.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ClassMetadata#accept(IMetadataVisitor)
+ */
+public final class MetadataJsonWriter implements IMetadataVisitor {
+	private final Writer out;
+	private boolean firstElement;  // No comma before the next element of the innermost array
+	private boolean fieldsOpen;  // The fields of the class being visited are being written
+
+	/**
+	 * Builds a new JSON writer.
+	 *
+	 * @param out destination writer, not closed by this writer
+	 */
+	public MetadataJsonWriter(final Writer out) {
+		if (out == null) throw new IllegalArgumentException("Unspecified writer");
+		this.out = out;
+	}
+
+	/**
+	 * Writes metadata of a class as a JSON object.
+	 *
+	 * @param classMetadata metadata to write
+	 * @throws IOException if the underlying writer fails
+	 */
+	public void write(final ClassMetadata classMetadata) throws IOException {
+		if (classMetadata == null) throw new IllegalArgumentException("Unspecified class metadata");
+
+		try {
+			classMetadata.accept(this);
+			out.flush();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Writes metadata of several classes as a JSON array.
+	 *
+	 * @param classMetadata metadata to write
+	 * @return number of class metadata written
+	 * @throws IOException if the underlying writer fails
+	 */
+	public int writeAll(final Iterable<ClassMetadata> classMetadata) throws IOException {
+		if (classMetadata == null) throw new IllegalArgumentException("Unspecified class metadata");
+
+		int count = 0;
+		try {
+			out.write('[');
+			for (ClassMetadata metadata : classMetadata) {
+				if (count++ > 0) out.write(',');
+				metadata.accept(this);
+				out.write('\n');
+			}
+			out.write(']');
+			out.flush();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return count;
+	}
+
+	public void visitClass(final ClassMetadata classMetadata) {
+		try {
+			out.write('{');
+			writeName("qualifiedName", classMetadata.getQualifiedName(), false);
+			writeName("package", classMetadata.getPackageName(), true);
+			writeName("name", classMetadata.getName(), true);
+			ClassMetadata superclassMetadata = classMetadata.getSuperclassMetadata();
+			writeName("superclass", superclassMetadata == null ? null : superclassMetadata.getQualifiedName(), true);
+			out.write(",\"annotations\":[");
+			firstElement = true;
+			fieldsOpen = false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void visitField(final FieldMetadata fieldMetadata) {
+		try {
+			if (!fieldsOpen) {
+				// Class annotations are over
+				out.write("],\"fields\":[");
+				fieldsOpen = true;
+				firstElement = true;
+			}
+			if (!firstElement) out.write(',');
+			out.write('{');
+			writeName("name", fieldMetadata.getName(), false);
+			writeName("typeName", fieldMetadata.getTypeName(), true);
+			writeName("baseTypeName", fieldMetadata.getBaseTypeName(), true);
+			writeName("keyTypeName", fieldMetadata.getKeyTypeName(), true);
+			writeName("getterMethodName", fieldMetadata.getGetterMethodName(), true);
+			writeName("setterMethodName", fieldMetadata.getSetterMethodName(), true);
+			out.write(",\"modifiers\":");
+			out.write(Integer.toString(fieldMetadata.getModifiers()));
+			out.write(",\"isArray\":");
+			out.write(fieldMetadata.isArray() ? "true" : "false");
+			out.write(",\"isList\":");
+			out.write(fieldMetadata.isList() ? "true" : "false");
+			out.write(",\"isSet\":");
+			out.write(fieldMetadata.isSet() ? "true" : "false");
+			out.write(",\"isMap\":");
+			out.write(fieldMetadata.isMap() ? "true" : "false");
+			out.write(",\"annotations\":[");
+			firstElement = true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void visitAnnotation(final AnnotationMetadata annotationMetadata) {
+		try {
+			if (!firstElement) out.write(',');
+			out.write('{');
+			writeName("qualifiedName", annotationMetadata.getQualifiedName(), false);
+			writeName("package", annotationMetadata.getPackageName(), true);
+			writeName("name", annotationMetadata.getName(), true);
+			out.write(",\"attributes\":{");
+			firstElement = true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void visitAttribute(final String name, final Object value) {
+		try {
+			if (!firstElement) out.write(',');
+			writeString(name);
+			out.write(':');
+			writeValue(value);
+			firstElement = false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void endAnnotation(final AnnotationMetadata annotationMetadata) {
+		try {
+			out.write("}}");
+			firstElement = false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void endField(final FieldMetadata fieldMetadata) {
+		try {
+			out.write("]}");
+			firstElement = false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void endClass(final ClassMetadata classMetadata) {
+		try {
+			out.write(fieldsOpen ? "]}" : "],\"fields\":[]}");
+			fieldsOpen = false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeName(final String key, final String value, final boolean comma) throws IOException {
+		if (comma) out.write(',');
+		writeString(key);
+		out.write(':');
+		if (value == null) out.write("null"); else writeString(value);
+	}
+
+	private void writeValue(final Object value) throws IOException {
+		if (value == null) {
+			out.write("null");
+		} else if (value instanceof Boolean) {
+			out.write(value.toString());
+		} else if (value instanceof Number) {
+			double number = ((Number) value).doubleValue();
+			if (Double.isNaN(number) || Double.isInfinite(number)) writeString(value.toString()); else out.write(value.toString());
+		} else if (value instanceof Enum) {
+			writeString(((Enum<?>) value).name());
+		} else if (value instanceof Class) {
+			writeString(((Class<?>) value).getName());
+		} else if (value.getClass().isArray()) {
+			out.write('[');
+			int length = Array.getLength(value);
+			for (int i = 0; i < length; i++) {
+				if (i > 0) out.write(',');
+				writeValue(Array.get(value, i));
+			}
+			out.write(']');
+		} else {
+			writeString(value.toString());
+		}
+	}
+
+	private void writeString(final String value) throws IOException {
+		out.write('"');
+		int start = 0;
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') continue;
+
+			// Flush the plain run, then escape
+			out.write(value, start, i - start);
+			start = i + 1;
+			switch (c) {
+				case '"': out.write("\\\""); break;
+				case '\\': out.write("\\\\"); break;
+				case '\n': out.write("\\n"); break;
+				case '\r': out.write("\\r"); break;
+				case '\t': out.write("\\t"); break;
+				default:
+					out.write("\\u00");
+					out.write(Character.forDigit(c >> 4, 16));
+					out.write(Character.forDigit(c & 0xF, 16));
+			}
+		}
+		out.write(value, start, length - start);
+		out.write('"');
+	}
+}
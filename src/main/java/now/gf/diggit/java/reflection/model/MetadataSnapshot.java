@@ -0,0 +1,388 @@
+package now.gf.diggit.java.reflection.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import now.gf.diggit.java.classfile.ClassFileReader;
+
+/**
+ * <p>Reads and writes class metadata as a compact binary snapshot, so that
+ * metadata built by a previous run can be restored at startup instead of being
+ * built again. The snapshot is memory-mapped when read.</p>
+ *
+ * <p>Each entry records a CRC-32 checksum of the class file it was built from: when
+ * the snapshot is read, entries whose class file changed (or can't be found anymore)
+ * are not restored but reported as stale, so that they can be built again.</p>
+ *
+ * <p>Format (version 2), all numbers big-endian:</p>
+ * <pre>
+ * snapshot   := magic:int version:short count:int entry*
+ * entry      := className:string checksum:long length:int fields annotations
+ * fields     := count:int (name:string typeName:string baseTypeName:string keyTypeName:string
+ *               getter:string setter:string modifiers:int flags:byte annotations)*
+ * annotations:= count:int (className:string count:int (name:string value)*)*
+ * string     := length:int (-1 for null) utf8Bytes
+ * value      := tag:byte payload (booleans, numbers, characters, strings, enums, classes and arrays of them)
+ * </pre>
+ *
+ * <p>Metadata that can't be validated against a class file (i.e. built without loading
+ * the class) and annotations with attribute values of other types are not written.</p>
+ *
+ * @author Giorgio Ferrara
+ */
+public final class MetadataSnapshot {
+	private static final int MAGIC = 0x44474D53;  // "DGMS"
+	private static final short VERSION = 2;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte FLAG_ARRAY = 1;
+	private static final byte FLAG_LIST = 2;
+	private static final byte FLAG_SET = 4;
+	private static final byte FLAG_MAP = 8;
+
+	private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<String, Class<?>>();
+	static {
+		for (Class<?> type : new Class<?>[] { boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class, void.class }) {
+			PRIMITIVE_TYPES.put(type.getName(), type);
+		}
+	}
+
+	private MetadataSnapshot() {}
+
+	/**
+	 * Writes a snapshot of the specified class metadata. The file is replaced atomically where
+	 * the file system allows it, so that a crash while writing never leaves a truncated snapshot
+	 * behind, nor one that a concurrent reader would map half-written.
+	 *
+	 * @param classMetadata metadata to write
+	 * @param file destination file, overwritten if it exists
+	 * @return number of entries actually written
+	 * @throws IOException if the snapshot can't be written
+	 */
+	public static int write(final Collection<ClassMetadata> classMetadata, final File file) throws IOException {
+		if (classMetadata == null || file == null) throw new IllegalArgumentException("Both class metadata and file must be specified");
+
+		// Encode entries first, since their count goes into the header
+		ByteArrayOutputStream entries = new ByteArrayOutputStream();
+		DataOutputStream entriesOut = new DataOutputStream(entries);
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		int count = 0;
+		for (ClassMetadata metadata : classMetadata) {
+			Class<?> clz = metadata.getClz();
+			if (clz == null) continue;
+			byte[] classFile = ClassFileReader.readClassFile(clz.getClassLoader(), clz.getName());
+			if (classFile == null) continue;
+
+			payload.reset();
+			try {
+				writeClassMetadata(metadata, new DataOutputStream(payload));
+			} catch (UnsupportedValueException e) {
+				continue;
+			}
+			writeString(entriesOut, clz.getName());
+			entriesOut.writeLong(checksum(classFile));
+			entriesOut.writeInt(payload.size());
+			payload.writeTo(entriesOut);
+			count++;
+		}
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temporaryFile = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeShort(VERSION);
+				out.writeInt(count);
+				entries.writeTo(out);
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temporaryFile.delete();
+		}
+		return count;
+	}
+
+	/**
+	 * Reads a snapshot, restoring the entries whose class file didn't change.
+	 *
+	 * @param file snapshot file
+	 * @param classLoader class loader to look classes and class files up with, null for the system class loader
+	 * @param staleClassNames receives the binary names of the classes whose entries couldn't be restored; may be null
+	 * @return restored metadata: key=<canonical class name, binary name if none>, value=<class metadata>
+	 * @throws IOException if the file can't be read or is not a valid snapshot
+	 */
+	public static Map<String, ClassMetadata> read(final File file, final ClassLoader classLoader, final Collection<String> staleClassNames) throws IOException {
+		if (file == null) throw new IllegalArgumentException("Unspecified file");
+		ClassLoader loader = classLoader == null ? ClassLoader.getSystemClassLoader() : classLoader;
+
+		MappedByteBuffer buffer;
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+
+		try {
+			if (buffer.getInt() != MAGIC) throw new IOException("Not a metadata snapshot: " + file);
+			short version = buffer.getShort();
+			if (version != VERSION) throw new IOException("Unsupported metadata snapshot version " + version + ": " + file);
+
+			int count = buffer.getInt();
+			Map<String, ClassMetadata> result = new LinkedHashMap<String, ClassMetadata>(count * 4 / 3 + 1);
+			for (int i = 0; i < count; i++) {
+				String className = readString(buffer);
+				long checksum = buffer.getLong();
+				int length = buffer.getInt();
+				int next = buffer.position() + length;
+
+				ClassMetadata metadata = null;
+				byte[] classFile = ClassFileReader.readClassFile(loader, className);
+				if (classFile != null && checksum(classFile) == checksum) {
+					// Classes referenced by annotation values may have changed in the meantime
+					try {
+						metadata = readClassMetadata(buffer, Class.forName(className, false, loader), loader);
+					} catch (ClassNotFoundException e) {
+					} catch (LinkageError e) {
+					} catch (IllegalArgumentException e) {
+					} catch (ClassCastException e) {}
+				}
+				if (metadata == null) {
+					if (staleClassNames != null) staleClassNames.add(className);
+				} else {
+					result.put(metadata.getQualifiedName() != null ? metadata.getQualifiedName() : className, metadata);
+				}
+				buffer.position(next);
+			}
+			return result;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated metadata snapshot: " + file);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Corrupted metadata snapshot: " + file);
+		}
+	}
+
+	private static void writeClassMetadata(final ClassMetadata metadata, final DataOutputStream out) throws IOException, UnsupportedValueException {
+		out.writeInt(metadata.getFields().size());
+		for (FieldMetadata field : metadata.getFields()) {
+			writeString(out, field.getName());
+			writeString(out, field.getTypeName());
+			writeString(out, field.getBaseTypeName());
+			writeString(out, field.getKeyTypeName());
+			writeString(out, field.getGetterMethodName());
+			writeString(out, field.getSetterMethodName());
+			out.writeInt(field.getModifiers());
+			out.writeByte((field.isArray() ? FLAG_ARRAY : 0) | (field.isList() ? FLAG_LIST : 0) | (field.isSet() ? FLAG_SET : 0) | (field.isMap() ? FLAG_MAP : 0));
+			writeAnnotations(field.getAnnotations(), out);
+		}
+		writeAnnotations(metadata.getAnnotations(), out);
+	}
+
+	private static void writeAnnotations(final Set<AnnotationMetadata> annotations, final DataOutputStream out) throws IOException, UnsupportedValueException {
+		out.writeInt(annotations.size());
+		for (AnnotationMetadata annotation : annotations) {
+			if (annotation.getClz() == null) throw new UnsupportedValueException();
+			writeString(out, annotation.getClz().getName());
+			Map<String, Object> attributesMap = annotation.getAttributesMap();
+			out.writeInt(attributesMap.size());
+			for (Map.Entry<String, Object> attribute : attributesMap.entrySet()) {
+				writeString(out, attribute.getKey());
+				writeValue(out, attribute.getValue());
+			}
+		}
+	}
+
+	private static void writeValue(final DataOutputStream out, final Object value) throws IOException, UnsupportedValueException {
+		if (value == null) {
+			out.writeByte('N');
+		} else if (value instanceof String) {
+			out.writeByte('s');
+			writeString(out, (String) value);
+		} else if (value instanceof Integer) {
+			out.writeByte('I');
+			out.writeInt(((Integer) value).intValue());
+		} else if (value instanceof Boolean) {
+			out.writeByte('Z');
+			out.writeBoolean(((Boolean) value).booleanValue());
+		} else if (value instanceof Long) {
+			out.writeByte('J');
+			out.writeLong(((Long) value).longValue());
+		} else if (value instanceof Double) {
+			out.writeByte('D');
+			out.writeDouble(((Double) value).doubleValue());
+		} else if (value instanceof Float) {
+			out.writeByte('F');
+			out.writeFloat(((Float) value).floatValue());
+		} else if (value instanceof Short) {
+			out.writeByte('S');
+			out.writeShort(((Short) value).shortValue());
+		} else if (value instanceof Byte) {
+			out.writeByte('B');
+			out.writeByte(((Byte) value).byteValue());
+		} else if (value instanceof Character) {
+			out.writeByte('C');
+			out.writeChar(((Character) value).charValue());
+		} else if (value instanceof Enum) {
+			out.writeByte('e');
+			writeString(out, ((Enum<?>) value).getDeclaringClass().getName());
+			writeString(out, ((Enum<?>) value).name());
+		} else if (value instanceof Class) {
+			out.writeByte('c');
+			writeString(out, ((Class<?>) value).getName());
+		} else if (value.getClass().isArray()) {
+			out.writeByte('[');
+			writeString(out, value.getClass().getComponentType().getName());
+			int length = Array.getLength(value);
+			out.writeInt(length);
+			for (int i = 0; i < length; i++) {
+				writeValue(out, Array.get(value, i));
+			}
+		} else {
+			throw new UnsupportedValueException();
+		}
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static ClassMetadata readClassMetadata(final ByteBuffer buffer, final Class<?> clz, final ClassLoader classLoader) throws ClassNotFoundException {
+		int fieldCount = buffer.getInt();
+		ClassMetadata metadata = new ClassMetadata(clz, new LinkedHashSet<FieldMetadata>(), new HashSet<AnnotationMetadata>());
+		for (int i = 0; i < fieldCount; i++) {
+			String name = readString(buffer);
+			String typeName = readString(buffer);
+			String baseTypeName = readString(buffer);
+			String keyTypeName = readString(buffer);
+			String getterMethodName = readString(buffer);
+			String setterMethodName = readString(buffer);
+			int modifiers = buffer.getInt();
+			byte flags = buffer.get();
+			FieldMetadata field = new FieldMetadata(metadata, name, typeName, baseTypeName, keyTypeName, modifiers,
+				(flags & FLAG_ARRAY) != 0, (flags & FLAG_LIST) != 0, (flags & FLAG_SET) != 0, (flags & FLAG_MAP) != 0);
+			field.setGetterMethodName(getterMethodName);
+			field.setSetterMethodName(setterMethodName);
+			int annotationCount = buffer.getInt();
+			for (int j = 0; j < annotationCount; j++) {
+				AnnotationMetadata annotation = new AnnotationMetadata(field, readAnnotationType(buffer, classLoader));
+				readAttributes(buffer, annotation, classLoader);
+				field.addAnnotation(annotation);
+			}
+			metadata.addField(field);
+		}
+		int annotationCount = buffer.getInt();
+		for (int i = 0; i < annotationCount; i++) {
+			AnnotationMetadata annotation = new AnnotationMetadata(metadata, readAnnotationType(buffer, classLoader));
+			readAttributes(buffer, annotation, classLoader);
+			metadata.addAnnotation(annotation);
+		}
+		return metadata;
+	}
+
+	private static Class<? extends Annotation> readAnnotationType(final ByteBuffer buffer, final ClassLoader classLoader) throws ClassNotFoundException {
+		Class<?> type = loadClass(readString(buffer), classLoader);
+		if (!type.isAnnotation()) throw new ClassNotFoundException(type.getName() + " is not an annotation");
+		return type.asSubclass(Annotation.class);
+	}
+
+	private static void readAttributes(final ByteBuffer buffer, final AnnotationMetadata annotation, final ClassLoader classLoader) throws ClassNotFoundException {
+		int count = buffer.getInt();
+		for (int i = 0; i < count; i++) {
+			annotation.addAttribute(readString(buffer), readValue(buffer, classLoader));
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object readValue(final ByteBuffer buffer, final ClassLoader classLoader) throws ClassNotFoundException {
+		byte tag = buffer.get();
+		switch (tag) {
+			case 'N': return null;
+			case 's': return readString(buffer);
+			case 'I': return Integer.valueOf(buffer.getInt());
+			case 'Z': return Boolean.valueOf(buffer.get() != 0);
+			case 'J': return Long.valueOf(buffer.getLong());
+			case 'D': return Double.valueOf(buffer.getDouble());
+			case 'F': return Float.valueOf(buffer.getFloat());
+			case 'S': return Short.valueOf(buffer.getShort());
+			case 'B': return Byte.valueOf(buffer.get());
+			case 'C': return Character.valueOf(buffer.getChar());
+			case 'e':
+				Class enumType = loadClass(readString(buffer), classLoader);
+				return Enum.valueOf(enumType, readString(buffer));
+			case 'c':
+				return loadClass(readString(buffer), classLoader);
+			case '[':
+				Class<?> componentType = loadClass(readString(buffer), classLoader);
+				int length = buffer.getInt();
+				Object array = Array.newInstance(componentType, length);
+				for (int i = 0; i < length; i++) {
+					Array.set(array, i, readValue(buffer, classLoader));
+				}
+				return array;
+			default:
+				throw new IllegalArgumentException("Unknown value tag " + tag);
+		}
+	}
+
+	private static String readString(final ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) return null;
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static Class<?> loadClass(final String name, final ClassLoader classLoader) throws ClassNotFoundException {
+		Class<?> type = PRIMITIVE_TYPES.get(name);
+		return type != null ? type : Class.forName(name, false, classLoader);
+	}
+
+	private static long checksum(final byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return crc.getValue();
+	}
+
+	/**
+	 * Raised when metadata hold values that can't be written into a snapshot.
+	 */
+	private static class UnsupportedValueException extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+}
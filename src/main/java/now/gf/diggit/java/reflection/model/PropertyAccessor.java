@@ -0,0 +1,156 @@
+package now.gf.diggit.java.reflection.model;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * <p>Reads and writes a field of a bean through method handles, resolved once when
+ * the accessor is built. Getter and setter methods are used when available, the
+ * field itself otherwise. Handles are adapted to a generic <tt>(Object)Object</tt> and
+ * <tt>(Object,Object)void</tt> shape, so that each access is a single exact invocation
+ * with no reflective lookup and no argument array.</p>
+ *
+ * <p>Accessors are immutable and can be shared among threads.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see FieldMetadata#getAccessor()
+ */
+public final class PropertyAccessor {
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private final String name;
+	private final MethodHandle getter;  // Null if the field can't be read
+	private final MethodHandle setter;  // Null if the field can't be written
+
+	PropertyAccessor(final Class<?> clz, final FieldMetadata fieldMetadata) {
+		this.name = fieldMetadata.getName();
+
+		Field field;
+		try {
+			field = clz.getDeclaredField(name);
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException("Field " + name + " not found in " + clz.getName());
+		}
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		this.getter = resolveGetter(lookup, clz, field, fieldMetadata.getGetterMethodName());
+		this.setter = resolveSetter(lookup, clz, field, fieldMetadata.getSetterMethodName());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isReadable() {
+		return getter != null;
+	}
+
+	public boolean isWritable() {
+		return setter != null;
+	}
+
+	/**
+	 * Returns the value of the field for the specified bean.
+	 *
+	 * @param bean bean to read; ignored for static fields
+	 * @return field value, boxed if primitive
+	 * @throws IllegalStateException if the field can't be read
+	 */
+	public Object get(final Object bean) {
+		if (getter == null) throw new IllegalStateException("Field " + name + " can't be read");
+		try {
+			return (Object) getter.invokeExact(bean);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException("Error reading field " + name, e);
+		}
+	}
+
+	/**
+	 * Sets the value of the field for the specified bean.
+	 *
+	 * @param bean bean to write; ignored for static fields
+	 * @param value new value, boxed if the field is primitive
+	 * @throws IllegalStateException if the field can't be written
+	 */
+	public void set(final Object bean, final Object value) {
+		if (setter == null) throw new IllegalStateException("Field " + name + " can't be written");
+		try {
+			setter.invokeExact(bean, value);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException("Error writing field " + name, e);
+		}
+	}
+
+	private static MethodHandle resolveGetter(final MethodHandles.Lookup lookup, final Class<?> clz, final Field field, final String methodName) {
+		boolean isStatic = Modifier.isStatic(field.getModifiers());
+		MethodHandle handle = null;
+		if (methodName != null && !isStatic) {
+			try {
+				Method method = clz.getMethod(methodName);
+				handle = lookup.unreflect(accessible(method));
+			} catch (NoSuchMethodException e) {
+			} catch (IllegalAccessException e) {
+			} catch (RuntimeException e) {}  // Inaccessible module
+		}
+		if (handle == null) {
+			try {
+				handle = lookup.unreflectGetter(accessible(field));
+			} catch (IllegalAccessException e) {
+				return null;
+			} catch (RuntimeException e) {
+				return null;
+			}
+		}
+		if (isStatic) handle = MethodHandles.dropArguments(handle, 0, Object.class);
+		return handle.asType(GETTER_TYPE);
+	}
+
+	private static MethodHandle resolveSetter(final MethodHandles.Lookup lookup, final Class<?> clz, final Field field, final String methodName) {
+		boolean isStatic = Modifier.isStatic(field.getModifiers());
+		MethodHandle handle = null;
+		if (methodName != null && !isStatic) {
+			try {
+				Method method = clz.getMethod(methodName, field.getType());
+				handle = lookup.unreflect(accessible(method));
+				handle = handle.asType(handle.type().changeReturnType(void.class));
+			} catch (NoSuchMethodException e) {
+			} catch (IllegalAccessException e) {
+			} catch (RuntimeException e) {}
+		}
+		if (handle == null) {
+			if (Modifier.isFinal(field.getModifiers())) return null;
+			try {
+				handle = lookup.unreflectSetter(accessible(field));
+			} catch (IllegalAccessException e) {
+				return null;
+			} catch (RuntimeException e) {
+				return null;
+			}
+		}
+		if (isStatic) handle = MethodHandles.dropArguments(handle, 0, Object.class);
+		return handle.asType(SETTER_TYPE);
+	}
+
+	private static <T extends AccessibleObject> T accessible(final T member) {
+		member.setAccessible(true);
+		return member;
+	}
+
+	@Override
+	public String toString() {
+		return "PropertyAccessor [name=" + name + ", readable=" + isReadable() + ", writable=" + isWritable() + "]";
+	}
+}
@@ -0,0 +1,144 @@
+package now.gf.diggit.java.reflection.model;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Flyweight describing the type of a field: type name, element (and key) type names
+ * and kind flags packed in a single byte. Descriptors are interned, so that all fields
+ * of the same type share a single instance, and are reclaimed once no field uses them.
+ * Interning takes no global lock, so that classes can be described by several threads at once.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see FieldMetadata
+ */
+final class TypeDescriptor implements Serializable {
+	private static final long serialVersionUID = 6264069915932017183L;
+	private static final byte ARRAY = 1;
+	private static final byte LIST = 2;
+	private static final byte SET = 4;
+	private static final byte MAP = 8;
+	private static final byte MULTIPLE = ARRAY | LIST | SET;
+	private static final ConcurrentMap<PoolEntry, PoolEntry> pool = new ConcurrentHashMap<PoolEntry, PoolEntry>();
+	private static final ReferenceQueue<TypeDescriptor> reclaimed = new ReferenceQueue<TypeDescriptor>();
+
+	private final String typeName;
+	private final String baseTypeName;  // Null unless multiple or map
+	private final String keyTypeName;   // Null unless map
+	private final byte flags;
+
+	private TypeDescriptor(final String typeName, final String baseTypeName, final String keyTypeName, final byte flags) {
+		this.typeName = typeName;
+		this.baseTypeName = baseTypeName;
+		this.keyTypeName = keyTypeName;
+		this.flags = flags;
+	}
+
+	/**
+	 * Returns the shared descriptor of a type.
+	 */
+	static TypeDescriptor of(final String typeName, final String baseTypeName, final String keyTypeName, 
+			final boolean isArray, final boolean isList, final boolean isSet, final boolean isMap) {
+		byte flags = (byte) ((isArray ? ARRAY : 0) | (isList ? LIST : 0) | (isSet ? SET : 0) | (isMap ? MAP : 0));
+		return intern(new TypeDescriptor(typeName, baseTypeName, keyTypeName, flags));
+	}
+
+	private static TypeDescriptor intern(final TypeDescriptor descriptor) {
+		for (Reference<? extends TypeDescriptor> entry; (entry = reclaimed.poll()) != null; ) {
+			pool.remove(entry);
+		}
+
+		PoolEntry entry = new PoolEntry(descriptor, reclaimed);
+		while (true) {
+			PoolEntry existing = pool.putIfAbsent(entry, entry);
+			if (existing == null) return descriptor;
+			TypeDescriptor shared = existing.get();
+			if (shared != null) return shared;
+			pool.remove(existing, existing);  // Reclaimed meanwhile
+		}
+	}
+
+	String getTypeName() {
+		return typeName;
+	}
+
+	String getBaseTypeName() {
+		return baseTypeName;
+	}
+
+	String getKeyTypeName() {
+		return keyTypeName;
+	}
+
+	boolean isArray() {
+		return (flags & ARRAY) != 0;
+	}
+
+	boolean isList() {
+		return (flags & LIST) != 0;
+	}
+
+	boolean isSet() {
+		return (flags & SET) != 0;
+	}
+
+	boolean isMap() {
+		return (flags & MAP) != 0;
+	}
+
+	boolean isMultiple() {
+		return (flags & MULTIPLE) != 0;
+	}
+
+	private Object readResolve() throws ObjectStreamException {
+		return intern(this);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 31 * flags + (typeName == null ? 0 : typeName.hashCode());
+		result = 31 * result + (baseTypeName == null ? 0 : baseTypeName.hashCode());
+		return 31 * result + (keyTypeName == null ? 0 : keyTypeName.hashCode());
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof TypeDescriptor)) return false;
+		TypeDescriptor other = (TypeDescriptor) obj;
+		return flags == other.flags
+			&& (typeName == null ? other.typeName == null : typeName.equals(other.typeName))
+			&& (baseTypeName == null ? other.baseTypeName == null : baseTypeName.equals(other.baseTypeName))
+			&& (keyTypeName == null ? other.keyTypeName == null : keyTypeName.equals(other.keyTypeName));
+	}
+
+	/**
+	 * Weak pool entry, equal to the entries of equal descriptors as long as they are not reclaimed.
+	 */
+	private static final class PoolEntry extends WeakReference<TypeDescriptor> {
+		private final int hash;  // Kept to remove the entry once reclaimed
+
+		PoolEntry(final TypeDescriptor descriptor, final ReferenceQueue<TypeDescriptor> queue) {
+			super(descriptor, queue);
+			this.hash = descriptor.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof PoolEntry)) return false;
+			TypeDescriptor descriptor = get();
+			return descriptor != null && descriptor.equals(((PoolEntry) obj).get());
+		}
+	}
+}
@@ -12,10 +12,18 @@ import java.lang.reflect.Type;
 public class ClassUtils {
 	private ClassUtils() {}
 
+	/**
+	 * Returns the type of the objects a field contains: the first type argument of its
+	 * parameterized type, resolved against the hierarchy of the declaring class, or its component type.
+	 * 
+	 * @param field a field
+	 * @return contained type, null if it's not specified or not a concrete type (e.g. an unbound type variable)
+	 * @see TypeResolver
+	 */
 	public static Class<?> getActualType(final Field field) {
-		Type type = field.getGenericType();
+		Type type = TypeResolver.resolve(field.getDeclaringClass(), field.getGenericType());
 		if (type instanceof ParameterizedType) {
-			return (Class<?>)((ParameterizedType) type).getActualTypeArguments()[0];
+			return TypeResolver.toClass(((ParameterizedType) type).getActualTypeArguments()[0]);
 	    }
 		if (field.getType().isArray()) {
 			return field.getType().getComponentType();
@@ -0,0 +1,311 @@
+package now.gf.diggit.utils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * <p>This class realizes a bounded cache keyed by class identity, that can be safely shared
+ * among threads and doesn't keep class loaders from being unloaded.</p>
+ *
+ * <p>Each value lives in a per-class slot of a {@link ClassValue}, so it is reachable from
+ * its class only: a lookup reads the slot, without hashing or comparing class names, and
+ * same-named classes loaded by different class loaders never collide. Entries are bounded by
+ * an {@link EvictionPolicy}, enforced by a {@link ConcurrentLRUCache} of weak class references:
+ * evicting an entry empties its slot. Once a class is unloaded, its entry is dropped
+ * on next write, without notifying the cache listener.</p>
+ *
+ * <p>Values must not be reachable from the cache listener, otherwise their classes can't be unloaded.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ConcurrentLRUCache
+ */
+public class ClassValueCache <V> extends AbstractMap<Class<?>, V> {
+	private final EvictionPolicy<Class<?>, V> evictionPolicy;
+	private final ConcurrentLRUCache<ClassKey, ClassKey> keys;  // Bounds entries, holding their classes weakly
+	private final ReferenceQueue<Class<?>> unloaded;
+	private final ClassValue<Slot<V>> slots;
+	private volatile ICacheListener<Class<?>, V> cacheListener;
+
+	/**
+	 * Builds a new <tt>ClassValueCache</tt> by specifying its eviction policy.
+	 *
+	 * @param evictionPolicy eviction policy
+	 */
+	public ClassValueCache(final EvictionPolicy<Class<?>, V> evictionPolicy) {
+		if (evictionPolicy == null) throw new IllegalArgumentException("Unspecified eviction policy");
+		this.evictionPolicy = evictionPolicy;
+		this.unloaded = new ReferenceQueue<Class<?>>();
+		this.slots = new ClassValue<Slot<V>>() {
+			@Override
+			protected Slot<V> computeValue(final Class<?> type) {
+				return new Slot<V>();
+			}
+		};
+
+		// Keys carry the weight of their entries, computed when they are added
+		EvictionPolicy<ClassKey, ClassKey> keyPolicy = evictionPolicy.isWeighted()
+			? EvictionPolicy.<ClassKey, ClassKey>maxWeight(evictionPolicy.getMaximum(), new IWeigher<ClassKey, ClassKey>() {
+				public int weigh(final ClassKey key, final ClassKey value) {
+					return key.weight;
+				}
+			})
+			: EvictionPolicy.<ClassKey, ClassKey>maxSize((int) Math.min(evictionPolicy.getMaximum(), Integer.MAX_VALUE));
+		this.keys = new ConcurrentLRUCache<ClassKey, ClassKey>(evictionPolicy.isFrequencyAdmission() ? keyPolicy.withFrequencyAdmission() : keyPolicy);
+		this.keys.setCacheListener(new ICacheListener<ClassKey, ClassKey>() {
+			public void entryAdded(final ClassKey key, final ClassKey value) {}
+
+			public void entryRemoved(final ClassKey key, final ClassKey value, final boolean evicted) {
+				if (!evicted) return;  // Explicit removals empty their slot themselves
+				Class<?> clz = key.get();
+				if (clz != null) release(clz, key, true);
+			}
+		});
+	}
+
+	/**
+	 * Returns the eviction policy of this cache.
+	 *
+	 * @return eviction policy
+	 */
+	public EvictionPolicy<Class<?>, V> getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	/**
+	 * Returns the total weight of cached entries.
+	 *
+	 * @return total weight, the number of entries if they are not weighed
+	 */
+	public long getWeight() {
+		purge();
+		return keys.getWeight();
+	}
+
+	/**
+	 * Sets the listener notified when entries are added, removed or evicted.
+	 *
+	 * @param cacheListener thread-safe listener, null for none
+	 */
+	public void setCacheListener(final ICacheListener<Class<?>, V> cacheListener) {
+		this.cacheListener = cacheListener;
+	}
+
+	@Override
+	public V get(final Object key) {
+		if (!(key instanceof Class)) return null;
+
+		Entry<V> entry = slots.get((Class<?>) key).entry;
+		if (entry == null) return null;
+		keys.get(entry.key);  // Marks the entry as recently used
+		return entry.value;
+	}
+
+	/**
+	 * Returns the value associated to the specified class, computing it by means of
+	 * the passed loader if it is not cached yet. The loader is called at most once
+	 * per class: threads asking for the same class in the meantime wait for its result.
+	 * If the loader fails, nothing is cached.
+	 *
+	 * @param clz class to look for
+	 * @param loader computes the value when it is not cached
+	 * @return the cached or newly computed value
+	 * @throws ExecutionException wrapping the exception thrown by the loader
+	 */
+	public V get(final Class<?> clz, final Callable<? extends V> loader) throws ExecutionException {
+		if (clz == null || loader == null) throw new IllegalArgumentException("Both class and loader must be specified");
+
+		V value = get(clz);
+		if (value != null) return value;
+
+		Slot<V> slot = slots.get(clz);
+		synchronized (slot) {
+			Entry<V> entry = slot.entry;
+			if (entry != null) return entry.value;
+			try {
+				value = loader.call();
+			} catch (Exception e) {
+				throw new ExecutionException(e);
+			}
+			if (value == null) throw new ExecutionException(new IllegalStateException("No value computed for " + clz.getName()));
+			put(clz, value);
+			return value;
+		}
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return key instanceof Class && slots.get((Class<?>) key).entry != null;
+	}
+
+	@Override
+	public V put(final Class<?> clz, final V value) {
+		if (clz == null || value == null) throw new IllegalArgumentException("Both class and value must be specified");
+
+		purge();
+		ClassKey key = new ClassKey(clz, evictionPolicy.weigh(clz, value), unloaded);
+		@SuppressWarnings("unchecked")
+		Entry<V> previous = Slot.ENTRY.getAndSet(slots.get(clz), new Entry<V>(key, value));
+		if (previous != null) {
+			keys.remove(previous.key);
+			notifyRemoved(clz, previous.value, false);
+		}
+		ICacheListener<Class<?>, V> listener = cacheListener;
+		if (listener != null) listener.entryAdded(clz, value);
+		keys.put(key, key);  // May evict this very entry, with frequency admission
+		// A concurrent put or remove may have taken the entry before its key was added: drop the orphan key
+		Entry<V> entry = slots.get(clz).entry;
+		if (entry == null || entry.key != key) keys.remove(key);
+		return previous == null ? null : previous.value;
+	}
+
+	@Override
+	public V remove(final Object key) {
+		if (!(key instanceof Class)) return null;
+
+		Class<?> clz = (Class<?>) key;
+		@SuppressWarnings("unchecked")
+		Entry<V> entry = Slot.ENTRY.getAndSet(slots.get(clz), null);
+		if (entry == null) return null;
+		keys.remove(entry.key);
+		notifyRemoved(clz, entry.value, false);
+		return entry.value;
+	}
+
+	@Override
+	public void clear() {
+		for (ClassKey key : keys.keySet()) {
+			Class<?> clz = key.get();
+			if (clz != null) {
+				keys.remove(key);
+				release(clz, key, false);
+			}
+		}
+		keys.clear();
+	}
+
+	@Override
+	public int size() {
+		purge();
+		return keys.size();
+	}
+
+	@Override
+	public Set<Map.Entry<Class<?>, V>> entrySet() {
+		return new AbstractSet<Map.Entry<Class<?>, V>>() {
+			@Override
+			public Iterator<Map.Entry<Class<?>, V>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return ClassValueCache.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Empties the slot of a class if it still holds the entry of the specified key.
+	 */
+	private void release(final Class<?> clz, final ClassKey key, final boolean evicted) {
+		Slot<V> slot = slots.get(clz);
+		Entry<V> entry = slot.entry;
+		if (entry != null && entry.key == key && Slot.ENTRY.compareAndSet(slot, entry, null)) notifyRemoved(clz, entry.value, evicted);
+	}
+
+	private void notifyRemoved(final Class<?> clz, final V value, final boolean evicted) {
+		ICacheListener<Class<?>, V> listener = cacheListener;
+		if (listener != null) listener.entryRemoved(clz, value, evicted);
+	}
+
+	/**
+	 * Drops the entries of unloaded classes.
+	 */
+	private void purge() {
+		Reference<? extends Class<?>> reference;
+		while ((reference = unloaded.poll()) != null) {
+			keys.remove(reference);
+		}
+	}
+
+	/**
+	 * Weak reference to a cached class, identifying a single entry: keys are equal only to themselves.
+	 */
+	private static final class ClassKey extends WeakReference<Class<?>> {
+		private final int hash;
+		private final int weight;
+
+		ClassKey(final Class<?> clz, final int weight, final ReferenceQueue<Class<?>> queue) {
+			super(clz, queue);
+			this.hash = System.identityHashCode(clz);  // Same class, same hash: frequency is tracked across entries
+			this.weight = weight;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return this == obj;
+		}
+	}
+
+	private static final class Slot<V> {
+		@SuppressWarnings("rawtypes")
+		private static final AtomicReferenceFieldUpdater<Slot, Entry> ENTRY = AtomicReferenceFieldUpdater.newUpdater(Slot.class, Entry.class, "entry");
+
+		private volatile Entry<V> entry;  // Null if the class is not cached
+	}
+
+	private static final class Entry<V> {
+		private final ClassKey key;
+		private final V value;
+
+		Entry(final ClassKey key, final V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<Class<?>, V>> {
+		private final Iterator<ClassKey> classKeys = keys.keySet().iterator();
+		private Map.Entry<Class<?>, V> next;
+		private Class<?> lastClass;
+
+		public boolean hasNext() {
+			while (next == null && classKeys.hasNext()) {
+				ClassKey key = classKeys.next();
+				Class<?> clz = key.get();
+				Entry<V> entry = clz == null ? null : slots.get(clz).entry;
+				if (entry != null && entry.key == key) next = new SimpleImmutableEntry<Class<?>, V>(clz, entry.value);
+			}
+			return next != null;
+		}
+
+		public Map.Entry<Class<?>, V> next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			Map.Entry<Class<?>, V> entry = next;
+			next = null;
+			lastClass = entry.getKey();
+			return entry;
+		}
+
+		public void remove() {
+			if (lastClass == null) throw new IllegalStateException();
+			ClassValueCache.this.remove(lastClass);
+			lastClass = null;
+		}
+	}
+}
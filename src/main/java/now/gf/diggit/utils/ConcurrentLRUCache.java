@@ -0,0 +1,440 @@
+package now.gf.diggit.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>This class realizes a bounded cache that can be safely shared among threads.
+ * Lookups never lock: entries live in a {@link ConcurrentHashMap} and a read
+ * only marks the entry as recently used. When an insertion pushes the cache
+ * over its maximum size, the writer evicts entries following the CLOCK
+ * (second-chance) approximation of LRU order. Removed and replaced entries are
+ * left in the clock, to be skipped by the sweep, so that removals take constant time:
+ * once they outnumber live entries, the clock is purged of them.</p>
+ *
+ * <p>Alternatively, an {@link EvictionPolicy} can bound the total weight of entries
+ * rather than their number, and admit new entries based on their access frequency:
+ * the entry just added is then evicted in place of the CLOCK victim when it was
+ * accessed less often.</p>
+ *
+ * <p>Values can be computed on demand through {@link #get(Object, Callable)}:
+ * the computation runs at most once per key, and concurrent callers missing
+ * on the same key wait for the result of the first one.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see LRUCache
+ */
+public class ConcurrentLRUCache <K,V> extends AbstractMap<K, V> {
+	private final int maxSize;
+	private final EvictionPolicy<K, V> evictionPolicy;
+	private final FrequencySketch frequencySketch;  // Null without frequency admission
+	private final AtomicLong weight;  // Total weight of entries, if weighed
+	private final ConcurrentHashMap<K, Node<K, V>> map;
+	private final ConcurrentLinkedQueue<Node<K, V>> clock;  // Entries in insertion order, scanned for eviction
+	private final AtomicInteger deadNodes;  // Removed or replaced entries since the last purge, some possibly swept already
+	private final ReentrantLock evictionLock;
+	private volatile ICacheListener<K, V> cacheListener;
+
+	/**
+	 * Builds a new <tt>ConcurrentLRUCache</tt> by specifying its maximum size.
+	 *
+	 * @param maxSize maximum cache size: must be at least 1
+	 */
+	public ConcurrentLRUCache(final int maxSize) {
+		this(EvictionPolicy.<K, V>maxSize(maxSize));
+	}
+
+	/**
+	 * Builds a new <tt>ConcurrentLRUCache</tt> by specifying its eviction policy.
+	 *
+	 * @param evictionPolicy eviction policy
+	 */
+	public ConcurrentLRUCache(final EvictionPolicy<K, V> evictionPolicy) {
+		if (evictionPolicy == null) throw new IllegalArgumentException("Unspecified eviction policy");
+		this.evictionPolicy = evictionPolicy;
+		this.frequencySketch = evictionPolicy.newFrequencySketch();
+		this.maxSize = (int) Math.min(evictionPolicy.getMaximum(), Integer.MAX_VALUE);
+		this.weight = new AtomicLong();
+		this.map = new ConcurrentHashMap<K, Node<K, V>>();
+		this.clock = new ConcurrentLinkedQueue<Node<K, V>>();
+		this.deadNodes = new AtomicInteger();
+		this.evictionLock = new ReentrantLock();
+	}
+
+	/**
+	 * Returns maximum cache size.
+	 *
+	 * @return maximum cache size
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns the eviction policy of this cache.
+	 *
+	 * @return eviction policy
+	 */
+	public EvictionPolicy<K, V> getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	/**
+	 * Returns the total weight of cached entries.
+	 *
+	 * @return total weight, the number of entries if they are not weighed
+	 */
+	public long getWeight() {
+		return evictionPolicy.isWeighted() ? weight.get() : map.size();
+	}
+
+	/**
+	 * Sets the listener notified when entries are added, removed or evicted.
+	 * 
+	 * @param cacheListener thread-safe listener, null for none
+	 */
+	public void setCacheListener(final ICacheListener<K, V> cacheListener) {
+		this.cacheListener = cacheListener;
+	}
+
+	/**
+	 * Returns the value associated to the specified key, computing it by means of
+	 * the passed loader if it is not cached yet. The loader is called at most once
+	 * per key: threads asking for the same key in the meantime wait for its result.
+	 * If the loader fails, nothing is cached and every waiting thread gets the failure.
+	 *
+	 * @param key key to look for
+	 * @param loader computes the value when it is not cached
+	 * @return the cached or newly computed value
+	 * @throws ExecutionException wrapping the exception thrown by the loader
+	 */
+	public V get(final K key, final Callable<? extends V> loader) throws ExecutionException {
+		if (key == null || loader == null) throw new IllegalArgumentException("Both key and loader must be specified");
+
+		if (frequencySketch != null) frequencySketch.increment(key);
+		Node<K, V> node = map.get(key);
+		if (node == null) {
+			Node<K, V> newNode = new Node<K, V>(key, new FutureTask<V>(new Callable<V>() {
+				public V call() throws Exception {
+					return loader.call();
+				}
+			}));
+			node = map.putIfAbsent(key, newNode);
+			if (node == null) {
+				// This thread won the race: compute the value
+				node = newNode;
+				node.future.run();
+				if (node.isFailed()) map.remove(key, node); else added(node);
+			}
+		}
+		node.referenced = true;
+		return node.await();
+	}
+
+	@Override
+	public V get(final Object key) {
+		if (key == null) return null;
+
+		if (frequencySketch != null) frequencySketch.increment(key);
+		Node<K, V> node = map.get(key);
+		if (node == null) return null;
+		node.referenced = true;
+		return node.getValue();
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		if (key == null) return false;
+
+		Node<K, V> node = map.get(key);
+		return node != null && node.getValue() != null;
+	}
+
+	@Override
+	public V put(final K key, final V value) {
+		if (key == null || value == null) throw new IllegalArgumentException("Both key and value must be specified");
+
+		if (frequencySketch != null) frequencySketch.increment(key);
+		Node<K, V> node = new Node<K, V>(key, value);
+		Node<K, V> previous = map.put(key, node);
+		if (previous != null) unlink(previous);
+		added(node);
+		return previous == null ? null : previous.getValue();
+	}
+
+	/**
+	 * Copies all of the mappings from the specified map to this cache in a single step: 
+	 * no other writer and no eviction can interleave with the copy, and eviction runs
+	 * once, when every mapping has been added. With frequency admission, each mapping 
+	 * is rather admitted or evicted as it is added.
+	 */
+	@Override
+	public void putAll(final Map<? extends K, ? extends V> m) {
+		if (m == null || m.isEmpty()) return;
+
+		evictionLock.lock();
+		try {
+			for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+				if (entry.getKey() == null || entry.getValue() == null) throw new IllegalArgumentException("Both key and value must be specified");
+
+				if (frequencySketch != null) frequencySketch.increment(entry.getKey());
+				Node<K, V> node = new Node<K, V>(entry.getKey(), entry.getValue());
+				Node<K, V> previous = map.put(entry.getKey(), node);
+				if (previous != null) unlink(previous);
+				weigh(node);
+				notifyAdded(node);
+				clock.offer(node);
+				if (frequencySketch != null && isOverflowing()) evict(node);
+			}
+			if (isOverflowing()) evict(null);
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	@Override
+	public V remove(final Object key) {
+		if (key == null) return null;
+
+		Node<K, V> node = map.remove(key);
+		if (node != null) unlink(node);
+		return node == null ? null : node.getValue();
+	}
+
+	@Override
+	public void clear() {
+		evictionLock.lock();
+		try {
+			for (Node<K, V> node : map.values()) {
+				if (map.remove(node.key, node)) removed(node, false);
+			}
+			clock.clear();
+			deadNodes.set(0);
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return map.size();
+			}
+		};
+	}
+
+	private void added(final Node<K, V> node) {
+		weigh(node);
+		notifyAdded(node);
+		clock.offer(node);
+		if (isOverflowing()) evict(node);
+	}
+
+	private boolean isOverflowing() {
+		return evictionPolicy.isWeighted() ? weight.get() > evictionPolicy.getMaximum() : map.size() > maxSize;
+	}
+
+	/**
+	 * Accounts the weight of an entry just added, unless it was already removed.
+	 */
+	private void weigh(final Node<K, V> node) {
+		if (!evictionPolicy.isWeighted()) return;
+		int nodeWeight = evictionPolicy.weigh(node.key, node.getValue());
+		if (Node.WEIGHT.compareAndSet(node, 0, nodeWeight)) weight.addAndGet(nodeWeight);
+	}
+
+	/**
+	 * Notifies an addition. Since additions and removals of the same entry may be 
+	 * notified by different threads, a removal that overtook the addition is notified again.
+	 */
+	private void notifyAdded(final Node<K, V> node) {
+		ICacheListener<K, V> listener = cacheListener;
+		if (listener == null) return;
+
+		listener.entryAdded(node.key, node.getValue());
+		if (map.get(node.key) != node) listener.entryRemoved(node.key, node.getValue(), false);
+	}
+
+	/**
+	 * Unaccounts an entry removed or replaced. Its node is left in the clock, 
+	 * where it is skipped, until the clock is purged of dead nodes.
+	 */
+	private void unlink(final Node<K, V> node) {
+		removed(node, false);
+		if (deadNodes.incrementAndGet() > map.size()) purge();
+	}
+
+	/**
+	 * Drops dead nodes from the clock, so that they don't hold their values 
+	 * any longer. Runs once dead nodes outnumber live ones, so that its cost 
+	 * is shared among the removals that left them.
+	 */
+	private void purge() {
+		if (!evictionLock.tryLock()) return;  // Another writer is sweeping the clock
+		try {
+			deadNodes.set(0);
+			for (Iterator<Node<K, V>> nodes = clock.iterator(); nodes.hasNext();) {
+				Node<K, V> node = nodes.next();
+				if (map.get(node.key) != node) nodes.remove();
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void removed(final Node<K, V> node, final boolean evicted) {
+		if (evictionPolicy.isWeighted()) {
+			int nodeWeight = Node.WEIGHT.getAndSet(node, Node.REMOVED);
+			if (nodeWeight > 0) weight.addAndGet(-nodeWeight);
+		}
+		ICacheListener<K, V> listener = cacheListener;
+		V value = node.getValue();
+		if (listener != null && value != null) listener.entryRemoved(node.key, value, evicted);
+	}
+
+	/**
+	 * Sweeps the clock removing entries that haven't been read since the last sweep,
+	 * until the cache is back within its bound. Entries still being computed
+	 * are never evicted. With frequency admission, the first victim is compared with 
+	 * the candidate entry just added, and the least frequently accessed of the two is evicted.
+	 */
+	private void evict(final Node<K, V> candidate) {
+		if (!evictionLock.tryLock()) return;  // Another writer is already evicting
+		try {
+			boolean admission = frequencySketch != null && candidate != null;
+			int budget = 2 * (map.size() + deadNodes.get());  // Bounds the scan without counting the clock
+			while (isOverflowing() && budget-- > 0) {
+				Node<K, V> node = clock.poll();
+				if (node == null) break;
+				if (map.get(node.key) != node) continue;  // Dead: entry removed or replaced
+				if (node.referenced || !node.future.isDone()) {
+					node.referenced = false;
+					clock.offer(node);
+					continue;
+				}
+				if (admission && node != candidate) {
+					admission = false;
+					if (frequencySketch.frequency(candidate.key) < frequencySketch.frequency(node.key) && map.remove(candidate.key, candidate)) {
+						// Candidate rejected: the victim is spared
+						removed(candidate, true);
+						deadNodes.incrementAndGet();
+						clock.offer(node);
+						continue;
+					}
+				}
+				if (map.remove(node.key, node)) removed(node, true);
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private static final class Node<K,V> {
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<Node> WEIGHT = AtomicIntegerFieldUpdater.newUpdater(Node.class, "weight");
+		private static final int REMOVED = -1;
+
+		private final K key;
+		private final FutureTask<V> future;
+		private volatile boolean referenced;
+		private volatile int weight;  // Accounted weight, REMOVED once unaccounted
+
+		Node(final K key, final FutureTask<V> future) {
+			this.key = key;
+			this.future = future;
+		}
+
+		Node(final K key, final V value) {
+			this(key, new FutureTask<V>(new Runnable() { public void run() {} }, value));
+			this.future.run();
+		}
+
+		/**
+		 * Returns the value if already computed, null otherwise.
+		 */
+		V getValue() {
+			if (!future.isDone()) return null;
+			try {
+				return future.get();
+			} catch (Exception e) {
+				return null;
+			}
+		}
+
+		boolean isFailed() {
+			return getValue() == null;
+		}
+
+		/**
+		 * Waits uninterruptibly for the value to be computed.
+		 */
+		V await() throws ExecutionException {
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return future.get();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} finally {
+				if (interrupted) Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		private final Iterator<Node<K, V>> nodes = map.values().iterator();
+		private Map.Entry<K, V> next;
+		private K lastKey;
+
+		public boolean hasNext() {
+			while (next == null && nodes.hasNext()) {
+				Node<K, V> node = nodes.next();
+				V value = node.getValue();
+				if (value != null) next = new SimpleImmutableEntry<K, V>(node.key, value);
+			}
+			return next != null;
+		}
+
+		public Map.Entry<K, V> next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			Map.Entry<K, V> entry = next;
+			next = null;
+			lastKey = entry.getKey();
+			return entry;
+		}
+
+		public void remove() {
+			if (lastKey == null) throw new IllegalStateException();
+			ConcurrentLRUCache.this.remove(lastKey);
+			lastKey = null;
+		}
+	}
+}
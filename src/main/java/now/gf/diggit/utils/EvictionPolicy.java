@@ -0,0 +1,107 @@
+package now.gf.diggit.utils;
+
+/**
+ * <p>Describes how a bounded cache chooses the entries to evict:</p>
+ * <ul>
+ * <li>the bound is either a maximum number of entries or, given an {@link IWeigher},
+ * a maximum total weight, so that large entries take up more room than small ones;</li>
+ * <li>with frequency admission (in the style of TinyLFU), an entry added to a full cache
+ * only displaces the eviction victim if it was accessed at least as often recently,
+ * otherwise the new entry itself is evicted. A burst of entries used once, e.g. a bulk load,
+ * then can't flush entries in frequent use.</li>
+ * </ul>
+ *
+ * <p>Policies are immutable.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see ConcurrentLRUCache#ConcurrentLRUCache(EvictionPolicy)
+ */
+public final class EvictionPolicy <K,V> {
+	private final long maximum;
+	private final IWeigher<? super K, ? super V> weigher;  // Null if the number of entries is bounded
+	private final boolean frequencyAdmission;
+
+	private EvictionPolicy(final long maximum, final IWeigher<? super K, ? super V> weigher, final boolean frequencyAdmission) {
+		this.maximum = maximum;
+		this.weigher = weigher;
+		this.frequencyAdmission = frequencyAdmission;
+	}
+
+	/**
+	 * Returns a policy bounding the number of entries, evicting the least recently used first.
+	 *
+	 * @param maxSize maximum number of entries: must be at least 1
+	 * @return eviction policy
+	 */
+	public static <K,V> EvictionPolicy<K, V> maxSize(final int maxSize) {
+		if (maxSize < 1) throw new IllegalArgumentException("LRU cache must contain at least one entry");
+		return new EvictionPolicy<K, V>(maxSize, null, false);
+	}
+
+	/**
+	 * Returns a policy bounding the total weight of entries, evicting the least recently used first.
+	 *
+	 * @param maxWeight maximum total weight: must be at least 1
+	 * @param weigher computes the weight of each entry
+	 * @return eviction policy
+	 */
+	public static <K,V> EvictionPolicy<K, V> maxWeight(final long maxWeight, final IWeigher<? super K, ? super V> weigher) {
+		if (maxWeight < 1) throw new IllegalArgumentException("Maximum weight must be at least 1");
+		if (weigher == null) throw new IllegalArgumentException("Unspecified weigher");
+		return new EvictionPolicy<K, V>(maxWeight, weigher, false);
+	}
+
+	/**
+	 * Returns a copy of this policy that admits new entries into a full cache based on
+	 * their recent access frequency.
+	 *
+	 * @return eviction policy
+	 */
+	public EvictionPolicy<K, V> withFrequencyAdmission() {
+		return new EvictionPolicy<K, V>(maximum, weigher, true);
+	}
+
+	/**
+	 * Returns the maximum number of entries, or the maximum total weight if entries are weighed.
+	 *
+	 * @return cache bound
+	 */
+	public long getMaximum() {
+		return maximum;
+	}
+
+	public IWeigher<? super K, ? super V> getWeigher() {
+		return weigher;
+	}
+
+	public boolean isWeighted() {
+		return weigher != null;
+	}
+
+	public boolean isFrequencyAdmission() {
+		return frequencyAdmission;
+	}
+
+	/**
+	 * Returns the weight of an entry, 1 if entries are not weighed.
+	 */
+	int weigh(final K key, final V value) {
+		if (weigher == null) return 1;
+		int weight = weigher.weigh(key, value);
+		if (weight < 0) throw new IllegalArgumentException("Negative weight " + weight + " for key " + key);
+		return weight;
+	}
+
+	/**
+	 * Returns a new frequency sketch if the policy admits entries based on frequency, null otherwise.
+	 */
+	FrequencySketch newFrequencySketch() {
+		return frequencyAdmission ? new FrequencySketch(maximum) : null;
+	}
+
+	@Override
+	public String toString() {
+		return "EvictionPolicy [" + (weigher == null ? "maxSize=" : "maxWeight=") + maximum
+			+ ", frequencyAdmission=" + frequencyAdmission + "]";
+	}
+}
@@ -0,0 +1,106 @@
+package now.gf.diggit.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Approximate access frequency of keys, for TinyLFU admission: a count-min sketch
+ * of 4-bit counters, sixteen to a <tt>long</tt>, four counters per key. Counters are
+ * halved once enough accesses were recorded, so that estimates follow recent history.</p>
+ *
+ * <p>Counters are updated by compare-and-set, without locking the read path of a cache:
+ * concurrent increments of counters sharing a <tt>long</tt> are all applied, and a full
+ * counter is never carried into its neighbour. Halving runs in a single thread at a time.</p>
+ *
+ * @author Giorgio Ferrara
+ * @see EvictionPolicy#withFrequencyAdmission()
+ */
+final class FrequencySketch {
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777777777777777L;  // Drops the low bit of each counter once shifted
+	private static final int MAX_TABLE_SIZE = 1 << 22;
+
+	private final AtomicLongArray table;
+	private final int tableMask;
+	private final int sampleSize;
+	private final AtomicInteger size;  // Increments since the last reset
+
+	/**
+	 * Builds a sketch sized for the specified number of entries.
+	 */
+	FrequencySketch(final long expectedEntries) {
+		int tableSize = (int) Math.min(Math.max(expectedEntries, 16), MAX_TABLE_SIZE);
+		tableSize = Integer.highestOneBit(tableSize * 2 - 1);
+		this.table = new AtomicLongArray(tableSize);
+		this.tableMask = tableSize - 1;
+		this.sampleSize = 10 * tableSize;
+		this.size = new AtomicInteger();
+	}
+
+	/**
+	 * Returns the estimated number of recent accesses to a key, at most 15.
+	 */
+	int frequency(final Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = 15;
+		for (int i = 0; i < SEEDS.length; i++) {
+			long slot = slot(hash, i);
+			frequency = Math.min(frequency, (int) ((table.get(index(slot)) >>> offset(slot)) & 0xFL));
+		}
+		return frequency;
+	}
+
+	/**
+	 * Records an access to a key.
+	 */
+	void increment(final Object key) {
+		int hash = spread(key.hashCode());
+		boolean incremented = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			long slot = slot(hash, i);
+			incremented |= increment(index(slot), offset(slot));
+		}
+		if (incremented && size.incrementAndGet() >= sampleSize) reset();
+	}
+
+	/**
+	 * Increments a counter unless it is full, retrying if another thread changed its <tt>long</tt> meanwhile.
+	 */
+	private boolean increment(final int index, final int offset) {
+		long mask = 0xFL << offset;
+		while (true) {
+			long current = table.get(index);
+			if ((current & mask) == mask) return false;
+			if (table.compareAndSet(index, current, current + (1L << offset))) return true;
+		}
+	}
+
+	private synchronized void reset() {
+		if (size.get() < sampleSize) return;  // Another thread just halved counters
+		for (int i = 0; i < table.length(); i++) {
+			long current;
+			do {
+				current = table.get(i);
+			} while (!table.compareAndSet(i, current, (current >>> 1) & RESET_MASK));
+		}
+		size.addAndGet(-sampleSize / 2);
+	}
+
+	private static long slot(final int hash, final int i) {
+		long slot = (hash + SEEDS[i]) * SEEDS[i];
+		return slot + (slot >>> 32);
+	}
+
+	private int index(final long slot) {
+		return (int) slot & tableMask;
+	}
+
+	private static int offset(final long slot) {
+		return ((int) (slot >>> 40) & 15) << 2;
+	}
+
+	private static int spread(final int hashCode) {
+		int hash = hashCode * 0x9e3779b9;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,30 @@
+package now.gf.diggit.utils;
+
+/**
+ * <p>Gets notified when entries enter or leave a cache, either because they are
+ * explicitly removed, replaced or evicted. Notifications may come from any thread
+ * writing to the cache, therefore listeners of concurrent caches must be thread-safe.</p>
+ * 
+ * @author Giorgio Ferrara
+ * @see LRUCache
+ * @see ConcurrentLRUCache
+ */
+public interface ICacheListener <K,V> {
+	/**
+	 * Called when an entry is added to the cache.
+	 * 
+	 * @param key entry key
+	 * @param value entry value
+	 */
+	public void entryAdded(K key, V value);
+	
+	/**
+	 * Called when an entry leaves the cache. With concurrent caches, the same
+	 * removal may occasionally be notified twice.
+	 * 
+	 * @param key entry key
+	 * @param value entry value
+	 * @param evicted true if the entry was evicted to make room, false if it was removed or replaced
+	 */
+	public void entryRemoved(K key, V value, boolean evicted);
+}
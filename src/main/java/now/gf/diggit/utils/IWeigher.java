@@ -0,0 +1,18 @@
+package now.gf.diggit.utils;
+
+/**
+ * <p>Computes the weight of cache entries, bounded as a whole by a weighted {@link EvictionPolicy}.</p>
+ *
+ * @author Giorgio Ferrara
+ */
+public interface IWeigher <K,V> {
+	/**
+	 * Returns the weight of an entry. An entry is weighed once, when it is added:
+	 * its weight must not change while it is cached.
+	 *
+	 * @param key entry key
+	 * @param value entry value
+	 * @return entry weight, not negative
+	 */
+	int weigh(K key, V value);
+}
@@ -14,6 +14,7 @@ import java.util.Map;
 public class LRUCache <K,V> extends LinkedHashMap<K, V>{
 	private static final long serialVersionUID = 7391210019309654014L;
 	private int maxSize;
+	private transient ICacheListener<K, V> cacheListener;
 	
 	/**
 	 * Builds a new <tt>LRUCache</tt> by specifying its maximum size.
@@ -28,7 +29,53 @@ public class LRUCache <K,V> extends LinkedHashMap<K, V>{
 	
 	@Override
 	protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-		return size() > maxSize;
+		boolean evict = size() > maxSize;
+		if (evict && cacheListener != null) cacheListener.entryRemoved(eldest.getKey(), eldest.getValue(), true);
+		return evict;
+	}
+	
+	@Override
+	public V put(final K key, final V value) {
+		V previous = super.put(key, value);
+		if (cacheListener != null) {
+			if (previous != null) cacheListener.entryRemoved(key, previous, false);
+			cacheListener.entryAdded(key, value);
+		}
+		return previous;
+	}
+	
+	@Override
+	public void putAll(final Map<? extends K, ? extends V> m) {
+		for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public V remove(final Object key) {
+		V previous = super.remove(key);
+		if (previous != null && cacheListener != null) cacheListener.entryRemoved((K) key, previous, false);
+		return previous;
+	}
+	
+	@Override
+	public void clear() {
+		if (cacheListener != null) {
+			for (Map.Entry<K, V> entry : entrySet()) {
+				cacheListener.entryRemoved(entry.getKey(), entry.getValue(), false);
+			}
+		}
+		super.clear();
+	}
+	
+	/**
+	 * Sets the listener notified when entries are added, removed or evicted.
+	 * 
+	 * @param cacheListener listener, null for none
+	 */
+	public void setCacheListener(final ICacheListener<K, V> cacheListener) {
+		this.cacheListener = cacheListener;
 	}
 	
 	/**
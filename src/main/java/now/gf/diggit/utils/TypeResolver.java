@@ -0,0 +1,343 @@
+package now.gf.diggit.utils;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Resolves generic types against a class hierarchy: type variables declared by the
+ * superclasses and interfaces of a class are replaced by the type arguments the class
+ * binds them to, e.g. the element type of <tt>List&lt;T&gt;</tt> declared by <tt>Base&lt;T&gt;</tt>
+ * is <tt>String</tt> within <tt>Sub extends Base&lt;String&gt;</tt>.</p>
+ *
+ * <p>Results are cached per resolution context (the class the type is seen from) and type,
+ * and type arguments of supertypes are cached per class: caches are tied to classes the way
+ * <tt>ClassValue</tt> is, so they don't prevent class loaders from being collected.</p>
+ *
+ * @author Giorgio Ferrara
+ */
+public final class TypeResolver {
+	private static final ClassValue<Map<TypeVariable<?>, Type>> bindings = new ClassValue<Map<TypeVariable<?>, Type>>() {
+		@Override
+		protected Map<TypeVariable<?>, Type> computeValue(final Class<?> type) {
+			Map<TypeVariable<?>, Type> result = new HashMap<TypeVariable<?>, Type>();
+			collectBindings(type, result);
+			return result.isEmpty() ? Collections.<TypeVariable<?>, Type>emptyMap() : result;
+		}
+	};
+	private static final ClassValue<ConcurrentMap<Type, Type>> resolvedTypes = new ClassValue<ConcurrentMap<Type, Type>>() {
+		@Override
+		protected ConcurrentMap<Type, Type> computeValue(final Class<?> type) {
+			return new ConcurrentHashMap<Type, Type>(4);
+		}
+	};
+	private static final ClassValue<ConcurrentMap<Class<?>, Type[]>> supertypeArguments = new ClassValue<ConcurrentMap<Class<?>, Type[]>>() {
+		@Override
+		protected ConcurrentMap<Class<?>, Type[]> computeValue(final Class<?> type) {
+			return new ConcurrentHashMap<Class<?>, Type[]>(4);
+		}
+	};
+
+	private TypeResolver() {}
+
+	/**
+	 * Resolves a type as seen from a class, replacing the type variables the class
+	 * hierarchy binds. Unbound type variables, e.g. those declared by the class itself, are kept.
+	 *
+	 * @param context class the type is seen from, e.g. the class declaring a field
+	 * @param type type to resolve, e.g. the generic type of a field
+	 * @return resolved type
+	 */
+	public static Type resolve(final Class<?> context, final Type type) {
+		if (context == null) throw new IllegalArgumentException("Unspecified context");
+		if (type == null) throw new IllegalArgumentException("Unspecified type");
+		if (type instanceof Class) return type;
+
+		ConcurrentMap<Type, Type> cache = resolvedTypes.get(context);
+		Type result = cache.get(type);
+		if (result == null) {
+			result = substitute(type, bindings.get(context));
+			Type previous = cache.putIfAbsent(type, result);
+			if (previous != null) result = previous;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the type arguments a type, seen from a class, passes to one of its supertypes,
+	 * e.g. <tt>[String, Integer]</tt> for <tt>Map</tt> and <tt>HashMap&lt;String, Integer&gt;</tt>.
+	 * Arguments the type doesn't bind, e.g. when it's raw, are the type variables of its class.
+	 *
+	 * @param context class the type is seen from, e.g. the class declaring a field
+	 * @param type type to resolve, e.g. the generic type of a field
+	 * @param supertype generic class or interface
+	 * @return type arguments of the supertype, null if the type is not a subtype of it
+	 */
+	public static Type[] getTypeArguments(final Class<?> context, final Type type, final Class<?> supertype) {
+		if (supertype == null) throw new IllegalArgumentException("Unspecified supertype");
+		Type resolvedType = resolve(context, type);
+		Class<?> rawType = getRawType(resolvedType);
+		if (rawType == null || !supertype.isAssignableFrom(rawType)) return null;
+
+		Type[] arguments = getSupertypeArguments(rawType, supertype);
+		if (!(resolvedType instanceof ParameterizedType)) return arguments.clone();
+
+		TypeVariable<?>[] variables = rawType.getTypeParameters();
+		Type[] actualArguments = ((ParameterizedType) resolvedType).getActualTypeArguments();
+		Map<TypeVariable<?>, Type> typeBindings = new HashMap<TypeVariable<?>, Type>(variables.length * 4 / 3 + 1);
+		for (int i = 0; i < variables.length && i < actualArguments.length; i++) {
+			typeBindings.put(variables[i], actualArguments[i]);
+		}
+		Type[] result = new Type[arguments.length];
+		for (int i = 0; i < arguments.length; i++) {
+			result[i] = substitute(arguments[i], typeBindings);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the class a type stands for: the class itself, the raw class of a parameterized type,
+	 * the array class of a generic array and the bound of an upper-bounded wildcard.
+	 *
+	 * @param type a type
+	 * @return the class, null if the type doesn't denote a concrete type (type variables,
+	 * unbounded or lower-bounded wildcards)
+	 */
+	public static Class<?> toClass(final Type type) {
+		if (type instanceof Class) return (Class<?>) type;
+		if (type instanceof ParameterizedType) return (Class<?>) ((ParameterizedType) type).getRawType();
+		if (type instanceof GenericArrayType) {
+			Class<?> componentType = toClass(((GenericArrayType) type).getGenericComponentType());
+			return componentType == null ? null : Array.newInstance(componentType, 0).getClass();
+		}
+		if (type instanceof WildcardType) {
+			WildcardType wildcard = (WildcardType) type;
+			Type[] upperBounds = wildcard.getUpperBounds();
+			if (wildcard.getLowerBounds().length > 0 || upperBounds.length == 0 || upperBounds[0] == Object.class) return null;
+			return toClass(upperBounds[0]);
+		}
+		return null;
+	}
+
+	private static Class<?> getRawType(final Type type) {
+		if (type instanceof Class) return (Class<?>) type;
+		if (type instanceof ParameterizedType) return (Class<?>) ((ParameterizedType) type).getRawType();
+		return null;
+	}
+
+	/**
+	 * Returns the type arguments a class passes to one of its supertypes, in terms of its own type variables.
+	 */
+	private static Type[] getSupertypeArguments(final Class<?> clz, final Class<?> supertype) {
+		ConcurrentMap<Class<?>, Type[]> cache = supertypeArguments.get(clz);
+		Type[] result = cache.get(supertype);
+		if (result == null) {
+			TypeVariable<?>[] variables = supertype.getTypeParameters();
+			Map<TypeVariable<?>, Type> typeBindings = bindings.get(clz);
+			result = new Type[variables.length];
+			for (int i = 0; i < variables.length; i++) {
+				Type bound = typeBindings.get(variables[i]);
+				result[i] = bound == null ? variables[i] : bound;
+			}
+			Type[] previous = cache.putIfAbsent(supertype, result);
+			if (previous != null) result = previous;
+		}
+		return result;
+	}
+
+	/**
+	 * Binds the type variables of the supertypes of a type, from the type up, so that
+	 * arguments passed along are already resolved when the supertype declaring the variable is met.
+	 */
+	private static void collectBindings(final Type type, final Map<TypeVariable<?>, Type> typeBindings) {
+		Class<?> clz = getRawType(type);
+		if (clz == null) return;
+		if (type instanceof ParameterizedType) {
+			TypeVariable<?>[] variables = clz.getTypeParameters();
+			Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+			for (int i = 0; i < variables.length && i < arguments.length; i++) {
+				if (!typeBindings.containsKey(variables[i])) typeBindings.put(variables[i], substitute(arguments[i], typeBindings));
+			}
+		}
+		Type superclass = clz.getGenericSuperclass();
+		if (superclass != null) collectBindings(superclass, typeBindings);
+		for (Type superinterface : clz.getGenericInterfaces()) {
+			collectBindings(superinterface, typeBindings);
+		}
+	}
+
+	private static Type substitute(final Type type, final Map<TypeVariable<?>, Type> typeBindings) {
+		if (typeBindings.isEmpty() || type instanceof Class) return type;
+		if (type instanceof TypeVariable) {
+			Type bound = typeBindings.get(type);
+			return bound == null ? type : bound;
+		}
+		if (type instanceof ParameterizedType) {
+			ParameterizedType parameterizedType = (ParameterizedType) type;
+			Type[] arguments = substitute(parameterizedType.getActualTypeArguments(), typeBindings);
+			Type ownerType = parameterizedType.getOwnerType();
+			Type resolvedOwnerType = ownerType == null ? null : substitute(ownerType, typeBindings);
+			if (arguments == null && resolvedOwnerType == ownerType) return type;
+			return new ResolvedParameterizedType((Class<?>) parameterizedType.getRawType(), resolvedOwnerType,
+				arguments == null ? parameterizedType.getActualTypeArguments() : arguments);
+		}
+		if (type instanceof GenericArrayType) {
+			Type componentType = ((GenericArrayType) type).getGenericComponentType();
+			Type resolvedComponentType = substitute(componentType, typeBindings);
+			if (resolvedComponentType == componentType) return type;
+			if (resolvedComponentType instanceof Class) return Array.newInstance((Class<?>) resolvedComponentType, 0).getClass();
+			return new ResolvedGenericArrayType(resolvedComponentType);
+		}
+		if (type instanceof WildcardType) {
+			WildcardType wildcard = (WildcardType) type;
+			Type[] upperBounds = substitute(wildcard.getUpperBounds(), typeBindings);
+			Type[] lowerBounds = substitute(wildcard.getLowerBounds(), typeBindings);
+			if (upperBounds == null && lowerBounds == null) return type;
+			return new ResolvedWildcardType(upperBounds == null ? wildcard.getUpperBounds() : upperBounds,
+				lowerBounds == null ? wildcard.getLowerBounds() : lowerBounds);
+		}
+		return type;
+	}
+
+	/**
+	 * Substitutes an array of types, returning null if none of them changed.
+	 */
+	private static Type[] substitute(final Type[] types, final Map<TypeVariable<?>, Type> typeBindings) {
+		Type[] result = null;
+		for (int i = 0; i < types.length; i++) {
+			Type resolvedType = substitute(types[i], typeBindings);
+			if (resolvedType != types[i]) {
+				if (result == null) result = types.clone();
+				result[i] = resolvedType;
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Types built by substitution: equality and hash codes follow the contract of the JDK
+	 * implementations, so that resolved types compare equal to the types reflection returns.
+	 */
+
+	private static final class ResolvedParameterizedType implements ParameterizedType {
+		private final Class<?> rawType;
+		private final Type ownerType;
+		private final Type[] actualTypeArguments;
+
+		ResolvedParameterizedType(final Class<?> rawType, final Type ownerType, final Type[] actualTypeArguments) {
+			this.rawType = rawType;
+			this.ownerType = ownerType;
+			this.actualTypeArguments = actualTypeArguments;
+		}
+
+		public Type[] getActualTypeArguments() {
+			return actualTypeArguments.clone();
+		}
+
+		public Type getRawType() {
+			return rawType;
+		}
+
+		public Type getOwnerType() {
+			return ownerType;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(actualTypeArguments) ^ Objects.hashCode(ownerType) ^ rawType.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof ParameterizedType)) return false;
+			ParameterizedType other = (ParameterizedType) obj;
+			return rawType.equals(other.getRawType()) && Objects.equals(ownerType, other.getOwnerType())
+				&& Arrays.equals(actualTypeArguments, other.getActualTypeArguments());
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder buffer = new StringBuilder(rawType.getName()).append('<');
+			for (int i = 0; i < actualTypeArguments.length; i++) {
+				if (i > 0) buffer.append(", ");
+				buffer.append(actualTypeArguments[i].getTypeName());
+			}
+			return buffer.append('>').toString();
+		}
+	}
+
+	private static final class ResolvedGenericArrayType implements GenericArrayType {
+		private final Type genericComponentType;
+
+		ResolvedGenericArrayType(final Type genericComponentType) {
+			this.genericComponentType = genericComponentType;
+		}
+
+		public Type getGenericComponentType() {
+			return genericComponentType;
+		}
+
+		@Override
+		public int hashCode() {
+			return genericComponentType.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof GenericArrayType && genericComponentType.equals(((GenericArrayType) obj).getGenericComponentType());
+		}
+
+		@Override
+		public String toString() {
+			return genericComponentType.getTypeName() + "[]";
+		}
+	}
+
+	private static final class ResolvedWildcardType implements WildcardType {
+		private final Type[] upperBounds;
+		private final Type[] lowerBounds;
+
+		ResolvedWildcardType(final Type[] upperBounds, final Type[] lowerBounds) {
+			this.upperBounds = upperBounds;
+			this.lowerBounds = lowerBounds;
+		}
+
+		public Type[] getUpperBounds() {
+			return upperBounds.clone();
+		}
+
+		public Type[] getLowerBounds() {
+			return lowerBounds.clone();
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(upperBounds) ^ Arrays.hashCode(lowerBounds);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof WildcardType)) return false;
+			WildcardType other = (WildcardType) obj;
+			return Arrays.equals(upperBounds, other.getUpperBounds()) && Arrays.equals(lowerBounds, other.getLowerBounds());
+		}
+
+		@Override
+		public String toString() {
+			if (lowerBounds.length > 0) return "? super " + lowerBounds[0].getTypeName();
+			if (upperBounds.length == 0 || upperBounds[0] == Object.class) return "?";
+			return "? extends " + upperBounds[0].getTypeName();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package now.gf.diggit.java.classfile;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks what the class file reader reports against what reflection reports for the same classes.
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class ClassFileReaderTest {
+	@Deprecated
+	public static class Sample<T> implements Serializable {
+		private static final long serialVersionUID = 1L;
+		
+		protected transient volatile int counter;
+		public String name;
+		T value;
+		private List<Map<String, T>> nested;
+		private Sample<?>[][] matrix;
+		private Map.Entry<String, Integer> entry;
+		private long[] longs;
+		private char c;
+	}
+	
+	public class Inner {
+		private boolean flag;
+	}
+	
+	public enum Color { RED, GREEN }
+	
+	@Test
+	public void readerAgreesWithReflection() throws Exception {
+		Object anonymous = new Object() {
+			@SuppressWarnings("unused")
+			private double amount;
+		};
+		class Local {
+			@SuppressWarnings("unused")
+			private byte[] bytes;
+		}
+		for (Class<?> clz : new Class<?>[] { Sample.class, Inner.class, Color.class, anonymous.getClass(), Local.class, 
+				ClassFileReaderTest.class, HashMap.class, Map.Entry.class, String.class }) {
+			check(clz);
+		}
+	}
+	
+	@Test
+	public void fieldsFollowDeclarationOrder() throws Exception {
+		List<String> names = new ArrayList<String>();
+		for (ClassFileField field : ClassFileReader.forClass(Sample.class).getFields()) {
+			names.add(field.getName());
+		}
+		assertEquals("[serialVersionUID, counter, name, value, nested, matrix, entry, longs, c]", names.toString());
+	}
+	
+	@Test(expected = ClassFormatError.class)
+	public void foreignBytesAreRejected() {
+		new ClassFileReader(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+	}
+	
+	@Test(expected = ClassFormatError.class)
+	public void truncatedClassFilesAreRejected() throws Exception {
+		byte[] bytes = readClassFile(Sample.class);
+		byte[] truncated = new byte[bytes.length / 2];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		new ClassFileReader(truncated).getFields();
+	}
+	
+	private static void check(final Class<?> clz) throws Exception {
+		ClassFileReader reader = ClassFileReader.forClass(clz);
+		String message = clz.getName();
+		assertEquals(message, clz.getName(), reader.getClassName());
+		// Class files of interfaces name Object as their superclass
+		String superclassName = clz.isInterface() ? Object.class.getName() : clz.getSuperclass() == null ? null : clz.getSuperclass().getName();
+		assertEquals(message, superclassName, reader.getSuperclassName());
+		assertEquals(message, clz.getCanonicalName(), reader.getCanonicalName());
+		assertEquals(message, clz.getSimpleName(), reader.getSimpleName());
+		int lastDot = clz.getName().lastIndexOf('.');
+		assertEquals(message, lastDot < 0 ? null : clz.getName().substring(0, lastDot), reader.getPackageName());
+		if (clz.getEnclosingClass() == null) {
+			int mask = Modifier.PUBLIC | Modifier.FINAL | Modifier.INTERFACE | Modifier.ABSTRACT;
+			assertEquals(message, clz.getModifiers() & mask, reader.getAccessFlags() & mask);
+		}
+		
+		// Fields
+		Map<String, Field> declaredFields = new HashMap<String, Field>();
+		for (Field field : clz.getDeclaredFields()) {
+			declaredFields.put(field.getName(), field);
+		}
+		List<ClassFileField> fields = reader.getFields(true);
+		assertEquals(message, declaredFields.keySet(), names(fields));
+		for (ClassFileField field : fields) {
+			Field declaredField = declaredFields.get(field.getName());
+			String fieldMessage = message + "." + field.getName();
+			assertEquals(fieldMessage, declaredField.getModifiers() & Modifier.fieldModifiers(), field.getAccessFlags() & Modifier.fieldModifiers());
+			assertEquals(fieldMessage, declaredField.isSynthetic(), (field.getAccessFlags() & 0x1000) != 0);
+			if (declaredField.getType().getCanonicalName() != null) {
+				assertEquals(fieldMessage, declaredField.getType().getCanonicalName(), reader.toCanonicalName(field.getDescriptor()));
+			}
+			assertEquals(fieldMessage, declaredField.getGenericType() != declaredField.getType(), field.getSignature() != null);
+		}
+		
+		// Runtime-visible annotations
+		Set<String> annotationTypes = new LinkedHashSet<String>();
+		for (Annotation annotation : clz.getDeclaredAnnotations()) {
+			annotationTypes.add(annotation.annotationType().getName());
+		}
+		Set<String> readAnnotationTypes = new LinkedHashSet<String>();
+		for (ClassFileAnnotation annotation : reader.getAnnotations()) {
+			readAnnotationTypes.add(annotation.getTypeName());
+		}
+		assertEquals(message, annotationTypes, readAnnotationTypes);
+	}
+	
+	private static Set<String> names(final List<ClassFileField> fields) {
+		Set<String> result = new LinkedHashSet<String>();
+		for (ClassFileField field : fields) {
+			result.add(field.getName());
+		}
+		return result;
+	}
+	
+	private static byte[] readClassFile(final Class<?> clz) throws Exception {
+		InputStream in = clz.getResourceAsStream("/" + clz.getName().replace('.', '/') + ".class");
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int read; (read = in.read(buffer)) != -1;) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package now.gf.diggit.java.reflection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class AccessProfileTest {
+	public static class Base {
+		private int id;
+	}
+	
+	public static class Hot extends Base {
+		private String name;
+	}
+	
+	public static class Cold {
+		private long value;
+	}
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void requestsAreRankedHottestFirst() throws Exception {
+		AccessProfile profile = new AccessProfile(new File(folder.getRoot(), "profile.txt"));
+		profile.record(Cold.class);
+		profile.record(Hot.class);
+		profile.record(Hot.class);
+		
+		assertEquals(2, profile.getCount(Hot.class.getName()));
+		assertEquals(Arrays.asList(Hot.class.getName(), Cold.class.getName()), profile.getHottest(10));
+		assertEquals(Arrays.asList(Hot.class.getName()), profile.getHottest(1));
+	}
+	
+	@Test
+	public void flushWritesOnlyWhenSomethingWasRecorded() throws Exception {
+		File file = new File(folder.getRoot(), "profile.txt");
+		AccessProfile profile = new AccessProfile(file);
+		profile.record(Hot.class);
+		
+		assertTrue(profile.flush());
+		assertTrue(file.isFile());
+		assertFalse(profile.flush());
+		profile.record(Hot.class);
+		assertTrue(profile.flush());
+		assertEquals(1, folder.getRoot().list().length);  // No temporary file left behind
+	}
+	
+	@Test
+	public void countsFadeOutOverRestarts() throws Exception {
+		File file = new File(folder.getRoot(), "profile.txt");
+		Files.write(file.toPath(), ("# comment\n8 " + Hot.class.getName() + "\n1 " + Cold.class.getName() + "\nmalformed\nx y\n")
+				.getBytes(StandardCharsets.UTF_8));
+		
+		AccessProfile profile = new AccessProfile(file);
+		assertEquals(4, profile.getCount(Hot.class.getName()));
+		assertEquals(0, profile.getCount(Cold.class.getName()));  // Halved to nothing
+		assertEquals(Arrays.asList(Hot.class.getName()), profile.getHottest(10));
+	}
+	
+	@Test
+	public void onlyDirectRequestsAreRecorded() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		AccessProfile profile = new AccessProfile(new File(folder.getRoot(), "profile.txt"));
+		classIntrospector.setAccessProfile(profile);
+		
+		classIntrospector.getClassMetadata(Hot.class);
+		classIntrospector.loadClassesMetadataInParallel(Cold.class);
+		
+		assertEquals(1, profile.getCount(Hot.class.getName()));
+		assertEquals(0, profile.getCount(Base.class.getName()));  // Superclass lookup
+		assertEquals(0, profile.getCount(Cold.class.getName()));  // Bulk load
+	}
+	
+	@Test
+	public void replayWarmsTheCacheWithTheHottestClasses() throws Exception {
+		File file = new File(folder.getRoot(), "profile.txt");
+		Files.write(file.toPath(), ("8 " + Hot.class.getName() + "\n6 no.such.Clazz\n4 " + Cold.class.getName() + "\n")
+				.getBytes(StandardCharsets.UTF_8));
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		
+		BulkLoadResult result = classIntrospector.replay(new AccessProfile(file), getClass().getClassLoader());
+		
+		assertTrue(result.isSuccessful());
+		assertEquals(2, result.getLoaded().size());
+		assertTrue(classIntrospector.getClassMetadataCache().containsKey(Hot.class.getCanonicalName()));
+		assertTrue(classIntrospector.getClassMetadataCache().containsKey(Cold.class.getCanonicalName()));
+	}
+}
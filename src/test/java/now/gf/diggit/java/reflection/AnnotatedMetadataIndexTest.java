@@ -0,0 +1,116 @@
+package now.gf.diggit.java.reflection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+import now.gf.diggit.java.reflection.model.FieldMetadata;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class AnnotatedMetadataIndexTest {
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface Indexed {
+		String value();
+	}
+	
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface Pending {
+	}
+	
+	@Pending
+	public static class Queued {
+	}
+	
+	@Indexed("first")
+	public static class First {
+		@Indexed("id")
+		private long id;
+		private String name;
+	}
+	
+	@Indexed("second")
+	public static class Second {
+	}
+	
+	public static class Plain {
+		@Indexed("code")
+		private String code;
+	}
+	
+	@BeforeClass
+	public static void registerAnnotations() {
+		new ClassIntrospector().registerAnnotation(Indexed.class);
+	}
+	
+	@Test
+	public void annotatedMetadataAreFound() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		classIntrospector.loadClassesMetadata(First.class, Second.class, Plain.class);
+		
+		assertEquals(2, classIntrospector.getAnnotatedClasses(Indexed.class).size());
+		assertEquals(Collections.singletonList(classIntrospector.getClassMetadata(Second.class)), 
+			classIntrospector.getAnnotatedClasses(Indexed.class, "value", "second"));
+		Collection<FieldMetadata> fields = classIntrospector.getAnnotatedFields(Indexed.class);
+		assertEquals(2, fields.size());
+		assertEquals("code", classIntrospector.getAnnotatedFields(Indexed.class, "value", "code").get(0).getName());
+		assertTrue(classIntrospector.getAnnotatedClasses(Deprecated.class).isEmpty());
+	}
+	
+	@Test
+	public void evictedMetadataLeaveTheIndex() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(1);
+		classIntrospector.loadClassesMetadata(First.class);
+		assertEquals(1, classIntrospector.getAnnotatedFields(Indexed.class).size());
+		
+		classIntrospector.loadClassesMetadata(Second.class);
+		
+		// Either class may have been evicted, depending on the cache: the index follows
+		Collection<ClassMetadata> cached = classIntrospector.getClassMetadataCache().values();
+		Collection<ClassMetadata> classes = classIntrospector.getAnnotatedClasses(Indexed.class);
+		assertEquals(1, cached.size());
+		assertEquals(1, classes.size());
+		ClassMetadata classMetadata = cached.iterator().next();
+		assertSame(classMetadata, classes.iterator().next());
+		assertEquals(classMetadata.getFields().size() == 2 ? 1 : 0, classIntrospector.getAnnotatedFields(Indexed.class).size());
+	}
+	
+	@Test
+	public void replacedMetadataAreReplacedInTheIndex() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		classIntrospector.loadClassesMetadata(First.class);
+		ClassMetadata replacement = new ClassMetadata(First.class);
+		
+		classIntrospector.addClassMetadataMapInfo(Collections.singletonMap(First.class.getCanonicalName(), replacement));
+		
+		Collection<ClassMetadata> classes = classIntrospector.getAnnotatedClasses(Indexed.class);
+		assertEquals(1, classes.size());
+		assertSame(replacement, classes.iterator().next());
+		assertSame(replacement.getNamedField("id"), classIntrospector.getAnnotatedFields(Indexed.class).iterator().next());
+	}
+	
+	@Test
+	public void cachedMetadataAreIndexedWhenQueried() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		classIntrospector.loadClassesMetadata(Queued.class);
+		
+		// Caching didn't read the annotations, so those registered afterwards are indexed too
+		classIntrospector.registerAnnotation(Pending.class);
+		
+		Collection<ClassMetadata> classes = classIntrospector.getAnnotatedClasses(Pending.class);
+		assertEquals(1, classes.size());
+		assertSame(classIntrospector.getClassMetadata(Queued.class), classes.iterator().next());
+	}
+}
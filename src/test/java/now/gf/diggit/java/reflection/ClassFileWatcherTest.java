@@ -0,0 +1,145 @@
+package now.gf.diggit.java.reflection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class ClassFileWatcherTest {
+	public static class Base {
+		private int id;
+	}
+	
+	public static class Sub extends Base {
+		private String name;
+	}
+	
+	public static class Other {
+		private long value;
+	}
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static byte[] classBytes(final Class<?> clz) throws IOException {
+		InputStream in = clz.getResourceAsStream("/" + clz.getName().replace('.', '/') + ".class");
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int read; (read = in.read(buffer)) > 0; ) out.write(buffer, 0, read);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static void writeJar(final File jar, final byte[] baseBytes, final byte[] otherBytes) throws IOException {
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			out.putNextEntry(new JarEntry(Base.class.getName().replace('.', '/') + ".class"));
+			out.write(baseBytes);
+			out.putNextEntry(new JarEntry(Other.class.getName().replace('.', '/') + ".class"));
+			out.write(otherBytes);
+		} finally {
+			out.close();
+		}
+	}
+	
+	private static byte[] touched(final byte[] bytes) {
+		return Arrays.copyOf(bytes, bytes.length + 1);  // Trailing byte: a different class file to the watcher
+	}
+	
+	@Test
+	public void changedJarEntriesAreInvalidated() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		classIntrospector.getClassMetadata(Sub.class);
+		classIntrospector.getClassMetadata(Other.class);
+		File jar = folder.newFile("classes.jar");
+		writeJar(jar, classBytes(Base.class), classBytes(Other.class));
+		
+		ClassFileWatcher watcher = new ClassFileWatcher(classIntrospector, null);
+		try {
+			watcher.watchJar(jar);
+			assertTrue(watcher.checkForChanges().isEmpty());
+			
+			writeJar(jar, classBytes(Base.class), touched(classBytes(Other.class)));
+			jar.setLastModified(jar.lastModified() - 10000);
+			
+			assertEquals(Collections.singleton(Other.class.getName()), watcher.checkForChanges());
+			assertEquals(1, watcher.getInvalidationCount());
+			assertEquals(2, classIntrospector.getCacheSize());
+			assertFalse(classIntrospector.getClassMetadataCache().containsKey(Other.class.getCanonicalName()));
+			
+			// Superclass change: its cached subclass goes too
+			writeJar(jar, touched(classBytes(Base.class)), touched(classBytes(Other.class)));
+			jar.setLastModified(jar.lastModified() - 20000);
+			assertEquals(Collections.singleton(Base.class.getName()), watcher.checkForChanges());
+			assertEquals(3, watcher.getInvalidationCount());
+			assertEquals(0, classIntrospector.getCacheSize());
+		} finally {
+			watcher.close();
+		}
+	}
+	
+	@Test
+	public void directoryChangesAreInvalidatedUnlessBytesAreTheSame() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		classIntrospector.getClassMetadata(Other.class);
+		File root = folder.newFolder("classes");
+		File classFile = new File(root, Other.class.getName().replace('.', File.separatorChar) + ".class");
+		classFile.getParentFile().mkdirs();
+		byte[] bytes = classBytes(Other.class);
+		Files.write(classFile.toPath(), bytes);
+		
+		ClassFileWatcher watcher = new ClassFileWatcher(classIntrospector, getClass().getClassLoader());
+		try {
+			watcher.watchDirectory(root);
+			
+			Files.write(classFile.toPath(), bytes);
+			assertTrue(awaitChanges(watcher, 1000).isEmpty());
+			assertEquals(1, classIntrospector.getCacheSize());
+			
+			Files.write(classFile.toPath(), touched(bytes));
+			assertEquals(Collections.singleton(Other.class.getName()), awaitChanges(watcher, 10000));
+			assertEquals(1, watcher.getInvalidationCount());
+			// Rebuilt through the class loader
+			assertTrue(classIntrospector.getClassMetadataCache().containsKey(Other.class.getCanonicalName()));
+		} finally {
+			watcher.close();
+		}
+	}
+	
+	/**
+	 * Checks for changes until some are reported or the timeout expires, since file system events come asynchronously.
+	 */
+	private static Set<String> awaitChanges(final ClassFileWatcher watcher, final long timeoutMillis) throws InterruptedException {
+		Set<String> result = new LinkedHashSet<String>();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (result.isEmpty() && System.currentTimeMillis() < deadline) {
+			result.addAll(watcher.checkForChanges());
+			Thread.sleep(50);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,248 @@
+package now.gf.diggit.java.reflection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class ClassIntrospectorTest {
+	public static class Bean {
+		private String name;
+		private int age;
+	}
+	
+	public static class Other {
+		private long id;
+	}
+	
+	public static class Derived extends Bean {
+		private String name;
+		private String code;
+	}
+	
+	@SuppressWarnings("serial")
+	public static class Amount extends Number {
+		private long cents;
+		
+		public int intValue() { return (int) cents; }
+		public long longValue() { return cents; }
+		public float floatValue() { return cents; }
+		public double doubleValue() { return cents; }
+	}
+	
+	public static class Holder {
+		private Bean bean;
+		private List<Other> others;
+		private Map<String, Derived[]> derivedByCode;
+		private int count;
+		private String label;
+	}
+	
+	/**
+	 * Runs tasks on the calling thread, counting them.
+	 */
+	private static class CountingExecutor implements Executor {
+		private final AtomicInteger executed = new AtomicInteger();
+		
+		public void execute(final Runnable command) {
+			executed.incrementAndGet();
+			command.run();
+		}
+	}
+	
+	@Test
+	@SuppressWarnings("deprecation")
+	public void bulkLoadBuildsEveryClass() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		Class<?> proxy = Proxy.getProxyClass(getClass().getClassLoader(), Runnable.class);  // No class file: fields come in reflection order
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			BulkLoadResult result = classIntrospector.loadClassesMetadata(executor, Bean.class, proxy, Other.class, Bean.class);
+			
+			assertTrue(result.isSuccessful());
+			assertEquals(3, result.getLoaded().size());
+			assertSame(result.getLoaded().get(Bean.class), classIntrospector.getClassMetadata(Bean.class));
+			assertSame(result.getLoaded().get(Other.class), classIntrospector.getClassMetadata(Other.class));
+			assertEquals(proxy.getDeclaredFields().length, result.getLoaded().get(proxy).getFieldCount());
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void bulkLoadReusesCachedMetadata() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		ClassMetadata cached = classIntrospector.getClassMetadata(Bean.class);
+		
+		BulkLoadResult result = classIntrospector.loadClassesMetadataInParallel(Bean.class, Other.class);
+		
+		assertTrue(result.isSuccessful());
+		assertSame(cached, result.getLoaded().get(Bean.class));
+		assertEquals(2, classIntrospector.getClassMetadataCache().size());
+	}
+	
+	@Test
+	public void superclassMetadataAreShared() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		ClassMetadata derived = classIntrospector.getClassMetadata(Derived.class);
+		
+		ClassMetadata bean = classIntrospector.getClassMetadata(Bean.class);
+		assertSame(bean, derived.getSuperclassMetadata());
+		assertEquals(4, derived.getAllFields().size());
+		assertSame(bean.getNamedField("age"), derived.getInheritedNamedField("age"));
+		assertSame(derived.getNamedField("name"), derived.getInheritedNamedField("name"));  // Shadows Bean.name
+	}
+	
+	@Test
+	public void jdkSuperclassesAreNotLinked() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		ClassMetadata classMetadata = classIntrospector.getClassMetadata(Amount.class);
+		assertNull(classMetadata.getSuperclassMetadata());
+		assertEquals(1, classIntrospector.getClassMetadataCache().size());
+		assertEquals(1, classMetadata.getAllFields().size());
+	}
+	
+	@Test
+	public void asyncBuildsRunOnTheExecutorUnlessCached() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		CountingExecutor executor = new CountingExecutor();
+		classIntrospector.setExecutor(executor);
+		
+		ClassMetadata built = classIntrospector.getClassMetadataAsync(Bean.class).get();
+		assertEquals(1, executor.executed.get());
+		
+		CompletableFuture<ClassMetadata> cached = classIntrospector.getClassMetadataAsync(Bean.class);
+		assertTrue(cached.isDone());
+		assertSame(built, cached.get());
+		assertEquals(1, executor.executed.get());
+	}
+	
+	@Test
+	public void rejectedBuildsCompleteExceptionally() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		classIntrospector.setExecutor(new Executor() {
+			public void execute(final Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		});
+		
+		try {
+			classIntrospector.getClassMetadataAsync(Bean.class).get();
+			fail("Build should have been rejected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		assertEquals(0, classIntrospector.getCacheSize());
+	}
+	
+	@Test
+	public void prefetchWarmsApplicationFieldTypes() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		classIntrospector.setExecutor(new CountingExecutor());
+		
+		classIntrospector.prefetch(Holder.class).get();
+		
+		// Field, element and map value types, arrays unwrapped; JDK and primitive types skipped
+		Map<String, ClassMetadata> cache = classIntrospector.getClassMetadataCache();
+		assertEquals(4, cache.size());
+		assertTrue(cache.containsKey(Holder.class.getCanonicalName()));
+		assertTrue(cache.containsKey(Bean.class.getCanonicalName()));
+		assertTrue(cache.containsKey(Other.class.getCanonicalName()));
+		assertTrue(cache.containsKey(Derived.class.getCanonicalName()));
+	}
+	
+	@Test
+	public void invalidationDropsCachedSubclasses() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		ClassMetadata derived = classIntrospector.getClassMetadata(Derived.class);
+		ClassMetadata bean = classIntrospector.getClassMetadata(Bean.class);
+		ClassMetadata other = classIntrospector.getClassMetadata(Other.class);
+		
+		List<ClassMetadata> invalidated = classIntrospector.invalidate(Arrays.asList(Bean.class.getName()));
+		
+		assertEquals(2, invalidated.size());
+		assertTrue(invalidated.contains(bean));
+		assertTrue(invalidated.contains(derived));
+		Set<String> cached = classIntrospector.getClassMetadataCache().keySet();
+		assertEquals(1, cached.size());
+		assertSame(other, classIntrospector.getClassMetadata(Other.class));
+		assertTrue(classIntrospector.invalidate(Arrays.asList("no.such.Clazz")).isEmpty());
+	}
+	
+	@Test
+	public void sameNamedClassesOfDifferentLoadersDontCollide() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		Class<?> first = isolatedLoader().loadClass(Bean.class.getName());
+		Class<?> second = isolatedLoader().loadClass(Bean.class.getName());
+		assertNotSame(first, second);
+		
+		ClassMetadata firstMetadata = classIntrospector.getClassMetadata(first);
+		ClassMetadata secondMetadata = classIntrospector.getClassMetadata(second);
+		assertSame(first, firstMetadata.getClz());
+		assertSame(second, secondMetadata.getClz());
+		assertEquals(2, classIntrospector.getCacheSize());
+		assertSame(firstMetadata, classIntrospector.getClassMetadata(first));
+		assertSame(secondMetadata, classIntrospector.getClassMetadata(second));
+	}
+	
+	@Test
+	public void cachedMetadataDontPinTheirClassLoader() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		classIntrospector.registerAnnotation(Deprecated.class);
+		WeakReference<ClassLoader> loader = cacheIsolatedBean(classIntrospector);
+		
+		for (int i = 0; i < 50 && loader.get() != null; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertNull("Class loader still reachable", loader.get());
+		assertEquals(0, classIntrospector.getCacheSize());
+	}
+	
+	/**
+	 * Caches metadata of a class loaded by a throwaway class loader, leaving no strong reference to either.
+	 */
+	private static WeakReference<ClassLoader> cacheIsolatedBean(final ClassIntrospector classIntrospector) throws Exception {
+		ClassLoader loader = isolatedLoader();
+		ClassMetadata classMetadata = classIntrospector.getClassMetadata(loader.loadClass(Bean.class.getName()));
+		assertEquals(2, classMetadata.getFieldCount());
+		assertEquals(1, classIntrospector.getCacheSize());
+		classIntrospector.getAnnotatedClasses(Deprecated.class);  // Indexes the metadata
+		return new WeakReference<ClassLoader>(loader);
+	}
+	
+	/**
+	 * Returns a class loader defining test classes again, rather than delegating to the application class loader.
+	 */
+	private static ClassLoader isolatedLoader() {
+		URL testClasses = ClassIntrospectorTest.class.getProtectionDomain().getCodeSource().getLocation();
+		return new URLClassLoader(new URL[] {testClasses}, null);
+	}
+}
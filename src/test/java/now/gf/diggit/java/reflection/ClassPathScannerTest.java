@@ -0,0 +1,147 @@
+package now.gf.diggit.java.reflection;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class ClassPathScannerTest {
+	@Deprecated
+	public static class Marked {
+		private String name;
+		private int count;
+	}
+	
+	public static class Plain {
+		private long id;
+	}
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void directoriesAreScanned() throws Exception {
+		File root = folder.newFolder("classes");
+		copyClassFile(Marked.class, root);
+		copyClassFile(Plain.class, root);
+		write(new File(root, "Broken.class"), new byte[] {1, 2, 3});  // Skipped: not a class file
+		
+		List<ClassMetadata> classes = new ClassPathScanner().scan(root);
+		
+		assertEquals("[Marked, Plain]", names(classes).toString());
+		ClassMetadata marked = classes.get(0).getName().equals("Marked") ? classes.get(0) : classes.get(1);
+		assertEquals(2, marked.getFields().size());
+		assertEquals("name", marked.getFields().iterator().next().getName());
+	}
+	
+	@Test
+	public void jarsAreScannedThroughTheFilter() throws Exception {
+		File jar = folder.newFile("classes.jar");
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			for (Class<?> clz : new Class<?>[] {Marked.class, Plain.class}) {
+				out.putNextEntry(new ZipEntry(resourceName(clz)));
+				out.write(readClassFile(clz));
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		ClassPathScanner scanner = new ClassPathScanner();
+		scanner.addAnnotationFilter(Deprecated.class);
+		
+		List<ClassMetadata> classes = scanner.scan(jar, new File(folder.getRoot(), "missing"));
+		
+		assertEquals("[Marked]", names(classes).toString());
+	}
+	
+	@Test
+	public void nonArchivesAndUnreadableArchivesAreSkipped() throws Exception {
+		File root = folder.newFolder("classes");
+		copyClassFile(Plain.class, root);
+		File text = folder.newFile("notes.txt");
+		write(text, "not an archive".getBytes("UTF-8"));
+		File broken = folder.newFile("broken.jar");
+		write(broken, new byte[] {'P', 'K', 3, 4, 0, 0});  // Truncated
+		
+		List<ClassMetadata> classes = new ClassPathScanner().scan(text, broken, root);
+		
+		assertEquals("[Plain]", names(classes).toString());
+	}
+	
+	@Test
+	public void classFilesDontShareTheReadBuffer() throws Exception {
+		File root = folder.newFolder("classes");
+		copyClassFile(Marked.class, root);
+		copyClassFile(Plain.class, root);
+		copyClassFile(ClassPathScannerTest.class, root);  // Larger than the others
+		
+		List<ClassMetadata> classes = new ClassPathScanner().scan(root);
+		
+		assertEquals(3, classes.size());
+		for (ClassMetadata classMetadata : classes) {
+			if (classMetadata.getName().equals("Marked")) assertEquals(2, classMetadata.getFields().size());
+			if (classMetadata.getName().equals("Plain")) assertEquals("id", classMetadata.getFields().iterator().next().getName());
+		}
+	}
+	
+	private static Set<String> names(final List<ClassMetadata> classes) {
+		Set<String> names = new TreeSet<String>();
+		for (ClassMetadata classMetadata : classes) {
+			names.add(classMetadata.getName());
+		}
+		return names;
+	}
+	
+	private static void copyClassFile(final Class<?> clz, final File root) throws Exception {
+		File file = new File(root, resourceName(clz));
+		file.getParentFile().mkdirs();
+		write(file, readClassFile(clz));
+	}
+	
+	private static String resourceName(final Class<?> clz) {
+		return clz.getName().replace('.', '/') + ".class";
+	}
+	
+	private static byte[] readClassFile(final Class<?> clz) throws Exception {
+		InputStream in = clz.getResourceAsStream("/" + resourceName(clz));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int read; (read = in.read(buffer)) != -1;) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static void write(final File file, final byte[] bytes) throws Exception {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package now.gf.diggit.java.reflection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class DefaultAnnotationListenerTest {
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface Column {
+		String name();
+		int length() default 255;
+		String[] aliases() default {};
+		RetentionPolicy policy() default RetentionPolicy.CLASS;
+	}
+	
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface Marker {
+	}
+	
+	@Column(name = "id", aliases = {"key", "pk"})
+	@Marker
+	public static class Annotated {
+	}
+	
+	@Test
+	public void everyAttributeIsExtracted() {
+		Column column = Annotated.class.getAnnotation(Column.class);
+		
+		Map<String, Object> attributes = DefaultAnnotationListener.forType(Column.class).getAttributesMap(column);
+		
+		assertEquals(4, attributes.size());
+		assertEquals("id", attributes.get("name"));
+		assertEquals(255, attributes.get("length"));
+		assertArrayEquals(new String[] {"key", "pk"}, (String[]) attributes.get("aliases"));
+		assertEquals(RetentionPolicy.CLASS, attributes.get("policy"));
+	}
+	
+	@Test
+	public void annotationsWithoutAttributesHaveNoMap() {
+		assertNull(DefaultAnnotationListener.forType(Marker.class).getAttributesMap(Annotated.class.getAnnotation(Marker.class)));
+	}
+	
+	@Test
+	public void listenersAreBuiltOncePerType() {
+		assertSame(DefaultAnnotationListener.forType(Column.class), DefaultAnnotationListener.forType(Column.class));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void onlyAnnotationTypesAreAccepted() {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Class<Annotation> notAnnotation = (Class) String.class;
+		DefaultAnnotationListener.forType(notAnnotation);
+	}
+}
@@ -0,0 +1,94 @@
+package now.gf.diggit.java.reflection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class IntrospectionMetricsTest {
+	public static class First {
+		private String name;
+	}
+	
+	public static class Second {
+		private int count;
+	}
+	
+	@Test
+	public void cacheActivityIsCounted() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(1);
+		IntrospectionMetrics metrics = classIntrospector.enableMetrics();
+		
+		classIntrospector.getClassMetadata(First.class);
+		classIntrospector.getClassMetadata(First.class);
+		classIntrospector.getClassMetadata(Second.class);
+		
+		assertEquals(1, metrics.getHitCount());
+		assertEquals(2, metrics.getMissCount());
+		assertEquals(1.0 / 3, metrics.getHitRatio(), 1e-9);
+		assertEquals(1, metrics.getEvictionCount());
+		assertEquals(1, metrics.getCacheSize());
+		assertEquals(1, metrics.getMaxCacheSize());
+		
+		metrics.reset();
+		assertEquals(0, metrics.getHitCount());
+		assertEquals(0, metrics.getMissCount());
+	}
+	
+	@Test
+	public void buildPhasesAreTimed() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		IntrospectionMetrics metrics = classIntrospector.enableMetrics();
+		
+		classIntrospector.getClassMetadata(First.class).getNamedField("name").getGetterMethodName();
+		
+		assertEquals(1, metrics.getBuildLatency(BuildPhase.CLASS_FILE).getCount());
+		assertEquals(1, metrics.getBuildLatency(BuildPhase.BEAN_ACCESSORS).getCount());
+		assertEquals(0, metrics.getBuildLatency(BuildPhase.CLASS_ANNOTATIONS).getCount());
+		assertTrue(metrics.getBuildLatencies().containsKey(BuildPhase.FIELD_ANNOTATIONS.name()));
+	}
+	
+	@Test
+	public void metricsAreExposedThroughJmx() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		IntrospectionMetrics metrics = classIntrospector.enableMetrics();
+		String objectName = "now.gf.diggit:type=ClassIntrospector,name=" + getClass().getSimpleName();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		metrics.register(objectName);
+		try {
+			classIntrospector.getClassMetadata(First.class);
+			
+			assertEquals(1L, server.getAttribute(new ObjectName(objectName), "MissCount"));
+			assertEquals(1, server.getAttribute(new ObjectName(objectName), "CacheSize"));
+		} finally {
+			metrics.unregister();
+		}
+		assertFalse(server.isRegistered(new ObjectName(objectName)));
+	}
+	
+	@Test
+	public void histogramBoundsPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i * 1000);
+		}
+		
+		assertEquals(100, histogram.getCount());
+		assertEquals(100000, histogram.getMaxNanos());
+		assertEquals(50500, histogram.getMeanNanos());
+		assertTrue(histogram.getP50Nanos() >= 50000 && histogram.getP50Nanos() < 2 * 50000);
+		assertEquals(100000, histogram.getP99Nanos());
+		assertEquals(0, new LatencyHistogram().getP90Nanos());
+	}
+}
@@ -0,0 +1,96 @@
+package now.gf.diggit.java.reflection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class MetadataGraphTest {
+	public static class Order {
+		private Customer customer;
+		private List<Line> lines;
+		private static Audit audit;  // Static fields are not followed
+		private String code;
+	}
+	
+	public static class Customer {
+		private Map<String, Address> addresses;
+		private Order[] orders;
+	}
+	
+	public static class Address {
+		private String street;
+	}
+	
+	public static class Line {
+		private Product product;
+		private int quantity;
+	}
+	
+	public static class Product {
+		private Product replacement;
+	}
+	
+	public static class Audit {
+		private long timestamp;
+	}
+	
+	public static class Holder<T> {
+		private List<T> items;
+	}
+	
+	public static class AddressHolder extends Holder<Address> {}
+	
+	@SafeVarargs
+	private static <T> Set<T> setOf(final T... elements) {
+		return new HashSet<T>(Arrays.asList(elements));
+	}
+	
+	@Test
+	public void graphIsWalkedBreadthFirst() throws Exception {
+		ClassIntrospector classIntrospector = new ClassIntrospector(20);
+		
+		MetadataGraph graph = classIntrospector.resolveGraph(Order.class);
+		
+		assertTrue(graph.isSuccessful());
+		assertEquals(Arrays.asList(Order.class), graph.getRoots());
+		assertEquals(Arrays.asList(Order.class, Customer.class, Line.class, Address.class, Product.class),
+				Arrays.asList(graph.getNodes().keySet().toArray()));
+		assertEquals(setOf(Customer.class, Line.class), graph.getReferences(Order.class));
+		assertEquals(setOf(Address.class, Order.class), graph.getReferences(Customer.class));
+		assertFalse(graph.getNodes().containsKey(Audit.class));
+		assertSame(classIntrospector.getClassMetadata(Line.class), graph.getClassMetadata(Line.class));
+	}
+	
+	@Test
+	public void cyclesAreReported() throws Exception {
+		MetadataGraph graph = new ClassIntrospector(20).resolveGraph(Order.class);
+		
+		assertFalse(graph.isAcyclic());
+		assertEquals(2, graph.getCycles().size());
+		assertTrue(graph.getCycles().contains(setOf(Order.class, Customer.class)));
+		assertTrue(graph.getCycles().contains(setOf(Product.class)));
+	}
+	
+	@Test
+	public void inheritedFieldsAreFollowedWithTheirBoundTypes() throws Exception {
+		MetadataGraph graph = new ClassIntrospector(20).resolveGraph(AddressHolder.class);
+		
+		assertEquals(setOf(Address.class), graph.getReferences(AddressHolder.class));
+		assertTrue(graph.isAcyclic());
+		assertTrue(graph.getNodes().containsKey(Address.class));
+	}
+}
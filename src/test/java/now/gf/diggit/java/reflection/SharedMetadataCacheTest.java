@@ -0,0 +1,114 @@
+package now.gf.diggit.java.reflection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import now.gf.diggit.java.reflection.model.ClassMetadata;
+import now.gf.diggit.utils.EvictionPolicy;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class SharedMetadataCacheTest {
+	public static class Base {
+		private int id;
+	}
+	
+	public static class Sub extends Base {
+		private String name;
+	}
+	
+	public static class Other {
+		private long value;
+	}
+	
+	@SuppressWarnings("serial")
+	public static class Amount extends Number {
+		private long cents;
+		
+		public int intValue() { return (int) cents; }
+		public long longValue() { return cents; }
+		public float floatValue() { return cents; }
+		public double doubleValue() { return cents; }
+	}
+	
+	private static SharedMetadataCache newSharedCache() {
+		return new SharedMetadataCache(EvictionPolicy.<Class<?>, ClassMetadata>maxSize(10));
+	}
+	
+	private static ClassIntrospector newIntrospector(final SharedMetadataCache sharedCache) {
+		ClassIntrospector classIntrospector = new ClassIntrospector(10);
+		classIntrospector.setSharedCache(sharedCache);
+		return classIntrospector;
+	}
+	
+	@Test
+	public void introspectorsShareMetadata() throws Exception {
+		SharedMetadataCache sharedCache = newSharedCache();
+		ClassIntrospector first = newIntrospector(sharedCache);
+		ClassIntrospector second = newIntrospector(sharedCache);
+		
+		ClassMetadata sub = first.getClassMetadata(Sub.class);
+		assertSame(sub, second.getClassMetadata(Sub.class));
+		assertSame(sub, second.loadClassesMetadataInParallel(Sub.class).getLoaded().get(Sub.class));
+		assertEquals(2, sharedCache.size());
+		assertTrue(sub.isFrozen());
+		
+		// Linked to the superclass metadata of the shared cache
+		assertSame(sharedCache.getIfPresent(Base.class), sub.getSuperclassMetadata());
+		assertSame(sub.getSuperclassMetadata(), second.getClassMetadata(Base.class));
+	}
+	
+	@Test
+	public void jdkSuperclassesAreNotShared() throws Exception {
+		SharedMetadataCache sharedCache = newSharedCache();
+		
+		ClassMetadata amount = sharedCache.get(Amount.class, null);
+		assertNull(amount.getSuperclassMetadata());
+		assertEquals(1, sharedCache.size());
+	}
+	
+	@Test
+	public void invalidationDropsSubclassesFromBothTiers() throws Exception {
+		SharedMetadataCache sharedCache = newSharedCache();
+		ClassIntrospector classIntrospector = newIntrospector(sharedCache);
+		ClassMetadata sub = classIntrospector.getClassMetadata(Sub.class);
+		ClassMetadata other = classIntrospector.getClassMetadata(Other.class);
+		
+		List<ClassMetadata> invalidated = classIntrospector.invalidate(Arrays.asList(Base.class.getName()));
+		
+		assertEquals(Arrays.asList(sub), invalidated);  // Base was looked up by the shared cache only
+		assertNull(sharedCache.getIfPresent(Sub.class));
+		assertNull(sharedCache.getIfPresent(Base.class));
+		assertSame(other, sharedCache.getIfPresent(Other.class));
+		assertEquals(1, classIntrospector.getCacheSize());
+		
+		// Built again on next request
+		ClassMetadata rebuilt = classIntrospector.getClassMetadata(Sub.class);
+		assertNotSame(sub, rebuilt);
+		assertNotNull(sharedCache.getIfPresent(Sub.class));
+	}
+	
+	@Test
+	public void sharedInvalidationMatchesTheWholeSuperclassChain() throws Exception {
+		SharedMetadataCache sharedCache = newSharedCache();
+		sharedCache.get(Sub.class, null);
+		sharedCache.get(Other.class, null);
+		
+		assertEquals(2, sharedCache.invalidate(Arrays.asList(Base.class.getName())).size());
+		assertEquals(1, sharedCache.size());
+		sharedCache.clear();
+		assertEquals(0, sharedCache.size());
+	}
+}
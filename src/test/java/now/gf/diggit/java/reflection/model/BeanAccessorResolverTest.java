@@ -0,0 +1,108 @@
+package now.gf.diggit.java.reflection.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.beans.IntrospectionException;
+import java.beans.PropertyDescriptor;
+import java.beans.SimpleBeanInfo;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class BeanAccessorResolverTest {
+	public static class Widget {
+		private String label;
+		private boolean visible;
+		
+		public String getLabel() {
+			return label;
+		}
+		
+		public void setLabel(final String label) {
+			this.label = label;
+		}
+		
+		public String fetchLabel() {
+			return label;
+		}
+		
+		public void storeLabel(final String label) {
+			this.label = label;
+		}
+		
+		public boolean isVisible() {
+			return visible;
+		}
+		
+		public void setVisible(final boolean visible) {
+			this.visible = visible;
+		}
+	}
+	
+	/**
+	 * Explicit bean info of {@link Widget}, found by name.
+	 */
+	public static class WidgetBeanInfo extends SimpleBeanInfo {
+		@Override
+		public PropertyDescriptor[] getPropertyDescriptors() {
+			try {
+				return new PropertyDescriptor[] {new PropertyDescriptor("label", Widget.class, "fetchLabel", "storeLabel")};
+			} catch (IntrospectionException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+	
+	public static class FancyWidget extends Widget {
+		private int color;
+		
+		public int getColor() {
+			return color;
+		}
+	}
+	
+	public static class Gadget {
+		private String label;
+		private boolean visible;
+		
+		public String getLabel() {
+			return label;
+		}
+		
+		public void setLabel(final String label) {
+			this.label = label;
+		}
+		
+		public boolean isVisible() {
+			return visible;
+		}
+	}
+	
+	@Test
+	public void namingRulesApplyWithoutExplicitBeanInfo() throws Exception {
+		ClassMetadata classMetadata = new ClassMetadata(Gadget.class);
+		assertEquals("getLabel", classMetadata.getNamedField("label").getGetterMethodName());
+		assertEquals("setLabel", classMetadata.getNamedField("label").getSetterMethodName());
+		assertEquals("isVisible", classMetadata.getNamedField("visible").getGetterMethodName());
+		assertEquals(null, classMetadata.getNamedField("visible").getSetterMethodName());
+	}
+	
+	@Test
+	public void explicitBeanInfoIsHonoured() throws Exception {
+		ClassMetadata classMetadata = new ClassMetadata(Widget.class);
+		assertEquals("fetchLabel", classMetadata.getNamedField("label").getGetterMethodName());
+		assertEquals("storeLabel", classMetadata.getNamedField("label").getSetterMethodName());
+		// Properties the bean info doesn't describe have no accessors, as for Introspector
+		assertEquals(null, classMetadata.getNamedField("visible").getGetterMethodName());
+	}
+	
+	@Test
+	public void explicitBeanInfoOfSuperclassIsHonoured() throws Exception {
+		ClassMetadata classMetadata = new ClassMetadata(FancyWidget.class);
+		assertEquals("getColor", classMetadata.getNamedField("color").getGetterMethodName());
+	}
+}
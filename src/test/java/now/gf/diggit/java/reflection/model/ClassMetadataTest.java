@@ -0,0 +1,286 @@
+package now.gf.diggit.java.reflection.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import now.gf.diggit.java.classfile.ClassFileReader;
+import now.gf.diggit.java.reflection.ClassIntrospector;
+import now.gf.diggit.java.reflection.IAnnotationListener;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class ClassMetadataTest {
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface Tag {
+	}
+	
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface LateTag {
+	}
+	
+	@LateTag
+	public static class LateTagged {
+		@LateTag
+		private String code;
+	}
+	
+	@Tag
+	@Deprecated
+	public static class Tagged {
+		@Tag
+		private String code;
+		private String plain;
+	}
+	
+	public static class Bean {
+		private String name;
+		private int age;
+		public long counter;
+		
+		public String getName() {
+			return name;
+		}
+		
+		public void setName(final String name) {
+			this.name = name;
+		}
+		
+		public int getAge() {
+			return age;
+		}
+		
+		public void setAge(final int age) {
+			this.age = age;
+		}
+	}
+	
+	@Test
+	public void copyPropertiesOnFreshMetadata() throws Exception {
+		ClassMetadata classMetadata = new ClassMetadata(Bean.class);
+		Bean src = new Bean();
+		src.setName("diggit");
+		src.setAge(7);
+		src.counter = 42;
+		Bean dst = new Bean();
+		
+		classMetadata.copyProperties(src, dst);
+		
+		assertFalse(classMetadata.isFrozen());
+		assertEquals("diggit", dst.getName());
+		assertEquals(7, dst.getAge());
+		assertEquals(42, dst.counter);
+	}
+	
+	@Test
+	public void copyPropertiesOnFrozenMetadata() throws Exception {
+		ClassMetadata classMetadata = new ClassMetadata(Bean.class).freeze();
+		Bean src = new Bean();
+		src.setName("frozen");
+		Bean dst = new Bean();
+		
+		classMetadata.copyProperties(src, dst);
+		
+		assertTrue(classMetadata.isFrozen());
+		assertEquals("frozen", dst.getName());
+	}
+	
+	@Test
+	public void fieldsFollowDeclarationOrder() throws Exception {
+		ClassMetadata classMetadata = new ClassMetadata(Bean.class);
+		
+		assertEquals(3, classMetadata.getFieldCount());
+		assertEquals("name", classMetadata.getField(0).getName());
+		assertEquals("age", classMetadata.getField(1).getName());
+		assertEquals("counter", classMetadata.getField(2).getName());
+		assertEquals("getName", classMetadata.getNamedField("name").getGetterMethodName());
+	}
+	
+	@Test
+	public void fieldsFallBackToReflectionOrderIfTheClassFileDoesNotMatch() throws Exception {
+		URL testClasses = ClassMetadataTest.class.getProtectionDomain().getCodeSource().getLocation();
+		final String beanFile = Bean.class.getName().replace('.', '/') + ".class";
+		final String taggedFile = Tagged.class.getName().replace('.', '/') + ".class";
+		ClassLoader loader = new URLClassLoader(new URL[] {testClasses}, null) {
+			@Override
+			public InputStream getResourceAsStream(final String name) {
+				// As if the class file was replaced on disk after the class was loaded
+				return super.getResourceAsStream(name.equals(beanFile) ? taggedFile : name);
+			}
+		};
+		Class<?> clz = loader.loadClass(Bean.class.getName());
+		
+		ClassMetadata classMetadata = new ClassMetadata(clz);
+		
+		Field[] fields = clz.getDeclaredFields();
+		assertEquals(fields.length, classMetadata.getFieldCount());
+		for (int i = 0; i < fields.length; i++) {
+			assertEquals(fields[i].getName(), classMetadata.getField(i).getName());
+		}
+	}
+	
+	@Test
+	public void fieldsAreIndexedByNameAndOrdinal() throws Exception {
+		ClassMetadata classMetadata = new ClassMetadata(Bean.class);
+		
+		for (int i = 0; i < classMetadata.getFieldCount(); i++) {
+			FieldMetadata field = classMetadata.getField(i);
+			assertEquals(i, field.getOrdinal());
+			assertSame(field, classMetadata.getNamedField(field.getName()));
+		}
+		assertNull(classMetadata.getNamedField("missing"));
+		
+		Set<FieldMetadata> fields = new LinkedHashSet<FieldMetadata>();
+		fields.add(classMetadata.getField(2));
+		fields.add(classMetadata.getField(0));
+		classMetadata.setFields(fields);
+		assertEquals(2, classMetadata.getFieldCount());
+		assertEquals("counter", classMetadata.getField(0).getName());
+		assertEquals(1, classMetadata.getNamedField("name").getOrdinal());
+		assertNull(classMetadata.getNamedField("age"));
+	}
+	
+	@Test
+	public void annotationsAreIndexedByClass() throws Exception {
+		new ClassIntrospector().registerAnnotationListener(Tag.class, new IAnnotationListener<Tag>() {
+			public Map<String, Object> getAttributesMap(final Tag annotation) {
+				return null;
+			}
+		});
+		ClassMetadata classMetadata = new ClassMetadata(Tagged.class);
+		
+		assertNotNull(classMetadata.getNamedAnnotation(Tag.class));
+		assertNull(classMetadata.getNamedAnnotation(Deprecated.class));
+		assertNotNull(classMetadata.getNamedField("code").getNamedAnnotation(Tag.class));
+		assertNull(classMetadata.getNamedField("plain").getNamedAnnotation(Tag.class));
+	}
+	
+	@Test
+	public void classFileAnnotationsAreIndexedByName() throws Exception {
+		ClassMetadata classMetadata = new ClassMetadata(ClassFileReader.forClass(Tagged.class));
+		
+		assertNull(classMetadata.getClz());
+		assertNotNull(classMetadata.getNamedAnnotation(Tag.class));
+		assertNotNull(classMetadata.getNamedAnnotation(Deprecated.class));
+		assertNotNull(classMetadata.getNamedField("code").getNamedAnnotation(Tag.class));
+	}
+	
+	@Test
+	public void sectionsAreComputedOnFirstAccess() throws Exception {
+		ClassMetadata classMetadata = new ClassMetadata(LateTagged.class);
+		assertEquals(LateTagged.class.getCanonicalName(), classMetadata.getQualifiedName());
+		
+		// Registered after the metadata were built, before their annotations are first read
+		new ClassIntrospector().registerAnnotationListener(LateTag.class, new IAnnotationListener<LateTag>() {
+			public Map<String, Object> getAttributesMap(final LateTag annotation) {
+				return null;
+			}
+		});
+		
+		assertNotNull(classMetadata.getNamedAnnotation(LateTag.class));
+		assertNotNull(classMetadata.getNamedField("code").getNamedAnnotation(LateTag.class));
+	}
+	
+	@Test
+	public void sectionsAreComputedOnce() throws Exception {
+		final ClassMetadata classMetadata = new ClassMetadata(Bean.class);
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<FieldMetadata>> results = new ArrayList<Future<FieldMetadata>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<FieldMetadata>() {
+					public FieldMetadata call() throws Exception {
+						start.await();
+						FieldMetadata field = classMetadata.getNamedField("age");
+						assertEquals("getAge", field.getGetterMethodName());
+						return field;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<FieldMetadata> result : results) {
+				assertSame(classMetadata.getField(1), result.get(5, TimeUnit.SECONDS));
+			}
+			assertEquals(3, classMetadata.getFieldCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void serializationComputesEverySection() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(new ClassMetadata(Bean.class));
+		out.close();
+		
+		ClassMetadata classMetadata = (ClassMetadata) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		
+		assertEquals(3, classMetadata.getFieldCount());
+		assertEquals("setName", classMetadata.getNamedField("name").getSetterMethodName());
+	}
+	
+	@Test
+	public void frozenMetadataRejectChanges() throws Exception {
+		new ClassIntrospector().registerAnnotationListener(Tag.class, new IAnnotationListener<Tag>() {
+			public Map<String, Object> getAttributesMap(final Tag annotation) {
+				return null;
+			}
+		});
+		ClassMetadata classMetadata = new ClassMetadata(Tagged.class).freeze();
+		assertTrue(classMetadata.isFrozen());
+		assertSame(classMetadata, classMetadata.freeze());
+		
+		// Every section was computed before freezing
+		assertEquals(2, classMetadata.getFieldCount());
+		AnnotationMetadata annotation = classMetadata.getNamedAnnotation(Tag.class);
+		assertNotNull(annotation);
+		
+		try {
+			classMetadata.setFields(Collections.<FieldMetadata>emptySet());
+			fail("Fields of frozen metadata can't be replaced");
+		} catch (IllegalStateException e) {}
+		try {
+			classMetadata.setSuperclassMetadata(null);
+			fail("Frozen metadata can't be linked");
+		} catch (IllegalStateException e) {}
+		try {
+			annotation.addAttribute("name", "value");
+			fail("Annotations of frozen metadata can't be changed");
+		} catch (IllegalStateException e) {}
+		assertEquals(2, classMetadata.getFieldCount());
+	}
+}
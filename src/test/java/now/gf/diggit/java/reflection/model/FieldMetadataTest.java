@@ -0,0 +1,119 @@
+package now.gf.diggit.java.reflection.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class FieldMetadataTest {
+	public static class Base<T> {
+		public List<T> items;
+		public Map<T, Long> counters;
+		public T value;
+		public String plain;
+	}
+	
+	public static class Sub extends Base<String> {
+		public int own;
+	}
+	
+	public static class Middle<K> extends Base<K> {}
+	
+	public static class Leaf extends Middle<Integer> {}
+	
+	public static class Bounded<L extends List<String>, M extends Map<String, Long>> {
+		public L list;
+		public M map;
+	}
+	
+	private static ClassMetadata linked(final Class<?> clz) throws Exception {
+		ClassMetadata classMetadata = new ClassMetadata(clz);
+		if (clz.getSuperclass() != Object.class) classMetadata.setSuperclassMetadata(linked(clz.getSuperclass()));
+		return classMetadata;
+	}
+	
+	@Test
+	public void declaredGenericFieldKeepsUnboundVariables() throws Exception {
+		ClassMetadata base = new ClassMetadata(Base.class);
+		
+		FieldMetadata items = base.getNamedField("items");
+		assertTrue(items.isList());
+		assertNull(items.getBaseTypeName());
+		assertEquals("java.lang.Object", base.getNamedField("value").getTypeName());
+	}
+	
+	@Test
+	public void typeVariableCollectionsAreDescribedByTheirErasure() throws Exception {
+		ClassMetadata bounded = new ClassMetadata(Bounded.class);
+		
+		FieldMetadata list = bounded.getNamedField("list");
+		assertEquals("java.util.List", list.getTypeName());
+		assertTrue(list.isList());
+		assertNull(list.getBaseTypeName());
+		FieldMetadata map = bounded.getNamedField("map");
+		assertEquals("java.util.Map", map.getTypeName());
+		assertTrue(map.isMap());
+		assertNull(map.getKeyTypeName());
+		assertNull(map.getBaseTypeName());
+	}
+	
+	@Test
+	public void inheritedGenericFieldIsBoundToSubclass() throws Exception {
+		ClassMetadata sub = linked(Sub.class);
+		
+		FieldMetadata items = sub.getInheritedNamedField("items");
+		assertTrue(items.isList());
+		assertEquals("java.lang.String", items.getBaseTypeName());
+		
+		FieldMetadata counters = sub.getInheritedNamedField("counters");
+		assertTrue(counters.isMap());
+		assertEquals("java.lang.String", counters.getKeyTypeName());
+		assertEquals("java.lang.Long", counters.getBaseTypeName());
+		
+		assertEquals("java.lang.String", sub.getInheritedNamedField("value").getTypeName());
+		
+		// Superclass metadata are left untouched
+		assertNull(sub.getSuperclassMetadata().getNamedField("items").getBaseTypeName());
+	}
+	
+	@Test
+	public void allFieldsAreBoundToSubclass() throws Exception {
+		ClassMetadata sub = linked(Sub.class);
+		
+		List<FieldMetadata> fields = sub.getAllFields();
+		assertEquals(5, fields.size());
+		assertEquals("items", fields.get(0).getName());
+		assertEquals("java.lang.String", fields.get(0).getBaseTypeName());
+		assertEquals("own", fields.get(4).getName());
+		// Non-generic fields are shared with the superclass
+		assertSame(sub.getSuperclassMetadata().getNamedField("plain"), sub.getInheritedNamedField("plain"));
+	}
+	
+	@Test
+	public void bindingsArePassedAlongTheHierarchy() throws Exception {
+		ClassMetadata leaf = linked(Leaf.class);
+		
+		assertEquals("java.lang.Integer", leaf.getInheritedNamedField("items").getBaseTypeName());
+		assertEquals("java.lang.Integer", leaf.getInheritedNamedField("counters").getKeyTypeName());
+		assertNull(leaf.getSuperclassMetadata().getInheritedNamedField("items").getBaseTypeName());
+	}
+	
+	@Test
+	public void frozenSubclassKeepsBindings() throws Exception {
+		ClassMetadata sub = linked(Sub.class);
+		sub.getSuperclassMetadata().freeze();
+		sub.freeze();
+		
+		assertEquals("java.lang.String", sub.getInheritedNamedField("items").getBaseTypeName());
+	}
+}
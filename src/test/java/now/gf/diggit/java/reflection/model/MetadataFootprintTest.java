@@ -0,0 +1,100 @@
+package now.gf.diggit.java.reflection.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class MetadataFootprintTest {
+	public static class Customer {
+		private String name;
+		private String email;
+		private List<String> phones;
+	}
+	
+	public static class Supplier {
+		private String name;
+		private List<String> phones;
+	}
+	
+	@Test
+	public void typeDescriptorsAreShared() throws Exception {
+		ClassMetadata customer = new ClassMetadata(Customer.class);
+		ClassMetadata supplier = new ClassMetadata(Supplier.class);
+		
+		assertSame(TypeDescriptor.of("java.lang.String", null, null, false, false, false, false), TypeDescriptor.of("java.lang.String", null, null, false, false, false, false));
+		assertNotSame(TypeDescriptor.of("java.util.List", "java.lang.String", null, false, true, false, false), TypeDescriptor.of("java.util.List", "java.lang.Long", null, false, true, false, false));
+		assertSame(customer.getNamedField("name").getTypeName(), supplier.getNamedField("name").getTypeName());
+		assertSame(customer.getNamedField("phones").getBaseTypeName(), supplier.getNamedField("phones").getBaseTypeName());
+	}
+	
+	@Test
+	public void concurrentlyInternedDescriptorsAreShared() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<TypeDescriptor>> futures = new ArrayList<Future<TypeDescriptor>>();
+			for (int i = 0; i < 32; i++) {
+				futures.add(executor.submit(new Callable<TypeDescriptor>() {
+					public TypeDescriptor call() throws Exception {
+						start.await();
+						return TypeDescriptor.of("java.util.Map", "java.lang.Long", "java.lang.String", false, false, false, true);
+					}
+				}));
+			}
+			start.countDown();
+			TypeDescriptor shared = futures.get(0).get();
+			for (Future<TypeDescriptor> future : futures) {
+				assertSame(shared, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void fieldsWithoutAnnotationsShareAnEmptySet() throws Exception {
+		ClassMetadata customer = new ClassMetadata(Customer.class);
+		
+		assertTrue(customer.getAnnotations().isEmpty());
+		assertSame(customer.getNamedField("name").getAnnotations(), customer.getNamedField("email").getAnnotations());
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void fieldsViewIsReadOnly() throws Exception {
+		new ClassMetadata(Customer.class).getFields().clear();
+	}
+	
+	@Test
+	public void sharedObjectsAreAccountedOnce() throws Exception {
+		ClassMetadata customer = new ClassMetadata(Customer.class);
+		ClassMetadata supplier = new ClassMetadata(Supplier.class);
+		
+		MetadataFootprint customerFootprint = MetadataFootprint.of(customer);
+		MetadataFootprint supplierFootprint = MetadataFootprint.of(supplier);
+		MetadataFootprint footprint = MetadataFootprint.of(Arrays.asList(customer, supplier, customer));
+		
+		assertEquals(2, footprint.getClassCount());
+		assertEquals(5, footprint.getFieldCount());
+		assertEquals(0, footprint.getAnnotationCount());
+		assertEquals(customerFootprint.getRetainedBytes() + supplierFootprint.getRetainedBytes(), footprint.getRetainedBytes());
+		assertTrue(footprint.getSharedBytes() < customerFootprint.getSharedBytes() + supplierFootprint.getSharedBytes());
+		assertTrue(footprint.getRetainedBytesPerField() > 0);
+	}
+}
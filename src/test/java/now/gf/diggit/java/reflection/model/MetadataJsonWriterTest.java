@@ -0,0 +1,78 @@
+package now.gf.diggit.java.reflection.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import now.gf.diggit.java.reflection.ClassIntrospector;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class MetadataJsonWriterTest {
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface Note {
+		String value();
+		double ratio() default Double.NaN;
+	}
+	
+	@Note("quote \" backslash \\ newline \n tab \t bell \u0007 unit \u001f accent \u00e9 euro \u20ac")
+	public static class Noted {
+		private int count;
+	}
+	
+	public static class Plain {
+	}
+	
+	@BeforeClass
+	public static void registerAnnotations() {
+		new ClassIntrospector().registerAnnotation(Note.class);
+	}
+	
+	@Test
+	public void stringsAreEscaped() throws Exception {
+		String json = write(new ClassMetadata(Noted.class));
+		assertTrue(json, json.contains("\"value\":\"quote \\\" backslash \\\\ newline \\n tab \\t bell \\u0007 unit \\u001f accent \u00e9 euro \u20ac\""));
+		for (char c : json.toCharArray()) {
+			assertTrue("Unescaped control character " + (int) c, c >= 0x20);
+		}
+	}
+	
+	@Test
+	public void nonFiniteNumbersAreWrittenAsStrings() throws Exception {
+		String json = write(new ClassMetadata(Noted.class));
+		assertTrue(json, json.contains("\"ratio\":\"NaN\""));
+	}
+	
+	@Test
+	public void classesWithoutFieldsOrAnnotationsAreWellFormed() throws Exception {
+		String json = write(new ClassMetadata(Plain.class));
+		assertEquals("{\"qualifiedName\":\"" + Plain.class.getCanonicalName() + "\",\"package\":\"now.gf.diggit.java.reflection.model\","
+			+ "\"name\":\"Plain\",\"superclass\":null,\"annotations\":[],\"fields\":[]}", json);
+	}
+	
+	@Test
+	public void writeAllSeparatesClasses() throws Exception {
+		StringWriter out = new StringWriter();
+		int count = new MetadataJsonWriter(out).writeAll(Arrays.asList(new ClassMetadata(Plain.class), new ClassMetadata(Plain.class)));
+		assertEquals(2, count);
+		String json = out.toString();
+		assertTrue(json, json.startsWith("[{") && json.endsWith("}\n]"));
+		assertTrue(json, json.contains("}\n,{"));
+	}
+	
+	private static String write(final ClassMetadata classMetadata) throws Exception {
+		StringWriter out = new StringWriter();
+		new MetadataJsonWriter(out).write(classMetadata);
+		return out.toString();
+	}
+}
@@ -0,0 +1,158 @@
+package now.gf.diggit.java.reflection.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import now.gf.diggit.java.reflection.ClassIntrospector;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class MetadataSnapshotTest {
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface Label {
+		String value();
+		int[] sizes() default {};
+	}
+	
+	@Label(value = "account", sizes = {1, 2})
+	public static class Account {
+		@Label("owner")
+		private String owner;
+		private List<Long> amounts;
+		
+		public String getOwner() {
+			return owner;
+		}
+		
+		public void setOwner(final String owner) {
+			this.owner = owner;
+		}
+	}
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@BeforeClass
+	public static void registerAnnotations() {
+		new ClassIntrospector().registerAnnotation(Label.class);
+	}
+	
+	@Test
+	public void roundTripRestoresMetadata() throws Exception {
+		File file = folder.newFile("snapshot.bin");
+		assertEquals(1, MetadataSnapshot.write(Collections.singletonList(new ClassMetadata(Account.class)), file));
+		
+		List<String> stale = new ArrayList<String>();
+		Map<String, ClassMetadata> restored = MetadataSnapshot.read(file, Account.class.getClassLoader(), stale);
+		assertTrue(stale.isEmpty());
+		assertEquals(1, restored.size());
+		ClassMetadata classMetadata = restored.get(Account.class.getCanonicalName());
+		assertEquals(Account.class, classMetadata.getClz());
+		
+		FieldMetadata owner = classMetadata.getNamedField("owner");
+		assertEquals("java.lang.String", owner.getTypeName());
+		assertEquals("getOwner", owner.getGetterMethodName());
+		assertEquals("setOwner", owner.getSetterMethodName());
+		assertEquals("owner", owner.getNamedAnnotation(Label.class).getAttribute("value"));
+		FieldMetadata amounts = classMetadata.getNamedField("amounts");
+		assertTrue(amounts.isList());
+		assertEquals("java.lang.Long", amounts.getBaseTypeName());
+		
+		AnnotationMetadata label = classMetadata.getNamedAnnotation(Label.class);
+		assertEquals("account", label.getAttribute("value"));
+		assertArrayEquals(new int[] {1, 2}, (int[]) label.getAttribute("sizes"));
+	}
+	
+	@Test
+	public void rewritesReplaceTheSnapshotWithoutLeftovers() throws Exception {
+		File file = folder.newFile("snapshot.bin");
+		MetadataSnapshot.write(Collections.singletonList(new ClassMetadata(Account.class)), file);
+		
+		assertEquals(0, MetadataSnapshot.write(Collections.<ClassMetadata>emptyList(), file));
+		
+		assertTrue(MetadataSnapshot.read(file, Account.class.getClassLoader(), new ArrayList<String>()).isEmpty());
+		assertEquals(1, folder.getRoot().list().length);  // No temporary file left behind
+	}
+	
+	@Test
+	public void changedClassFileIsReportedStale() throws Exception {
+		File file = folder.newFile("snapshot.bin");
+		MetadataSnapshot.write(Collections.singletonList(new ClassMetadata(Account.class)), file);
+		
+		// Tamper with the checksum of the only entry, which follows the header and the class name
+		long checksumOffset = 4 + 2 + 4 + 4 + Account.class.getName().length();
+		RandomAccessFile snapshot = new RandomAccessFile(file, "rw");
+		try {
+			snapshot.seek(checksumOffset);
+			long checksum = snapshot.readLong();
+			snapshot.seek(checksumOffset);
+			snapshot.writeLong(~checksum);
+		} finally {
+			snapshot.close();
+		}
+		
+		List<String> stale = new ArrayList<String>();
+		assertTrue(MetadataSnapshot.read(file, Account.class.getClassLoader(), stale).isEmpty());
+		assertEquals(Collections.singletonList(Account.class.getName()), stale);
+	}
+	
+	@Test
+	public void otherVersionsAreRejected() throws Exception {
+		File file = folder.newFile("snapshot.bin");
+		MetadataSnapshot.write(Collections.singletonList(new ClassMetadata(Account.class)), file);
+		RandomAccessFile snapshot = new RandomAccessFile(file, "rw");
+		try {
+			snapshot.seek(4);
+			snapshot.writeShort(99);
+		} finally {
+			snapshot.close();
+		}
+		
+		try {
+			MetadataSnapshot.read(file, Account.class.getClassLoader(), null);
+			fail("Version not checked");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("version 99"));
+		}
+	}
+	
+	@Test
+	public void otherFilesAreRejected() throws Exception {
+		File file = folder.newFile("snapshot.bin");
+		RandomAccessFile snapshot = new RandomAccessFile(file, "rw");
+		try {
+			snapshot.writeInt(0xCAFEBABE);
+			snapshot.writeShort(2);
+			snapshot.writeInt(0);
+		} finally {
+			snapshot.close();
+		}
+		
+		try {
+			MetadataSnapshot.read(file, null, null);
+			fail("Magic number not checked");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Not a metadata snapshot"));
+		}
+	}
+}
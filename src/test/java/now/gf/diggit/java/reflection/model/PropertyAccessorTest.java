@@ -0,0 +1,72 @@
+package now.gf.diggit.java.reflection.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class PropertyAccessorTest {
+	public static class Bean {
+		public static String label = "bean";
+		
+		private String name;
+		private int age;
+		private final long id = 7;
+		int setterCalls;
+		
+		public String getName() {
+			return name;
+		}
+		
+		public void setName(final String name) {
+			setterCalls++;
+			this.name = name;
+		}
+	}
+	
+	@Test
+	public void settersAreUsedWhenAvailable() throws Exception {
+		PropertyAccessor accessor = new ClassMetadata(Bean.class).getNamedField("name").getAccessor();
+		Bean bean = new Bean();
+		
+		accessor.set(bean, "diggit");
+		
+		assertEquals(1, bean.setterCalls);
+		assertEquals("diggit", accessor.get(bean));
+	}
+	
+	@Test
+	public void fieldsAreAccessedDirectlyWithoutMethods() throws Exception {
+		PropertyAccessor accessor = new ClassMetadata(Bean.class).getNamedField("age").getAccessor();
+		Bean bean = new Bean();
+		
+		accessor.set(bean, 42);
+		
+		assertEquals(42, bean.age);
+		assertEquals(Integer.valueOf(42), accessor.get(bean));
+	}
+	
+	@Test
+	public void finalFieldsAreReadOnly() throws Exception {
+		PropertyAccessor accessor = new ClassMetadata(Bean.class).getNamedField("id").getAccessor();
+		
+		assertTrue(accessor.isReadable());
+		assertFalse(accessor.isWritable());
+		assertEquals(Long.valueOf(7), accessor.get(new Bean()));
+	}
+	
+	@Test
+	public void staticFieldsIgnoreTheBean() throws Exception {
+		FieldMetadata label = new ClassMetadata(Bean.class).getNamedField("label");
+		
+		assertEquals("bean", label.getAccessor().get(null));
+		assertSame(label.getAccessor(), label.getAccessor());
+	}
+}
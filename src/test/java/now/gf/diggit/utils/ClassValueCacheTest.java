@@ -0,0 +1,81 @@
+package now.gf.diggit.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class ClassValueCacheTest {
+	private static final Class<?>[] CLASSES = {String.class, Integer.class, Long.class, Double.class};
+	
+	@Test
+	public void removedEntriesLeaveNothingBehind() {
+		ClassValueCache<String> cache = new ClassValueCache<String>(EvictionPolicy.<Class<?>, String>maxSize(10));
+		cache.put(String.class, "a");
+		cache.put(String.class, "b");
+		
+		assertEquals(1, cache.size());
+		assertEquals("b", cache.remove(String.class));
+		assertNull(cache.get(String.class));
+		assertFalse(cache.containsKey(String.class));
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void concurrentPutsAndRemovesKeepTheSizeConsistent() throws Exception {
+		final ClassValueCache<Integer> cache = new ClassValueCache<Integer>(EvictionPolicy.<Class<?>, Integer>maxSize(100));
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final int seed = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < 50000; i++) {
+						Class<?> clz = CLASSES[(i + seed) % CLASSES.length];
+						if ((i + seed) % 3 == 0) cache.remove(clz); else cache.put(clz, i);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		int cached = 0;
+		for (Class<?> clz : CLASSES) {
+			if (cache.containsKey(clz)) cached++;
+		}
+		int iterated = 0;
+		for (Map.Entry<Class<?>, Integer> entry : cache.entrySet()) {
+			iterated++;
+		}
+		assertEquals(cached, iterated);
+		assertEquals(cached, cache.size());
+		assertEquals(cached, cache.getWeight());
+		
+		for (Class<?> clz : CLASSES) {
+			cache.remove(clz);
+		}
+		assertEquals(0, cache.size());
+	}
+}
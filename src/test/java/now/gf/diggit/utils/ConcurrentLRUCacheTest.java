@@ -0,0 +1,222 @@
+package now.gf.diggit.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class ConcurrentLRUCacheTest {
+	@Test
+	public void replacedAndRemovedEntriesDontPileUpInTheClock() throws Exception {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(10);
+		for (int i = 0; i < 100000; i++) {
+			cache.put("a", i);
+			cache.put("b" + (i % 5), i);
+			cache.remove("b" + ((i + 2) % 5));
+		}
+		assertTrue("Clock holds " + clockSize(cache) + " nodes", clockSize(cache) <= 2 * cache.size() + 2);
+		assertEquals(Integer.valueOf(99999), cache.get("a"));
+	}
+	
+	@Test
+	public void evictionSkipsRemovedEntries() {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(3);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("c", 3);
+		cache.remove("a");
+		cache.put("d", 4);
+		cache.put("e", 5);
+		assertEquals(3, cache.size());
+		assertNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals(Integer.valueOf(5), cache.get("e"));
+	}
+	
+	@Test
+	public void readEntriesGetASecondChance() {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(3);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("c", 3);
+		cache.get("a");
+		cache.put("d", 4);
+		assertEquals(3, cache.size());
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		assertNull(cache.get("b"));
+		assertTrue(cache.containsKey("c"));
+		assertTrue(cache.containsKey("d"));
+	}
+	
+	@Test
+	public void listenerTellsEvictionsFromRemovals() {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(2);
+		final List<String> events = new ArrayList<String>();
+		cache.setCacheListener(new ICacheListener<String, Integer>() {
+			public void entryAdded(final String key, final Integer value) {
+				events.add("+" + key + value);
+			}
+			
+			public void entryRemoved(final String key, final Integer value, final boolean evicted) {
+				events.add((evicted ? "!" : "-") + key + value);
+			}
+		});
+		cache.put("a", 1);
+		cache.put("a", 2);
+		cache.put("b", 3);
+		cache.put("c", 4);
+		cache.remove("b");
+		assertEquals("[+a1, -a1, +a2, +b3, +c4, !a2, -b3]", events.toString());
+	}
+	
+	@Test
+	public void weightBoundsEntries() {
+		ConcurrentLRUCache<String, String> cache = new ConcurrentLRUCache<String, String>(EvictionPolicy.<String, String>maxWeight(10, new IWeigher<String, String>() {
+			public int weigh(final String key, final String value) {
+				return value.length();
+			}
+		}));
+		cache.put("a", "xxxx");
+		cache.put("b", "xxxx");
+		assertEquals(8, cache.getWeight());
+		cache.put("c", "xxxx");
+		assertEquals(8, cache.getWeight());
+		assertFalse(cache.containsKey("a"));
+		cache.put("b", "x");
+		assertEquals(5, cache.getWeight());
+		cache.remove("c");
+		assertEquals(1, cache.getWeight());
+	}
+	
+	@Test
+	public void rarelyUsedEntriesAreNotAdmitted() {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(EvictionPolicy.<String, Integer>maxSize(2).withFrequencyAdmission());
+		cache.put("a", 1);
+		cache.put("b", 2);
+		for (int i = 0; i < 5; i++) {
+			cache.get("a");
+			cache.get("b");
+		}
+		cache.put("c", 3);
+		assertEquals(2, cache.size());
+		assertFalse(cache.containsKey("c"));
+		assertTrue(cache.containsKey("a"));
+		assertTrue(cache.containsKey("b"));
+	}
+	
+	@Test
+	public void valuesAreComputedOncePerKey() throws Exception {
+		final ConcurrentLRUCache<String, Object> cache = new ConcurrentLRUCache<String, Object>(10);
+		final AtomicInteger computations = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Object>> results = new ArrayList<Future<Object>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<Object>() {
+					public Object call() throws Exception {
+						start.await();
+						return cache.get("key", new Callable<Object>() {
+							public Object call() throws Exception {
+								computations.incrementAndGet();
+								Thread.sleep(50);
+								return new Object();
+							}
+						});
+					}
+				}));
+			}
+			start.countDown();
+			Object value = results.get(0).get(5, TimeUnit.SECONDS);
+			for (Future<Object> result : results) {
+				assertSame(value, result.get(5, TimeUnit.SECONDS));
+			}
+			assertEquals(1, computations.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void failedComputationsAreNotCached() throws Exception {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(10);
+		try {
+			cache.get("key", new Callable<Integer>() {
+				public Integer call() throws Exception {
+					throw new IllegalStateException("boom");
+				}
+			});
+			fail("Failure not reported");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertFalse(cache.containsKey("key"));
+		assertEquals(Integer.valueOf(7), cache.get("key", new Callable<Integer>() {
+			public Integer call() {
+				return 7;
+			}
+		}));
+	}
+	
+	@Test
+	public void concurrentWritersKeepTheCacheBounded() throws Exception {
+		final ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<Integer, Integer>(100);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final int seed = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < 20000; i++) {
+						int key = (i * 31 + seed * 7919) % 1000;
+						if (i % 10 == 0) cache.remove(key); else cache.put(key, i);
+						cache.get(key / 2);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// Writers skip eviction while another one is sweeping, so the bound may be briefly exceeded
+		assertTrue("Cache holds " + cache.size() + " entries", cache.size() <= 100 + threads.size());
+		assertEquals(cache.size(), cache.getWeight());
+	}
+	
+	private static int clockSize(final ConcurrentLRUCache<?, ?> cache) throws Exception {
+		Field clock = ConcurrentLRUCache.class.getDeclaredField("clock");
+		clock.setAccessible(true);
+		return ((Collection<?>) clock.get(cache)).size();
+	}
+}
@@ -0,0 +1,59 @@
+package now.gf.diggit.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class FrequencySketchTest {
+	@Test
+	public void countersSaturateAtFifteen() {
+		FrequencySketch sketch = new FrequencySketch(1024);
+		for (int i = 0; i < 100; i++) {
+			sketch.increment("hot");
+		}
+		sketch.increment("warm");
+		sketch.increment("warm");
+		assertEquals(15, sketch.frequency("hot"));
+		assertEquals(2, sketch.frequency("warm"));
+	}
+	
+	@Test
+	public void concurrentIncrementsDontCarryIntoNeighbours() throws Exception {
+		for (int round = 0; round < 20; round++) {
+			final FrequencySketch sketch = new FrequencySketch(16);
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int t = 0; t < 8; t++) {
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						for (int i = 0; i < 64; i++) {
+							sketch.increment("hot");
+						}
+					}
+				};
+				thread.start();
+				threads.add(thread);
+			}
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertEquals(15, sketch.frequency("hot"));
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package now.gf.diggit.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Giorgio Ferrara
+ *
+ */
+public class LRUCacheTest {
+	@Test
+	public void leastRecentlyUsedEntryIsEvicted() {
+		LRUCache<String, Integer> cache = new LRUCache<String, Integer>(3);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("c", 3);
+		cache.get("a");
+		cache.put("d", 4);
+		assertEquals(3, cache.size());
+		assertFalse(cache.containsKey("b"));
+		assertTrue(cache.containsKey("a"));
+	}
+}